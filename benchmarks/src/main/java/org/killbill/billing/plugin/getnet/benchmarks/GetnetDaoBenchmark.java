@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import static org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPayments.GETNET_PAYMENTS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording a Getnet answer, with GetnetDao.addResponse and with the insert
+ * then select by lastID() it replaced. Runs on an in-memory H2 database in
+ * MySQL mode by default, which leaves out the network round trip the single
+ * statement insert saves: pass a MySQL or PostgreSQL JDBC URL, user and
+ * password included, with -p jdbcUrl=... to measure against a real database.
+ * The getnet_payments table is emptied before every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class GetnetDaoBenchmark {
+
+	private static final String IN_MEMORY = "h2";
+
+	@Param(IN_MEMORY)
+	public String jdbcUrl;
+
+	private DataSource dataSource;
+	private GetnetDao getnetDao;
+	private InsertThenSelectDao insertThenSelectDao;
+	private PaymentCreditResponse response;
+	private GetnetPaymentsRecord row;
+	private UUID kbAccountId;
+	private UUID kbPaymentId;
+	private UUID kbTenantId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, SQLException {
+		dataSource = IN_MEMORY.equals(jdbcUrl) ? GetnetFixtures.newDatabase("getnet_benchmark")
+				: GetnetFixtures.connect(jdbcUrl);
+		getnetDao = new GetnetDao(dataSource);
+		insertThenSelectDao = new InsertThenSelectDao(dataSource);
+		response = GetnetJson.GSON.fromJson(GetnetFixtures.PAYMENT_CREDIT_RESPONSE, PaymentCreditResponse.class);
+		kbAccountId = UUID.randomUUID();
+		kbPaymentId = UUID.randomUUID();
+		kbTenantId = UUID.randomUUID();
+		// Same columns as addResponse writes, record_id left to the database
+		row = getnetDao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.PURCHASE,
+				BigDecimal.TEN, Currency.BRL, response, kbTenantId).copy();
+	}
+
+	// Keeps the table, and its indexes, the same size from one iteration to the
+	// next
+	@Setup(Level.Iteration)
+	public void truncate() throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("truncate table getnet_payments");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (dataSource instanceof JdbcConnectionPool) {
+			((JdbcConnectionPool) dataSource).dispose();
+		} else {
+			((Closeable) dataSource).close();
+		}
+	}
+
+	@Benchmark
+	public GetnetPaymentsRecord addResponse() throws SQLException {
+		return getnetDao.addResponse(kbAccountId, kbPaymentId, UUID.randomUUID(), TransactionType.PURCHASE,
+				BigDecimal.TEN, Currency.BRL, response, kbTenantId);
+	}
+
+	// Baseline, the addResponse of the plugin before the single statement insert
+	@Benchmark
+	public GetnetPaymentsRecord insertThenSelect() throws SQLException {
+		final GetnetPaymentsRecord newRow = row.copy();
+		newRow.setKbPaymentTransactionId(UUID.randomUUID().toString());
+		newRow.setCreatedDate(LocalDateTime.now());
+		return insertThenSelectDao.insertThenSelect(newRow);
+	}
+
+	// Insert, then read the row back by lastID() in the same transaction, two
+	// round trips plus the commit
+	private static final class InsertThenSelectDao extends GetnetDao {
+
+		InsertThenSelectDao(DataSource dataSource) throws SQLException {
+			super(dataSource);
+		}
+
+		GetnetPaymentsRecord insertThenSelect(GetnetPaymentsRecord newRow) throws SQLException {
+			return execute(dataSource.getConnection(),
+					conn -> DSL.using(conn, dialect, settings).transactionResult(configuration -> {
+						final DSLContext dslContext = DSL.using(configuration);
+						dslContext.insertInto(GETNET_PAYMENTS).set(newRow).execute();
+						return dslContext.fetchOne(GETNET_PAYMENTS, GETNET_PAYMENTS.RECORD_ID
+								.eq(GETNET_PAYMENTS.RECORD_ID.getDataType().convert(dslContext.lastID())));
+					}));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Fixed payloads shared by the benchmarks, shaped like what Getnet sends.
+ * Keep them stable, results are only comparable across commits while the
+ * inputs are the same.
+ */
+final class GetnetFixtures {
+
+	static final String SELLER_ID = "6eb2412c-165a-41cd-b1d9-76c575d70a28";
+
+	static final String PAYMENT_CREDIT_RESPONSE = "{"
+			+ "\"payment_id\":\"06f256c8-1bbf-42bf-93b4-ce2041bfb87e\","
+			+ "\"seller_id\":\"" + SELLER_ID + "\","
+			+ "\"amount\":1000,"
+			+ "\"currency\":\"BRL\","
+			+ "\"order_id\":\"6d2e4380-d8a3-4ccb-9138-c289182818a3\","
+			+ "\"status\":\"APPROVED\","
+			+ "\"received_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"credit\":{"
+			+ "\"delayed\":false,"
+			+ "\"authorization_code\":\"000000099999\","
+			+ "\"authorized_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"reason_code\":\"0\","
+			+ "\"reason_message\":\"transaction approved\","
+			+ "\"acquirer\":\"GETNET\","
+			+ "\"soft_descriptor\":\"LOJA*TESTE*COMPRA-123\","
+			+ "\"brand\":\"Mastercard\","
+			+ "\"terminal_nsu\":\"0099999\","
+			+ "\"acquirer_transaction_id\":\"10000024\","
+			+ "\"transaction_id\":\"1002217281190421\""
+			+ "}}";
+
+	static final String VAULT_CARD_RESPONSE = "{"
+			+ "\"card_id\":\"e8ad2ae4-9e3e-4532-998f-1a5a11e56e58\","
+			+ "\"last_four_digits\":\"0001\","
+			+ "\"bin\":\"515590\","
+			+ "\"expiration_month\":\"12\","
+			+ "\"expiration_year\":\"28\","
+			+ "\"brand\":\"Mastercard\","
+			+ "\"cardholder_name\":\"JOAO DA SILVA\","
+			+ "\"customer_id\":\"customer_21081826\","
+			+ "\"number_token\":\"dfe05208b105578c070f806c80abd3af09e246827d29b866cf4ce16c20584997"
+			+ "7c9496cbf0d0234f42339937f327747075f68763537b90b31389e01231d4d13c\","
+			+ "\"used_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"created_at\":\"2023-01-03T10:00:00.000Z\","
+			+ "\"updated_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"status\":\"active\""
+			+ "}";
+
+	private GetnetFixtures() {
+	}
+
+	/**
+	 * In-memory H2 database in MySQL mode with the plugin tables, created from
+	 * the ddl.sql shipped in the plugin jar.
+	 */
+	static JdbcConnectionPool newDatabase(String name) throws IOException, SQLException {
+		// H2 only knows serial in PostgreSQL mode
+		final String ddl = readDdl("/ddl.sql").replace("record_id serial", "record_id bigint auto_increment");
+
+		final JdbcConnectionPool dataSource = JdbcConnectionPool
+				.create("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+		try (Connection conn = dataSource.getConnection()) {
+			createTables(conn, ddl);
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Pooled connections to an existing MySQL or PostgreSQL database, user and
+	 * password in the JDBC URL. The plugin tables are created from ddl.sql or
+	 * ddl-postgres.sql when missing.
+	 */
+	static HikariDataSource connect(String jdbcUrl) throws IOException, SQLException {
+		final HikariConfig config = new HikariConfig();
+		config.setJdbcUrl(jdbcUrl);
+		config.setMaximumPoolSize(4);
+		final HikariDataSource dataSource = new HikariDataSource(config);
+		try (Connection conn = dataSource.getConnection()) {
+			final DatabaseMetaData metaData = conn.getMetaData();
+			final boolean postgres = metaData.getDatabaseProductName().toLowerCase().contains("postgres");
+			try (ResultSet tables = metaData.getTables(conn.getCatalog(), null, "getnet_payments", null)) {
+				if (!tables.next()) {
+					createTables(conn, readDdl(postgres ? "/ddl-postgres.sql" : "/ddl.sql"));
+				}
+			}
+		} catch (IOException | SQLException e) {
+			dataSource.close();
+			throw e;
+		}
+		return dataSource;
+	}
+
+	private static String readDdl(String resource) throws IOException {
+		try (InputStream in = GetnetDao.class.getResourceAsStream(resource)) {
+			if (in == null) {
+				throw new IOException(resource + " is not on the classpath");
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void createTables(Connection conn, String ddl) throws SQLException {
+		try (Statement statement = conn.createStatement()) {
+			for (String sql : ddl.split(";")) {
+				if (!sql.trim().isEmpty()) {
+					statement.execute(sql);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.api.PluginCallContext;
+import org.killbill.billing.plugin.getnet.GetnetActivator;
+import org.killbill.billing.plugin.getnet.GetnetCardCache;
+import org.killbill.billing.plugin.getnet.GetnetConfigurationHandler;
+import org.killbill.billing.plugin.getnet.GetnetEndpoint;
+import org.killbill.billing.plugin.getnet.GetnetHttpClientRegistry;
+import org.killbill.billing.plugin.getnet.GetnetMetrics;
+import org.killbill.billing.plugin.getnet.GetnetOperationExecutor;
+import org.killbill.billing.plugin.getnet.GetnetPaymentPluginApi;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.clock.Clock;
+import org.killbill.clock.DefaultClock;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Drives purchases through GetnetPaymentPluginApi at a fixed rate against
+ * {@link GetnetStubServer}, with the plugin tables on in-memory H2, and
+ * reports throughput and latency percentiles.
+ *
+ * The load is open: purchases are started on schedule whether or not the
+ * previous ones are done, and latency is counted from the scheduled start,
+ * so time spent queued behind slow calls is part of the result. Settings are
+ * system properties:
+ * <ul>
+ * <li>load.rate: purchases per second, defaults to 100</li>
+ * <li>load.duration_seconds: measured period, defaults to 60</li>
+ * <li>load.warmup_seconds: unmeasured period before it, defaults to 10</li>
+ * <li>load.accounts: accounts, each with one card, defaults to 100</li>
+ * <li>load.workers: threads calling the plugin, defaults to 200</li>
+ * </ul>
+ * stub.* properties configure the stub, see {@link GetnetStubServer}, and
+ * org.killbill.billing.plugin.getnet.* ones are handed to the plugin as the
+ * tenant configuration, payment_lookup_path pointing to the stub's lookup
+ * unless given. With metrics_enabled among them, the plugin metrics are
+ * printed after the report.
+ */
+public class GetnetLoadTest {
+
+	private static final String PROPERTY_PREFIX = "load.";
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final Properties properties;
+	private final int rate;
+	private final int durationSeconds;
+	private final int warmupSeconds;
+	private final int accounts;
+	private final int workers;
+
+	// Latencies of the measured purchases in microseconds, in completion order
+	private final long[] latencies;
+	private final AtomicInteger latencyCount = new AtomicInteger();
+	private final Map<PaymentPluginStatus, AtomicLong> statuses = Collections.synchronizedMap(
+			new EnumMap<PaymentPluginStatus, AtomicLong>(PaymentPluginStatus.class));
+	private final AtomicLong exceptionCount = new AtomicLong();
+
+	public GetnetLoadTest(Properties properties) {
+		this.properties = properties;
+		this.rate = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "rate", "100"));
+		this.durationSeconds = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "duration_seconds", "60"));
+		this.warmupSeconds = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "warmup_seconds", "10"));
+		this.accounts = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "accounts", "100"));
+		this.workers = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "workers", "200"));
+		this.latencies = new long[rate * durationSeconds];
+	}
+
+	public static void main(String[] args) throws Exception {
+		new GetnetLoadTest(System.getProperties()).run();
+	}
+
+	public void run() throws Exception {
+		final Clock clock = new DefaultClock();
+		final UUID kbTenantId = UUID.randomUUID();
+
+		try (GetnetStubServer stub = new GetnetStubServer(properties)) {
+			stub.start();
+
+			final Properties tenantProperties = new Properties();
+			tenantProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "url", stub.getUrl());
+			tenantProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "seller_id", GetnetFixtures.SELLER_ID);
+			tenantProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "client_id", "load-test");
+			tenantProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "client_secret", "load-test");
+			tenantProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "payment_lookup_path",
+					GetnetStubServer.PAYMENT_LOOKUP_PATH);
+			for (String name : properties.stringPropertyNames()) {
+				if (name.startsWith(GetnetActivator.PROPERTY_PREFIX)) {
+					tenantProperties.setProperty(name, properties.getProperty(name));
+				}
+			}
+
+			final GetnetMetrics metrics = new GetnetMetrics(tenantProperties);
+			final JdbcConnectionPool dataSource = GetnetFixtures.newDatabase("getnet_load_test");
+			dataSource.setMaxConnections(workers);
+			final GetnetDao getnetDao = new GetnetDao(dataSource);
+			getnetDao.setMetrics(metrics);
+
+			// Tenant configuration without a Kill Bill to read it from
+			final GetnetConfigurationHandler configurationHandler = new GetnetConfigurationHandler("",
+					GetnetActivator.PLUGIN_NAME, null) {
+				@Override
+				public Properties getConfigurable(UUID tenantId) {
+					return tenantProperties;
+				}
+			};
+			final GetnetHttpClientRegistry clientRegistry = new GetnetHttpClientRegistry(configurationHandler,
+					metrics);
+			final GetnetOperationExecutor operationExecutor = new GetnetOperationExecutor(tenantProperties);
+			final GetnetPaymentPluginApi pluginApi = new GetnetPaymentPluginApi(null, clock, null, getnetDao,
+					configurationHandler, clientRegistry, new GetnetCardCache(tenantProperties), null,
+					operationExecutor, metrics);
+
+			final UUID[] kbAccountIds = new UUID[accounts];
+			final UUID[] kbPaymentMethodIds = new UUID[accounts];
+			for (int i = 0; i < accounts; i++) {
+				kbAccountIds[i] = UUID.randomUUID();
+				kbPaymentMethodIds[i] = UUID.randomUUID();
+				getnetDao.addPaymentMethod(kbAccountIds[i], kbPaymentMethodIds[i], true,
+						ImmutableMap.of("token", UUID.randomUUID().toString()), clock.getUTCNow(), kbTenantId);
+			}
+
+			final ExecutorService workerPool = Executors.newFixedThreadPool(workers,
+					new ThreadFactoryBuilder().setNameFormat("getnet-load-%d").setDaemon(true).build());
+			try {
+				System.out.println("Running " + rate + " purchases/s for " + warmupSeconds + " s of warmup and "
+						+ durationSeconds + " s measured against " + stub.getUrl());
+
+				final long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+				final long total = (long) rate * (warmupSeconds + durationSeconds);
+				final long warmup = (long) rate * warmupSeconds;
+				final long start = System.nanoTime();
+				for (long i = 0; i < total; i++) {
+					final long scheduledAt = start + i * periodNanos;
+					final long delay = scheduledAt - System.nanoTime();
+					if (delay > 0) {
+						LockSupport.parkNanos(delay);
+					}
+
+					final boolean measured = i >= warmup;
+					final int account = (int) (i % accounts);
+					workerPool.execute(() -> purchase(pluginApi, clock, kbTenantId, kbAccountIds[account],
+							kbPaymentMethodIds[account], scheduledAt, measured));
+				}
+				final long sendingNanos = System.nanoTime() - start;
+
+				workerPool.shutdown();
+				if (!workerPool.awaitTermination(5, TimeUnit.MINUTES)) {
+					System.out.println("Purchases still running after 5 minutes, the report is partial");
+				}
+
+				report(sendingNanos, TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds), stub);
+				if (metrics.isEnabled()) {
+					System.out.println();
+					System.out.print(metrics.scrape());
+				}
+			} finally {
+				workerPool.shutdownNow();
+				operationExecutor.close();
+				clientRegistry.close();
+				dataSource.dispose();
+			}
+		}
+	}
+
+	private void purchase(GetnetPaymentPluginApi pluginApi, Clock clock, UUID kbTenantId, UUID kbAccountId,
+			UUID kbPaymentMethodId, long scheduledAt, boolean measured) {
+		PaymentPluginStatus status = null;
+		try {
+			final PaymentTransactionInfoPlugin info = pluginApi.purchasePayment(kbAccountId, UUID.randomUUID(),
+					UUID.randomUUID(), kbPaymentMethodId, BigDecimal.TEN, Currency.BRL,
+					Collections.<PluginProperty> emptyList(),
+					new PluginCallContext(GetnetActivator.PLUGIN_NAME, clock.getUTCNow(), kbAccountId, kbTenantId));
+			status = info == null ? null : info.getStatus();
+		} catch (PaymentPluginApiException | RuntimeException e) {
+			if (measured) {
+				exceptionCount.incrementAndGet();
+			}
+		}
+
+		if (!measured) {
+			return;
+		}
+		final int index = latencyCount.getAndIncrement();
+		if (index < latencies.length) {
+			latencies[index] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledAt);
+		}
+		if (status != null) {
+			statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+	private void report(long sendingNanos, long plannedNanos, GetnetStubServer stub) {
+		final int count = Math.min(latencyCount.get(), latencies.length);
+		final long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+
+		System.out.println();
+		if (sendingNanos > plannedNanos + TimeUnit.SECONDS.toNanos(1)) {
+			System.out.println("The harness could not keep up with the rate, add workers or lower it");
+		}
+		System.out.printf("Purchases: %d measured, %.1f/s%n", count, count / (double) durationSeconds);
+		for (double percentile : PERCENTILES) {
+			System.out.printf("  p%-5s %10.2f ms%n", percentile, percentile(sorted, percentile) / 1000.0);
+		}
+		System.out.printf("  max    %10.2f ms%n", count == 0 ? 0 : sorted[count - 1] / 1000.0);
+		System.out.println("Statuses: " + statuses + ", exceptions: " + exceptionCount.get());
+
+		System.out.println("Stub requests (total / 500 / 429):");
+		for (GetnetEndpoint endpoint : GetnetEndpoint.values()) {
+			final GetnetStubServer.Behaviour behaviour = stub.getBehaviour(endpoint);
+			System.out.printf("  %-16s %8d %8d %8d%n", endpoint.getMetricName(), behaviour.getRequestCount(),
+					behaviour.getErrorCount(), behaviour.getThrottledCount());
+		}
+	}
+
+	// Nearest-rank percentile
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+}
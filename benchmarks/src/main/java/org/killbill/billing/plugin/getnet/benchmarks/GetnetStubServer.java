@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.plugin.getnet.GetnetEndpoint;
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Getnet endpoints GetnetHttpClient calls, for
+ * load and latency tests that must not reach the homologation environment.
+ * Every endpoint group answers after a latency drawn from its distribution
+ * and fails with a 500 or a 429 at configured rates. The answers are valid
+ * enough for the plugin to go through its whole payment path.
+ *
+ * Payments are kept by order_id and served at PAYMENT_LOOKUP_PATH, 404 when
+ * unknown. A payment answered with a 500 is kept too, like one whose answer
+ * got lost, so that the plugin finds it when it looks it up before retrying.
+ *
+ * Settings are read from properties named stub.&lt;setting&gt;, overridden
+ * per endpoint group with stub.&lt;group&gt;.&lt;setting&gt;, the group
+ * being the metric name of the GetnetEndpoint (auth, cards, tokens,
+ * payments_credit, cancel):
+ * <ul>
+ * <li>latency_distribution: fixed, uniform (0 to twice the median) or
+ * lognormal, defaults to lognormal</li>
+ * <li>latency_median_millis: defaults to 20</li>
+ * <li>latency_p99_millis: lognormal only, defaults to 200</li>
+ * <li>error_rate: share of 500 answers, defaults to 0</li>
+ * <li>throttle_rate: share of 429 answers, defaults to 0</li>
+ * <li>max_requests_per_second: requests above it get a 429, 0 (the default)
+ * for no limit</li>
+ * <li>retry_after_seconds: Retry-After of the 429 answers, defaults to 1</li>
+ * </ul>
+ */
+public class GetnetStubServer implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetStubServer.class);
+
+	public static final String PROPERTY_PREFIX = "stub.";
+	// Value of the plugin's payment_lookup_path setting for this stub
+	public static final String PAYMENT_LOOKUP_PATH = "/v1/payments/credit/order/{order_id}";
+	private static final String PAYMENT_LOOKUP_PREFIX = "/v1/payments/credit/order/";
+
+	// z-score of the 99th percentile of the standard normal distribution
+	private static final double Z_99 = 2.326;
+
+	private final HttpServer server;
+	// Answers are sent from here once their latency has elapsed, the server
+	// threads never sleep
+	private final ScheduledExecutorService responder;
+	private final Map<GetnetEndpoint, Behaviour> behaviours = new EnumMap<GetnetEndpoint, Behaviour>(
+			GetnetEndpoint.class);
+	private final ConcurrentMap<String, JsonObject> paymentsByOrderId = new ConcurrentHashMap<String, JsonObject>();
+
+	public GetnetStubServer(Properties properties) throws IOException {
+		for (GetnetEndpoint endpoint : GetnetEndpoint.values()) {
+			behaviours.put(endpoint, new Behaviour(endpoint, properties));
+		}
+
+		final int threads = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "threads",
+				String.valueOf(Math.max(4, Runtime.getRuntime().availableProcessors()))));
+		final int port = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "port", "0"));
+		final int backlog = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "backlog", "1024"));
+
+		this.responder = Executors.newScheduledThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("getnet-stub-%d").setDaemon(true).build());
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), backlog);
+		server.createContext("/", this::handle);
+		server.setExecutor(responder);
+	}
+
+	public void start() {
+		server.start();
+		logger.info("[GETNET] Stub listening on {}", getUrl());
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public Behaviour getBehaviour(GetnetEndpoint endpoint) {
+		return behaviours.get(endpoint);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		responder.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		final String method = exchange.getRequestMethod();
+		final String path = exchange.getRequestURI().getPath();
+		final String[] segments = path.split("/");
+
+		final GetnetEndpoint endpoint;
+		final JsonObject body;
+		final int statusCode;
+		if ("/auth/oauth/v2/token".equals(path)) {
+			endpoint = GetnetEndpoint.AUTH;
+			statusCode = 200;
+			body = token();
+		} else if (path.startsWith("/v1/cards")) {
+			endpoint = GetnetEndpoint.CARDS;
+			if ("DELETE".equals(method)) {
+				statusCode = 204;
+				body = null;
+			} else if ("POST".equals(method)) {
+				statusCode = 201;
+				body = savedCard();
+			} else if (segments.length > 3) {
+				statusCode = 200;
+				body = card(segments[3]);
+			} else {
+				statusCode = 200;
+				final JsonArray cards = new JsonArray();
+				cards.add(card(UUID.randomUUID().toString()));
+				body = new JsonObject();
+				body.add("cards", cards);
+			}
+		} else if ("/v1/tokens/card".equals(path)) {
+			endpoint = GetnetEndpoint.TOKENS;
+			statusCode = 201;
+			body = new JsonObject();
+			body.addProperty("number_token", numberToken());
+		} else if ("/v1/payments/credit".equals(path)) {
+			endpoint = GetnetEndpoint.PAYMENTS;
+			statusCode = 200;
+			body = payment(readJson(exchange));
+		} else if (path.startsWith(PAYMENT_LOOKUP_PREFIX)) {
+			endpoint = GetnetEndpoint.PAYMENTS;
+			body = paymentsByOrderId.get(path.substring(PAYMENT_LOOKUP_PREFIX.length()));
+			statusCode = body == null ? 404 : 200;
+		} else if (path.startsWith("/v1/payments/credit/") && path.endsWith("/confirm")) {
+			endpoint = GetnetEndpoint.PAYMENTS;
+			statusCode = 200;
+			body = confirm(segments[4], readJson(exchange));
+		} else if (path.startsWith("/v1/payments/credit/") && path.endsWith("/cancel")) {
+			endpoint = GetnetEndpoint.PAYMENTS;
+			statusCode = 200;
+			body = cancel(segments[4]);
+		} else if (path.startsWith("/v1/payments/cancel/request")) {
+			endpoint = GetnetEndpoint.CANCEL;
+			statusCode = 200;
+			body = cancelRequest("POST".equals(method) ? readJson(exchange) : null);
+		} else {
+			exchange.getRequestBody().close();
+			send(exchange, 404, null, null);
+			return;
+		}
+		exchange.getRequestBody().close();
+
+		final Behaviour behaviour = behaviours.get(endpoint);
+		final long latencyMillis = behaviour.sampleLatencyMillis();
+		final int outcome = behaviour.outcome(statusCode);
+		if (body != null && outcome != 429 && "/v1/payments/credit".equals(path) && body.has("order_id")) {
+			paymentsByOrderId.put(body.get("order_id").getAsString(), body);
+		}
+		final JsonObject answer = outcome == statusCode ? body : error(outcome);
+		final String retryAfter = outcome == 429 ? String.valueOf(behaviour.retryAfterSeconds) : null;
+		responder.schedule(() -> send(exchange, outcome, answer, retryAfter), latencyMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static void send(HttpExchange exchange, int statusCode, JsonObject body, String retryAfter) {
+		try {
+			if (retryAfter != null) {
+				exchange.getResponseHeaders().set("Retry-After", retryAfter);
+			}
+			if (body == null) {
+				exchange.sendResponseHeaders(statusCode, -1);
+			} else {
+				final byte[] bytes = GetnetJson.toBytes(body);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(statusCode, bytes.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes);
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("[GETNET] Stub failed to answer {}", exchange.getRequestURI(), e);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static JsonObject readJson(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			final JsonObject json = GetnetJson.GSON.fromJson(new String(in.readAllBytes(), StandardCharsets.UTF_8),
+					JsonObject.class);
+			return json == null ? new JsonObject() : json;
+		}
+	}
+
+	private static JsonObject token() {
+		final JsonObject token = new JsonObject();
+		token.addProperty("access_token", UUID.randomUUID().toString());
+		token.addProperty("token_type", "Bearer");
+		token.addProperty("expires_in", 3600);
+		token.addProperty("scope", "oob");
+		return token;
+	}
+
+	private static JsonObject card(String cardId) {
+		final JsonObject card = GetnetJson.GSON.fromJson(GetnetFixtures.VAULT_CARD_RESPONSE, JsonObject.class);
+		card.addProperty("card_id", cardId);
+		return card;
+	}
+
+	private static JsonObject savedCard() {
+		final JsonObject card = new JsonObject();
+		card.addProperty("card_id", UUID.randomUUID().toString());
+		card.addProperty("number_token", numberToken());
+		return card;
+	}
+
+	private static String numberToken() {
+		return UUID.randomUUID().toString().replace("-", "") + UUID.randomUUID().toString().replace("-", "");
+	}
+
+	// Echoes the order of the request so that lookups by order_id line up
+	private static JsonObject payment(JsonObject request) {
+		final JsonObject payment = GetnetJson.GSON.fromJson(GetnetFixtures.PAYMENT_CREDIT_RESPONSE,
+				JsonObject.class);
+		payment.addProperty("payment_id", UUID.randomUUID().toString());
+		if (request.has("seller_id")) {
+			payment.add("seller_id", request.get("seller_id"));
+		}
+		if (request.has("amount")) {
+			payment.add("amount", request.get("amount"));
+		}
+		if (request.has("order") && request.getAsJsonObject("order").has("order_id")) {
+			payment.add("order_id", request.getAsJsonObject("order").get("order_id"));
+		}
+		final String now = Instant.now().toString();
+		payment.addProperty("received_at", now);
+		payment.getAsJsonObject("credit").addProperty("authorized_at", now);
+		return payment;
+	}
+
+	private static JsonObject confirm(String paymentId, JsonObject request) {
+		final JsonObject confirm = operation(paymentId, "CONFIRMED");
+		if (request.has("amount")) {
+			confirm.add("amount", request.get("amount"));
+		}
+		final JsonObject details = new JsonObject();
+		details.addProperty("confirm_date", Instant.now().toString());
+		details.addProperty("message", "Credit transaction confirmed successfully");
+		confirm.add("credit_confirm", details);
+		return confirm;
+	}
+
+	private static JsonObject cancel(String paymentId) {
+		final JsonObject cancel = operation(paymentId, "CANCELED");
+		final JsonObject details = new JsonObject();
+		details.addProperty("canceled_at", Instant.now().toString());
+		details.addProperty("message", "Credit transaction cancelled successfully");
+		cancel.add("credit_cancel", details);
+		return cancel;
+	}
+
+	private static JsonObject operation(String paymentId, String status) {
+		final JsonObject operation = new JsonObject();
+		operation.addProperty("payment_id", paymentId);
+		operation.addProperty("seller_id", GetnetFixtures.SELLER_ID);
+		operation.addProperty("order_id", UUID.randomUUID().toString());
+		operation.addProperty("currency", "BRL");
+		operation.addProperty("status", status);
+		return operation;
+	}
+
+	// Refunds are accepted straight away and reported as done on every read
+	private static JsonObject cancelRequest(JsonObject request) {
+		final JsonObject cancelRequest = new JsonObject();
+		cancelRequest.addProperty("seller_id", GetnetFixtures.SELLER_ID);
+		cancelRequest.addProperty("cancel_request_at", Instant.now().toString());
+		cancelRequest.addProperty("cancel_request_id", UUID.randomUUID().toString());
+		if (request != null) {
+			cancelRequest.add("payment_id", request.get("payment_id"));
+			cancelRequest.add("cancel_custom_key", request.get("cancel_custom_key"));
+			cancelRequest.addProperty("status", "ACCEPTED");
+		} else {
+			cancelRequest.addProperty("payment_id", UUID.randomUUID().toString());
+			cancelRequest.addProperty("status", "CANCELED");
+		}
+		return cancelRequest;
+	}
+
+	private static JsonObject error(int statusCode) {
+		final JsonObject error = new JsonObject();
+		error.addProperty("message", statusCode == 429 ? "Too Many Requests" : "Internal Server Error");
+		error.addProperty("name", "StubError");
+		error.addProperty("status_code", statusCode);
+		return error;
+	}
+
+	/**
+	 * Latency and failures of one endpoint group, with the counts of what it
+	 * answered.
+	 */
+	public static class Behaviour {
+
+		private final String distribution;
+		private final long medianMillis;
+		private final double sigma;
+		private final double errorRate;
+		private final double throttleRate;
+		private final long retryAfterSeconds;
+		// Null when the request rate is not limited
+		private final RateLimiter rateLimiter;
+
+		private final AtomicLong requestCount = new AtomicLong();
+		private final AtomicLong errorCount = new AtomicLong();
+		private final AtomicLong throttledCount = new AtomicLong();
+
+		Behaviour(GetnetEndpoint endpoint, Properties properties) {
+			final String prefix = PROPERTY_PREFIX + endpoint.getMetricName() + ".";
+			this.distribution = property(properties, prefix, "latency_distribution", "lognormal");
+			this.medianMillis = Long.parseLong(property(properties, prefix, "latency_median_millis", "20"));
+			final long p99Millis = Long.parseLong(property(properties, prefix, "latency_p99_millis", "200"));
+			this.sigma = medianMillis > 0 && p99Millis > medianMillis
+					? Math.log((double) p99Millis / medianMillis) / Z_99
+					: 0;
+			this.errorRate = Double.parseDouble(property(properties, prefix, "error_rate", "0"));
+			this.throttleRate = Double.parseDouble(property(properties, prefix, "throttle_rate", "0"));
+			this.retryAfterSeconds = Long.parseLong(property(properties, prefix, "retry_after_seconds", "1"));
+			final double maxRequestsPerSecond = Double
+					.parseDouble(property(properties, prefix, "max_requests_per_second", "0"));
+			this.rateLimiter = maxRequestsPerSecond > 0 ? RateLimiter.create(maxRequestsPerSecond) : null;
+		}
+
+		private static String property(Properties properties, String prefix, String name, String defaultValue) {
+			return properties.getProperty(prefix + name,
+					properties.getProperty(PROPERTY_PREFIX + name, defaultValue));
+		}
+
+		long sampleLatencyMillis() {
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			switch (distribution) {
+			case "fixed":
+				return medianMillis;
+			case "uniform":
+				return random.nextLong(2 * medianMillis + 1);
+			default:
+				return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+			}
+		}
+
+		// Status code actually answered, the expected one unless the request is
+		// throttled or fails
+		int outcome(int statusCode) {
+			requestCount.incrementAndGet();
+			final double draw = ThreadLocalRandom.current().nextDouble();
+			if ((rateLimiter != null && !rateLimiter.tryAcquire()) || draw < throttleRate) {
+				throttledCount.incrementAndGet();
+				return 429;
+			}
+			if (draw < throttleRate + errorRate) {
+				errorCount.incrementAndGet();
+				return 500;
+			}
+			return statusCode;
+		}
+
+		public long getRequestCount() {
+			return requestCount.get();
+		}
+
+		public long getErrorCount() {
+			return errorCount.get();
+		}
+
+		public long getThrottledCount() {
+			return throttledCount.get();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.killbill.billing.plugin.getnet.GetnetPaymentCreditBuilder;
+import org.killbill.billing.plugin.getnet.model.PaymentCredit;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the charge request with GetnetPaymentCreditBuilder, as a purchase
+ * does, and encoding it as the body posted to /v1/payments/credit. prettyBody is the toString() body sent before the
+ * compact encoding, kept as the baseline. Run with -prof gc for the bytes
+ * allocated per operation, the body sizes are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PaymentCreditBenchmark {
+
+	private VaultCardResponse card;
+	private UUID kbAccountId;
+	private UUID kbTransactionId;
+	private PaymentCredit payment;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		card = GetnetJson.GSON.fromJson(GetnetFixtures.VAULT_CARD_RESPONSE, VaultCardResponse.class);
+		kbAccountId = UUID.randomUUID();
+		kbTransactionId = UUID.randomUUID();
+		payment = build();
+
+		System.out.println("compact body: " + GetnetJson.toBytes(payment).length + " bytes, pretty body: "
+				+ payment.toString().getBytes(StandardCharsets.UTF_8).length + " bytes");
+	}
+
+	@Benchmark
+	public PaymentCredit build() {
+		return GetnetPaymentCreditBuilder.build(TransactionType.PURCHASE, kbAccountId, kbTransactionId, BigDecimal.TEN,
+				Currency.BRL, card, "LOJA");
+	}
+
+	@Benchmark
+	public byte[] compactBody() {
+		return GetnetJson.toBytes(payment);
+	}
+
+	@Benchmark
+	public byte[] prettyBody() {
+		return payment.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] buildAndEncode() {
+		return GetnetJson.toBytes(build());
+	}
+}
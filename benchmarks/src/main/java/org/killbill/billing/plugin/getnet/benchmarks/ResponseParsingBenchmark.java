@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Decoding Getnet answers. The *Bytes benchmarks are the path the client
+ * takes, straight from the response bytes into the model class. The *String
+ * ones decode to a String and hand it to a new Gson, as the client did before,
+ * and are kept as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+
+	private byte[] paymentBody;
+	private byte[] cardBody;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		paymentBody = GetnetFixtures.PAYMENT_CREDIT_RESPONSE.getBytes(StandardCharsets.UTF_8);
+		cardBody = GetnetFixtures.VAULT_CARD_RESPONSE.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public PaymentCreditResponse paymentCreditResponseBytes() throws IOException {
+		return GetnetJson.read(new ByteArrayInputStream(paymentBody), PaymentCreditResponse.class);
+	}
+
+	@Benchmark
+	public PaymentCreditResponse paymentCreditResponseString() {
+		return string(paymentBody, PaymentCreditResponse.class);
+	}
+
+	@Benchmark
+	public VaultCardResponse vaultCardResponseBytes() throws IOException {
+		return GetnetJson.read(new ByteArrayInputStream(cardBody), VaultCardResponse.class);
+	}
+
+	@Benchmark
+	public VaultCardResponse vaultCardResponseString() {
+		return string(cardBody, VaultCardResponse.class);
+	}
+
+	private static <T> T string(byte[] body, Class<T> clazz) {
+		return new Gson().fromJson(new String(body, StandardCharsets.UTF_8), clazz);
+	}
+}
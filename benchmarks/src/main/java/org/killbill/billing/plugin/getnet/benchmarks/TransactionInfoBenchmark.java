@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.benchmarks;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.getnet.GetnetTransactionInfoMapper;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mapping getnet_payments rows to the transaction infos handed to Kill Bill,
+ * what buildPaymentTransactionInfoPlugin does for every row of
+ * getPaymentInfo and searchPayments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TransactionInfoBenchmark {
+
+	// A payment with an authorization, a capture and a refund
+	private static final int ROWS = 3;
+
+	private List<GetnetPaymentsRecord> records;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final UUID kbPaymentId = UUID.randomUUID();
+		final LocalDateTime now = LocalDateTime.of(2023, 5, 10, 14, 21, 9);
+		records = new ArrayList<GetnetPaymentsRecord>(ROWS);
+		for (TransactionType transactionType : new TransactionType[] { TransactionType.AUTHORIZE,
+				TransactionType.CAPTURE, TransactionType.REFUND }) {
+			final GetnetPaymentsRecord record = new GetnetPaymentsRecord();
+			record.setKbAccountId(UUID.randomUUID().toString());
+			record.setKbPaymentId(kbPaymentId.toString());
+			record.setKbPaymentTransactionId(UUID.randomUUID().toString());
+			record.setTransactionType(transactionType.toString());
+			record.setAmount(new BigDecimal("10.00"));
+			record.setCurrency("BRL");
+			record.setGetnetPaymentId(UUID.randomUUID().toString());
+			record.setSellerId(GetnetFixtures.SELLER_ID);
+			record.setOrderId(UUID.randomUUID().toString());
+			record.setGetnetStatus(transactionType == TransactionType.REFUND ? "ACCEPTED" : "APPROVED");
+			record.setReceivedAt(now);
+			record.setAuthorizationCode("000000099999");
+			record.setAuthorizedAt(now);
+			record.setReasonCode("0");
+			record.setReasonMessage("transaction approved");
+			record.setSoftDescriptor("LOJA*TESTE*COMPRA-123");
+			record.setBrand("Mastercard");
+			record.setTerminalNsu("0099999");
+			record.setAcquirerTransactionId("10000024");
+			record.setTransactionId("1002217281190421");
+			record.setCreatedDate(now);
+			record.setKbTenantId(UUID.randomUUID().toString());
+			records.add(record);
+		}
+	}
+
+	@Benchmark
+	public PaymentTransactionInfoPlugin toTransactionInfo() {
+		return GetnetTransactionInfoMapper.toTransactionInfo(records.get(0));
+	}
+
+	@Benchmark
+	public List<PaymentTransactionInfoPlugin> toTransactionInfos() {
+		return GetnetTransactionInfoMapper.toTransactionInfos(records);
+	}
+}
@@ -23,12 +23,15 @@ package org.killbill.billing.plugin.getnet;
 import java.util.Hashtable;
 import java.util.Properties;
 
+import javax.servlet.Servlet;
+
 import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
 import org.killbill.billing.plugin.core.config.PluginEnvironmentConfig;
 import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.billing.plugin.getnet.dao.GetnetResponseJournal;
 import org.osgi.framework.BundleContext;
 
 public class GetnetActivator extends KillbillActivatorBase {
@@ -37,8 +40,15 @@ public class GetnetActivator extends KillbillActivatorBase {
 	// appropriate payment plugin
 	public static final String PLUGIN_NAME = "killbill-getnet";
 	public static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.getnet.";
+	private static final String RESPONSE_JOURNAL_FILE = "getnet-responses.journal";
 
 	private GetnetConfigurationHandler getnetConfigurationHandler;
+	private GetnetHttpClientRegistry clientRegistry;
+	private GetnetResponseJournal responseJournal;
+	private GetnetNotificationProcessor notificationProcessor;
+	private GetnetRefundReconciler refundReconciler;
+	private GetnetOperationExecutor operationExecutor;
+	private GetnetWarmUp warmUp;
 
 	@Override
 	public void start(final BundleContext context) throws Exception {
@@ -52,13 +62,73 @@ public class GetnetActivator extends KillbillActivatorBase {
 				.createConfigurable(configProperties.getProperties());
 		getnetConfigurationHandler.setDefaultConfigurable(globalConfiguration);
 
+		final GetnetMetrics metrics = new GetnetMetrics(configProperties.getProperties());
+
+		// Tenant http clients are kept warm and only rebuilt when their configuration changes
+		clientRegistry = new GetnetHttpClientRegistry(getnetConfigurationHandler, metrics);
+		getnetConfigurationHandler.addConfigurationChangeListener(clientRegistry::invalidate);
+
 		final GetnetDao getnetDao = new GetnetDao(dataSource.getDataSource());
+		getnetDao.setMetrics(metrics);
+		if (Boolean.parseBoolean(
+				configProperties.getProperties().getProperty(PROPERTY_PREFIX + "write_behind_enabled", "false"))) {
+			// The journal lives in the bundle storage area so that it survives restarts
+			responseJournal = new GetnetResponseJournal(getnetDao, context.getDataFile(RESPONSE_JOURNAL_FILE),
+					configProperties.getProperties());
+			responseJournal.start();
+			getnetDao.setResponseJournal(responseJournal);
+		}
+
+		final GetnetCardCache cardCache = new GetnetCardCache(configProperties.getProperties());
+
+		notificationProcessor = new GetnetNotificationProcessor(killbillAPI, getnetDao, clientRegistry,
+				clock.getClock(), configProperties.getProperties());
+		notificationProcessor.start();
+
+		refundReconciler = new GetnetRefundReconciler(getnetDao, clientRegistry, notificationProcessor,
+				clock.getClock(), configProperties.getProperties());
+		refundReconciler.start();
+
+		operationExecutor = new GetnetOperationExecutor(configProperties.getProperties());
 
 		final GetnetPaymentPluginApi pluginApi = new GetnetPaymentPluginApi(killbillAPI, clock.getClock(),
-				configProperties, getnetDao, getnetConfigurationHandler);
+				configProperties, getnetDao, getnetConfigurationHandler, clientRegistry, cardCache,
+				notificationProcessor, operationExecutor, metrics);
+
+		metrics.addCollector(clientRegistry::collect);
+		metrics.addCollector(refundReconciler::collect);
+		metrics.addCollector(operationExecutor::collect);
 
 		registerPaymentPluginApi(context, pluginApi);
+		registerMetrics(context, metrics);
 		registerHandlers();
+
+		// Runs in the background, activation does not wait for Getnet
+		warmUp = new GetnetWarmUp(getnetDao, clientRegistry, configProperties.getProperties());
+		warmUp.start();
+	}
+
+	@Override
+	public void stop(final BundleContext context) throws Exception {
+		if (warmUp != null) {
+			warmUp.close();
+		}
+		if (refundReconciler != null) {
+			refundReconciler.close();
+		}
+		if (operationExecutor != null) {
+			operationExecutor.close();
+		}
+		if (notificationProcessor != null) {
+			notificationProcessor.close();
+		}
+		if (responseJournal != null) {
+			responseJournal.close();
+		}
+		if (clientRegistry != null) {
+			clientRegistry.close();
+		}
+		super.stop(context);
 	}
 
 	private void registerPaymentPluginApi(final BundleContext context, final PaymentPluginApi api) {
@@ -67,6 +137,15 @@ public class GetnetActivator extends KillbillActivatorBase {
 		registrar.registerService(context, PaymentPluginApi.class, api, props);
 	}
 
+	// Other bundles can read the metrics through the service, Prometheus scrapes
+	// them from /plugins/killbill-getnet/metrics
+	private void registerMetrics(final BundleContext context, final GetnetMetrics metrics) {
+		final Hashtable<String, String> props = new Hashtable<String, String>();
+		props.put(OSGIPluginProperties.PLUGIN_NAME_PROP, PLUGIN_NAME);
+		registrar.registerService(context, GetnetMetrics.class, metrics, props);
+		registrar.registerService(context, Servlet.class, new GetnetMetricsServlet(metrics), props);
+	}
+
 	private void registerHandlers() {
 		final PluginConfigurationEventHandler configHandler =  new PluginConfigurationEventHandler(getnetConfigurationHandler);
 		
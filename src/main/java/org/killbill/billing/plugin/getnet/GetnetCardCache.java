@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of Getnet vault cards (GET /v1/cards/{id}) keyed by tenant and
+ * card id. Card metadata (brand, expiry, cardholder name) is served until the
+ * entry expires, while the number token is only trusted for a shorter period
+ * and re-fetched when a payment actually needs it.
+ */
+public class GetnetCardCache {
+
+	public interface CardLoader {
+		VaultCardResponse load() throws PaymentPluginApiException;
+	}
+
+	private static class CachedCard {
+		private final VaultCardResponse card;
+		private final long fetchedAtMillis;
+
+		private CachedCard(VaultCardResponse card, long fetchedAtMillis) {
+			this.card = card;
+			this.fetchedAtMillis = fetchedAtMillis;
+		}
+	}
+
+	private final Cache<String, CachedCard> cards;
+	private final long numberTokenTtlMillis;
+
+	public GetnetCardCache(Properties configProperties) {
+		final long maxSize = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "card_cache_max_size", "10000"));
+		final long ttlSeconds = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "card_cache_ttl_seconds", "3600"));
+		final long numberTokenTtlSeconds = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "card_cache_number_token_ttl_seconds", "300"));
+
+		this.cards = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.build();
+		this.numberTokenTtlMillis = TimeUnit.SECONDS.toMillis(numberTokenTtlSeconds);
+	}
+
+	/**
+	 * Returns the cached card, calling the loader on a miss. When
+	 * {@code requireNumberToken} is set, entries whose number token is older than
+	 * the number token TTL are re-fetched as well.
+	 */
+	public VaultCardResponse getCard(UUID tenantId, String cardId, boolean requireNumberToken, CardLoader loader)
+			throws PaymentPluginApiException {
+		final String key = key(tenantId, cardId);
+		final long now = System.currentTimeMillis();
+
+		final CachedCard cached = cards.getIfPresent(key);
+		if (cached != null && (!requireNumberToken || now - cached.fetchedAtMillis < numberTokenTtlMillis)) {
+			return cached.card;
+		}
+
+		final VaultCardResponse card = loader.load();
+		if (card != null) {
+			cards.put(key, new CachedCard(card, now));
+		}
+		return card;
+	}
+
+	public void put(UUID tenantId, String cardId, VaultCardResponse card) {
+		cards.put(key(tenantId, cardId), new CachedCard(card, System.currentTimeMillis()));
+	}
+
+	public void invalidate(UUID tenantId, String cardId) {
+		cards.invalidate(key(tenantId, cardId));
+	}
+
+	private static String key(UUID tenantId, String cardId) {
+		return tenantId + ":" + cardId;
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker and bulkhead for one Getnet endpoint of one seller. After
+ * a run of consecutive failures the circuit opens and calls fail immediately;
+ * once the open period is over a single trial call decides whether it closes
+ * again, calls admitted before the circuit opened do not count once they end.
+ * Independently, no more than a fixed number of calls may be in flight,
+ * extra calls are refused rather than queued.
+ */
+public class GetnetCircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetCircuitBreaker.class);
+
+	// Error types of the fast failures, the call never reached Getnet
+	public static final String CIRCUIT_OPEN = "GETNET_CIRCUIT_OPEN";
+	public static final String BULKHEAD_FULL = "GETNET_BULKHEAD_FULL";
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * A slot taken by {@link #acquire()}, handed back to
+	 * {@link #release(Permit, boolean)}.
+	 */
+	public static final class Permit {
+		private final boolean trial;
+
+		private Permit(boolean trial) {
+			this.trial = trial;
+		}
+
+		public boolean isTrial() {
+			return trial;
+		}
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openMillis;
+	private final int maxConcurrentCalls;
+	private final Semaphore bulkhead;
+
+	// Guarded by this
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAtMillis;
+	private boolean trialInFlight;
+
+	private final AtomicLong openedCount = new AtomicLong();
+	private final AtomicLong halfOpenedCount = new AtomicLong();
+	private final AtomicLong closedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong bulkheadRejectedCount = new AtomicLong();
+
+	public GetnetCircuitBreaker(String name, int failureThreshold, long openMillis, int maxConcurrentCalls) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.bulkhead = new Semaphore(maxConcurrentCalls);
+	}
+
+	public static boolean isFastFailure(String errorType) {
+		return CIRCUIT_OPEN.equals(errorType) || BULKHEAD_FULL.equals(errorType);
+	}
+
+	/**
+	 * Takes a slot for a call, every successful acquire must be followed by
+	 * exactly one {@link #release(Permit, boolean)} of the returned permit.
+	 */
+	public Permit acquire() throws PaymentPluginApiException {
+		final boolean trial;
+		synchronized (this) {
+			if (state == State.OPEN) {
+				if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+					rejectedCount.incrementAndGet();
+					throw new PaymentPluginApiException(CIRCUIT_OPEN,
+							"Getnet " + name + " is failing, call refused until the circuit closes");
+				}
+				transition(State.HALF_OPEN);
+			}
+			if (state == State.HALF_OPEN) {
+				if (trialInFlight) {
+					rejectedCount.incrementAndGet();
+					throw new PaymentPluginApiException(CIRCUIT_OPEN,
+							"Getnet " + name + " is being probed, call refused until the circuit closes");
+				}
+				trialInFlight = true;
+				trial = true;
+			} else {
+				trial = false;
+			}
+		}
+
+		if (!bulkhead.tryAcquire()) {
+			if (trial) {
+				synchronized (this) {
+					trialInFlight = false;
+				}
+			}
+			bulkheadRejectedCount.incrementAndGet();
+			throw new PaymentPluginApiException(BULKHEAD_FULL,
+					"Getnet " + name + " already has " + maxConcurrentCalls + " calls in flight");
+		}
+		return new Permit(trial);
+	}
+
+	/**
+	 * Records the outcome of a call. Only gateway failures (I/O errors,
+	 * timeouts, 5xx) count against the circuit, refusals of the payment itself
+	 * are successful calls. Only the trial call moves the circuit out of
+	 * HALF_OPEN, and only calls admitted while it was CLOSED count towards
+	 * opening it.
+	 */
+	public void release(Permit permit, boolean success) {
+		bulkhead.release();
+		synchronized (this) {
+			if (permit.trial) {
+				if (state == State.HALF_OPEN) {
+					transition(success ? State.CLOSED : State.OPEN);
+				}
+			} else if (state == State.CLOSED) {
+				if (success) {
+					consecutiveFailures = 0;
+				} else if (++consecutiveFailures >= failureThreshold) {
+					transition(State.OPEN);
+				}
+			}
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public int getInFlightCalls() {
+		return maxConcurrentCalls - bulkhead.availablePermits();
+	}
+
+	public long getOpenedCount() {
+		return openedCount.get();
+	}
+
+	public long getHalfOpenedCount() {
+		return halfOpenedCount.get();
+	}
+
+	public long getClosedCount() {
+		return closedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getBulkheadRejectedCount() {
+		return bulkheadRejectedCount.get();
+	}
+
+	// Must be called holding the monitor
+	private void transition(State newState) {
+		logger.info("[GETNET] Circuit for {} moves from {} to {}", name, state, newState);
+		state = newState;
+		trialInFlight = false;
+		switch (newState) {
+		case OPEN:
+			openedAtMillis = System.currentTimeMillis();
+			openedCount.incrementAndGet();
+			break;
+		case HALF_OPEN:
+			halfOpenedCount.incrementAndGet();
+			break;
+		case CLOSED:
+			consecutiveFailures = 0;
+			closedCount.incrementAndGet();
+			break;
+		}
+	}
+}
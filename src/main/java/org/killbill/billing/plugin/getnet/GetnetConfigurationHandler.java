@@ -20,7 +20,11 @@
  *******************************************************************************/
 package org.killbill.billing.plugin.getnet;
 
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConfigurationHandler;
@@ -31,15 +35,36 @@ public class GetnetConfigurationHandler extends PluginTenantConfigurableConfigur
 	private static final Logger logger = LoggerFactory.getLogger(GetnetConfigurationHandler.class);
 
 	private final String region;
+	private final List<Consumer<UUID>> configurationChangeListeners = new CopyOnWriteArrayList<Consumer<UUID>>();
 
 	public GetnetConfigurationHandler(String region, String pluginName, OSGIKillbillAPI osgiKillbillAPI) {
 		super(pluginName, osgiKillbillAPI);
 		this.region = region;
 	}
 
+	/**
+	 * Registers a callback invoked with the tenant id (null for the global
+	 * configuration) every time a tenant configuration is (re)loaded.
+	 */
+	public void addConfigurationChangeListener(Consumer<UUID> listener) {
+		configurationChangeListeners.add(listener);
+	}
+
+	@Override
+	protected void configure(UUID kbTenantId) {
+		super.configure(kbTenantId);
+
+		for (Consumer<UUID> listener : configurationChangeListeners) {
+			listener.accept(kbTenantId);
+		}
+	}
+
 	@Override
 	protected Properties createConfigurable(Properties properties) {
-		logger.info("New properties for Getnet region {}: {}", region, properties);
+		if (logger.isInfoEnabled()) {
+			logger.info("[GETNET] New properties for Getnet region {}: {}", region,
+					GetnetPayloadLogger.mask(properties));
+		}
 		return properties;
 	}
 
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.ClientStats;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.exception.TooManyConnectionsException;
+import org.asynchttpclient.exception.TooManyConnectionsPerHostException;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An async-http-client shared by the tenants calling the same Getnet host with
+ * the same http.* settings, so that they reuse each other's keep-alive
+ * connections. Counts the connections opened and closed, and the calls that
+ * found the pool full, see {@link GetnetConnectionPools}.
+ */
+public class GetnetConnectionPool implements Closeable {
+
+	private static final String HTTP_PREFIX = GetnetActivator.PROPERTY_PREFIX + "http.";
+	private static final String USER_AGENT = "killbill-getnet";
+
+	// Settings read per tenant, with their defaults
+	private static final Map<String, String> DEFAULTS = ImmutableMap.<String, String> builder()
+			.put("max_connections", "500")
+			.put("max_connections_per_host", "200")
+			.put("acquire_free_channel_timeout_millis", "5000")
+			.put("keep_alive", "true")
+			.put("pooled_connection_idle_timeout_millis", "60000")
+			.put("connection_ttl_millis", "-1")
+			.put("connect_timeout_millis", "10000")
+			.put("read_timeout_millis", "60000")
+			.put("request_timeout_millis", "70000")
+			.put("io_threads", "0")
+			.build();
+
+	private final String name;
+	private final String key;
+	private final int maxConnectionsPerHost;
+	private final int requestTimeoutMillis;
+	private final AsyncHttpClient httpClient;
+
+	// Guarded by GetnetConnectionPools
+	private int tenants;
+
+	private final AtomicLong openedCount = new AtomicLong();
+	private final AtomicLong closedCount = new AtomicLong();
+	private final AtomicLong exhaustedCount = new AtomicLong();
+	private final AtomicInteger openConnections = new AtomicInteger();
+
+	GetnetConnectionPool(String name, String key, Map<String, String> settings) {
+		this.name = name;
+		this.key = key;
+		this.maxConnectionsPerHost = Integer.parseInt(settings.get("max_connections_per_host"));
+		this.requestTimeoutMillis = Integer.parseInt(settings.get("request_timeout_millis"));
+
+		final DefaultAsyncHttpClientConfig.Builder config = new DefaultAsyncHttpClientConfig.Builder()
+				.setUserAgent(USER_AGENT)
+				.setThreadPoolName("getnet-http-" + name)
+				.setMaxConnections(Integer.parseInt(settings.get("max_connections")))
+				.setMaxConnectionsPerHost(maxConnectionsPerHost)
+				.setAcquireFreeChannelTimeout(Integer.parseInt(settings.get("acquire_free_channel_timeout_millis")))
+				.setKeepAlive(Boolean.parseBoolean(settings.get("keep_alive")))
+				.setPooledConnectionIdleTimeout(Integer.parseInt(settings.get("pooled_connection_idle_timeout_millis")))
+				.setConnectionTtl(Integer.parseInt(settings.get("connection_ttl_millis")))
+				.setConnectTimeout(Integer.parseInt(settings.get("connect_timeout_millis")))
+				.setReadTimeout(Integer.parseInt(settings.get("read_timeout_millis")))
+				.setRequestTimeout(requestTimeoutMillis)
+				.setHttpAdditionalChannelInitializer(channel -> {
+					openedCount.incrementAndGet();
+					openConnections.incrementAndGet();
+					channel.closeFuture().addListener(future -> {
+						closedCount.incrementAndGet();
+						openConnections.decrementAndGet();
+					});
+				});
+		final int ioThreads = Integer.parseInt(settings.get("io_threads"));
+		if (ioThreads > 0) {
+			config.setIoThreadsCount(ioThreads);
+		}
+		this.httpClient = new DefaultAsyncHttpClient(config.build());
+	}
+
+	/**
+	 * The http.* settings of the tenant, defaults included, sorted by name.
+	 */
+	static Map<String, String> settings(Properties configProperties) {
+		final Map<String, String> settings = new TreeMap<String, String>();
+		for (Map.Entry<String, String> setting : DEFAULTS.entrySet()) {
+			settings.put(setting.getKey(),
+					configProperties.getProperty(HTTP_PREFIX + setting.getKey(), setting.getValue()).trim());
+		}
+		return settings;
+	}
+
+	public AsyncHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public int getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	int retain() {
+		return ++tenants;
+	}
+
+	int release() {
+		return --tenants;
+	}
+
+	/**
+	 * Counts the failures caused by the pool being full, once the acquire
+	 * timeout elapsed.
+	 */
+	public void onFailure(Throwable error) {
+		Throwable cause = error;
+		while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+				&& cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof TooManyConnectionsException || cause instanceof TooManyConnectionsPerHostException) {
+			exhaustedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * See {@link GetnetMetrics.Collector}.
+	 */
+	public void collect(GetnetMetrics.Samples samples) {
+		final ClientStats stats = httpClient.getClientStats();
+		samples.gauge("getnet_http_pool_tenants", "Tenants sharing the connection pool", tenants, "pool", name);
+		samples.gauge("getnet_http_pool_max_connections_per_host", "Connection limit per Getnet host",
+				maxConnectionsPerHost, "pool", name);
+		samples.gauge("getnet_http_pool_active_connections", "Pooled connections carrying a request",
+				stats.getTotalActiveConnectionCount(), "pool", name);
+		samples.gauge("getnet_http_pool_idle_connections", "Pooled connections waiting for a request",
+				stats.getTotalIdleConnectionCount(), "pool", name);
+		if (maxConnectionsPerHost > 0) {
+			samples.gauge("getnet_http_pool_saturation", "Active connections over the limit per host",
+					stats.getTotalActiveConnectionCount() / (double) maxConnectionsPerHost, "pool", name);
+		}
+		samples.counter("getnet_http_pool_exhausted_total", "Calls failed waiting for a free connection",
+				exhaustedCount.get(), "pool", name);
+		samples.counter("getnet_http_connections_opened_total", "Connections opened to Getnet", openedCount.get(),
+				"pool", name);
+		samples.counter("getnet_http_connections_closed_total", "Connections to Getnet closed", closedCount.get(),
+				"pool", name);
+		samples.gauge("getnet_http_open_connections", "Connections to Getnet currently open", openConnections.get(),
+				"pool", name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link GetnetConnectionPool}s of the plugin, one per Getnet host and
+ * http.* settings. Tenants with the same settings share a pool, tenants that
+ * tune them get a pool of their own. A pool is closed when its last tenant
+ * client is closed.
+ */
+public class GetnetConnectionPools implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetConnectionPools.class);
+
+	private final Map<String, GetnetConnectionPool> pools = new HashMap<String, GetnetConnectionPool>();
+
+	/**
+	 * The pool for the Getnet host of the url with the tenant settings, to be
+	 * released when the tenant client is closed.
+	 */
+	public synchronized GetnetConnectionPool acquire(String url, Properties configProperties) {
+		final URI uri = URI.create(url);
+		final String host = uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort());
+		final Map<String, String> settings = GetnetConnectionPool.settings(configProperties);
+		final String key = host + " " + settings;
+
+		GetnetConnectionPool pool = pools.get(key);
+		if (pool == null) {
+			final String name = uniqueName(uri.getHost());
+			pool = new GetnetConnectionPool(name, key, settings);
+			pools.put(key, pool);
+			logger.info("[GETNET] Created connection pool {} for {} with {}", name, host, settings);
+		}
+		pool.retain();
+		return pool;
+	}
+
+	public synchronized void release(GetnetConnectionPool pool) {
+		if (pool.release() > 0 || pools.get(pool.getKey()) != pool) {
+			return;
+		}
+		pools.remove(pool.getKey());
+		closeQuietly(pool);
+	}
+
+	/**
+	 * See {@link GetnetMetrics.Collector}.
+	 */
+	public void collect(GetnetMetrics.Samples samples) {
+		final List<GetnetConnectionPool> current;
+		synchronized (this) {
+			current = new ArrayList<GetnetConnectionPool>(pools.values());
+		}
+		for (GetnetConnectionPool pool : current) {
+			pool.collect(samples);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		for (GetnetConnectionPool pool : pools.values()) {
+			closeQuietly(pool);
+		}
+		pools.clear();
+	}
+
+	// The host, then host-2, host-3... for the pools with other settings
+	private String uniqueName(String host) {
+		String name = host;
+		for (int suffix = 2; nameInUse(name); suffix++) {
+			name = host + "-" + suffix;
+		}
+		return name;
+	}
+
+	private boolean nameInUse(String name) {
+		for (GetnetConnectionPool pool : pools.values()) {
+			if (pool.getName().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void closeQuietly(GetnetConnectionPool pool) {
+		try {
+			pool.close();
+		} catch (IOException e) {
+			logger.warn("[GETNET] Error closing connection pool {}", pool.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.jooq.Cursor;
+import org.jooq.Record;
+import org.killbill.billing.util.entity.Pagination;
+
+/**
+ * Streams search results straight from an open database cursor, one row at a
+ * time, so that exports of large tenants never hold the whole result in heap.
+ * The Kill Bill offset is a row offset, as core computes the next one from the
+ * current offset, the limit and the totals. The cursor, and the connection
+ * behind it, is released as soon as the last row has been read or the limit
+ * reached, and again by close() when Kill Bill stops early.
+ */
+public class GetnetCursorPagination<R extends Record, T> implements Pagination<T> {
+
+	private final long offset;
+	private final long limit;
+	private final Cursor<R> cursor;
+	private final GetnetKeysetPagination.Counter matchCounter;
+	private final Function<R, T> mapper;
+
+	private long returned;
+	private Long totalNbRecords;
+
+	public GetnetCursorPagination(Long offset, Long limit, Cursor<R> cursor,
+			GetnetKeysetPagination.Counter matchCounter, Function<R, T> mapper) {
+		this.offset = offset == null ? 0L : offset;
+		this.limit = limit == null ? Long.MAX_VALUE : limit;
+		this.cursor = cursor;
+		this.matchCounter = matchCounter;
+		this.mapper = mapper;
+	}
+
+	@Override
+	public Long getCurrentOffset() {
+		return offset;
+	}
+
+	/**
+	 * Row offset of the next page, null on the last one.
+	 */
+	@Override
+	public Long getNextOffset() {
+		if (limit == Long.MAX_VALUE) {
+			return null;
+		}
+		final long nextOffset = offset + limit;
+		return nextOffset < getTotalNbRecords() ? nextOffset : null;
+	}
+
+	// Counting every payment method of the tenant scans them all, Pagination
+	// allows leaving it unknown
+	@Override
+	public Long getMaxNbRecords() {
+		return null;
+	}
+
+	/**
+	 * Payment methods matching the search, counted on first use.
+	 */
+	@Override
+	public Long getTotalNbRecords() {
+		if (totalNbRecords == null) {
+			totalNbRecords = count(matchCounter);
+		}
+		return totalNbRecords;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				if (cursor.isClosed()) {
+					return false;
+				}
+				if (returned < limit && cursor.hasNext()) {
+					return true;
+				}
+				// Nothing more will be read, give the connection back now
+				cursor.close();
+				return false;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final R record = cursor.fetchNext();
+				returned++;
+				return mapper.apply(record);
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		cursor.close();
+	}
+
+	private static long count(GetnetKeysetPagination.Counter counter) {
+		try {
+			return counter.count();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Failed to count the results", e);
+		}
+	}
+}
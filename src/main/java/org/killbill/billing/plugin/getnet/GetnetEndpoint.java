@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+/**
+ * Getnet API groups guarded independently, a failing vault must not stop
+ * payments and the other way around.
+ */
+public enum GetnetEndpoint {
+	AUTH("auth"),
+	PAYMENTS("payments_credit"),
+	CARDS("cards"),
+	TOKENS("tokens"),
+	CANCEL("cancel");
+
+	private final String metricName;
+
+	GetnetEndpoint(String metricName) {
+		this.metricName = metricName;
+	}
+
+	public String getMetricName() {
+		return metricName;
+	}
+}
@@ -20,63 +20,146 @@
  *******************************************************************************/
 package org.killbill.billing.plugin.getnet;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.nio.charset.Charset;
-import java.security.GeneralSecurityException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import org.joda.time.DateTime;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.Response;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.getnet.model.CancelRequestResponse;
 import org.killbill.billing.plugin.getnet.model.PaymentCredit;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditDelayedConfirmResponse;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditVoidReponse;
 import org.killbill.billing.plugin.getnet.model.VaultCard;
-import org.killbill.billing.plugin.util.http.HttpClient;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
 import org.killbill.billing.plugin.util.http.InvalidRequest;
-import org.killbill.billing.plugin.util.http.ResponseFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
-public class GetnetHttpClient extends HttpClient {
+public class GetnetHttpClient implements Closeable {
+
+	private static final String GET = "GET";
+	private static final String POST = "POST";
+	private static final String DELETE = "DELETE";
+	private static final String HEAD = "HEAD";
+
+	private static final int NOT_FOUND = 404;
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	// Lookups that must all miss a payment before it is sent again
+	private static final int CONFIRMING_LOOKUPS = 2;
+
+	private static final byte[] NO_BODY = new byte[0];
+	private static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] LOGIN_BODY = "scope=oob&grant_type=client_credentials"
+			.getBytes(StandardCharsets.UTF_8);
 
-	private String accessToken;
 	private String sellerId;
 	private String clientId;
 	private String clientSecret;
 	private static final Logger logger = LoggerFactory.getLogger(GetnetHttpClient.class);
 	private UUID tenantId;
-	private DateTime tokenExpires;
-
-	public GetnetHttpClient(Properties configProperties, UUID tenantUuid) throws GeneralSecurityException {
-		super(configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "url", "https://api.getnet.com.br"), null,
-				null, null, null, true);
+	private final Properties configProperties;
+	private final String url;
+	// Shared with the tenants calling the same Getnet host, see GetnetConnectionPools
+	private final GetnetConnectionPools connectionPools;
+	private final GetnetConnectionPool connectionPool;
+	private final AsyncHttpClient httpClient;
+	private final GetnetTokenManager tokenManager;
+	private final Map<GetnetEndpoint, GetnetCircuitBreaker> circuitBreakers;
+	private final GetnetRateLimiter rateLimiter;
+	private final GetnetRetryPolicy retryPolicy;
+	private final GetnetMetrics metrics;
+	private final GetnetPayloadLogger payloadLogger;
+	// Path of the lookup by order_id, with an {order_id} placeholder
+	private final String paymentLookupPath;
+	private final String cancelLookupPath;
+
+	public GetnetHttpClient(Properties configProperties, UUID tenantUuid, ScheduledExecutorService scheduler,
+			Executor loginExecutor, GetnetMetrics metrics, GetnetConnectionPools connectionPools) {
+		this.url = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "url", "https://api.getnet.com.br");
 
 		this.sellerId = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "seller_id");
 		this.clientId = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "client_id");
 		this.clientSecret = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "client_secret");
-		this.accessToken = "";
 		this.tenantId = tenantUuid;
-
-		this.tokenExpires = DateTime.now();
+		this.configProperties = configProperties;
+
+		final long refreshSkewSeconds = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "token_refresh_skew_seconds", "60"));
+		this.tokenManager = new GetnetTokenManager(this::login, TimeUnit.SECONDS.toMillis(refreshSkewSeconds),
+				scheduler, loginExecutor);
+
+		final int failureThreshold = Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "circuit_breaker_failure_threshold", "5"));
+		final long openSeconds = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "circuit_breaker_open_seconds", "30"));
+		final int maxConcurrentCalls = Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "bulkhead_max_concurrent_calls", "50"));
+		final Map<GetnetEndpoint, GetnetCircuitBreaker> breakers = new EnumMap<GetnetEndpoint, GetnetCircuitBreaker>(
+				GetnetEndpoint.class);
+		for (GetnetEndpoint endpoint : GetnetEndpoint.values()) {
+			breakers.put(endpoint, new GetnetCircuitBreaker(sellerId + "/" + endpoint.getMetricName(),
+					failureThreshold, TimeUnit.SECONDS.toMillis(openSeconds), maxConcurrentCalls));
+		}
+		this.circuitBreakers = Collections.unmodifiableMap(breakers);
+
+		this.rateLimiter = new GetnetRateLimiter(String.valueOf(sellerId),
+				Double.parseDouble(
+						configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "rate_limit_per_second", "0")),
+				Long.parseLong(configProperties
+						.getProperty(GetnetActivator.PROPERTY_PREFIX + "rate_limit_max_wait_millis", "10000")));
+		this.retryPolicy = new GetnetRetryPolicy(configProperties);
+		this.metrics = metrics;
+		this.payloadLogger = new GetnetPayloadLogger(configProperties);
+		this.paymentLookupPath = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "payment_lookup_path");
+		this.cancelLookupPath = configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "cancel_lookup_path");
+
+		// Last, nothing left to fail before the pool is released by close()
+		this.connectionPools = connectionPools;
+		this.connectionPool = connectionPools.acquire(url, configProperties);
+		this.httpClient = connectionPool.getHttpClient();
 	}
 
 	public void doLogin() throws PaymentPluginApiException {
-		String res = this.doLogin(clientId, clientSecret, sellerId);
-		JsonObject response = new Gson().fromJson(res, JsonObject.class);
-		this.accessToken = response.get("token_type").getAsString() + " " + response.get("access_token").getAsString();
-		this.tokenExpires = DateTime.now().plus(response.get("expires_in").getAsLong() * 1000);
+		tokenManager.forceRefresh();
+	}
+
+	private GetnetTokenManager.AccessToken login() throws PaymentPluginApiException {
+		final long issuedAt = System.currentTimeMillis();
+		JsonObject response = this.doLogin(clientId, clientSecret, sellerId);
+		return new GetnetTokenManager.AccessToken(
+				response.get("token_type").getAsString() + " " + response.get("access_token").getAsString(), issuedAt,
+				issuedAt + response.get("expires_in").getAsLong() * 1000);
 	}
 
-	public String doLogin(String client_id, String client_secret, String seller_id) throws PaymentPluginApiException {
+	public JsonObject doLogin(String client_id, String client_secret, String seller_id)
+			throws PaymentPluginApiException {
 		String auth = client_id + ":" + client_secret;
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/x-www-form-urlencoded",
 				"Authorization",
@@ -84,9 +167,9 @@ public class GetnetHttpClient extends HttpClient {
 		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(POST, url + "/auth/oauth/v2/token", "scope=oob&grant_type=client_credentials", query, headers,
-					String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException e) {
+			return call(GetnetEndpoint.AUTH, POST, url + "/auth/oauth/v2/token", LOGIN_BODY, query, headers,
+					JsonObject.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
 			logger.error("[GETNET] doLogin error - " + e.getMessage());
 			throw new PaymentPluginApiException("Failed communicate with Getnet.", e);
 		} catch (InvalidRequest e) {
@@ -95,51 +178,179 @@ public class GetnetHttpClient extends HttpClient {
 		}
 	}
 
-	public String exchangeTokenForNumberToken(String token) throws PaymentPluginApiException {
+	public VaultCardResponse exchangeTokenForNumberToken(String token) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken(), "seller_id", sellerId);
 		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(GET, url + "/v1/cards/" + token, "", query, headers, String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException
-				| InvalidRequest e) {
+			return call(GetnetEndpoint.CARDS, GET, url + "/v1/cards/" + token, NO_BODY, query, headers,
+					VaultCardResponse.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		}
 	}
 
-	public String sendPaymentRequest(PaymentCredit payment) throws PaymentPluginApiException {
+	public PaymentCreditResponse sendPaymentRequest(PaymentCredit payment) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken());
 		Map<String, String> query = ImmutableMap.of();
 
 		payment.setSellerId(sellerId);
+		final String orderId = payment.getOrder() == null ? null : payment.getOrder().getOrderId();
+		// Serialized once, every attempt sends the same bytes
+		final byte[] body = GetnetJson.toBytes(payment);
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				return call(GetnetEndpoint.PAYMENTS, POST, url + "/v1/payments/credit", body, query, headers,
+						PaymentCreditResponse.class);
+			} catch (ExecutionException | TimeoutException | IOException e) {
+				final PaymentCreditResponse existing = lookupBeforeRetry(orderId, attempt, e);
+				if (existing != null) {
+					return existing;
+				}
+			} catch (InterruptedException e) {
+				throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
+			} catch (InvalidRequest e) {
+				if (e.getResponse() == null) {
+					throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
+				}
+				if (!isGatewayFailure(e.getResponse().getStatusCode())) {
+					throw paymentError(e.getResponse().getResponseBody());
+				}
+				final PaymentCreditResponse existing = lookupBeforeRetry(orderId, attempt, e);
+				if (existing != null) {
+					return existing;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a payment by the order_id it was sent with, through the tenant's
+	 * payment_lookup_path. Returns null when Getnet does not know the order.
+	 */
+	public PaymentCreditResponse findPaymentByOrderId(String orderId) throws PaymentPluginApiException {
+		if (paymentLookupPath == null) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"No payment_lookup_path configured to look payments up by order_id");
+		}
+		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
+				this.getAccessToken(), "seller_id", sellerId);
+		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(POST, url + "/v1/payments/credit", payment.toString(), query, headers, String.class,
-					ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException e) {			
-			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
+			return call(GetnetEndpoint.PAYMENTS, GET, url + paymentLookupPath.replace("{order_id}", orderId), NO_BODY,
+					query, headers, PaymentCreditResponse.class);
 		} catch (InvalidRequest e) {
-			Gson gson = new Gson();
-			JsonObject response = gson.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
-			String longError = "";
-			
-			if(response.has("details")) {
-				JsonArray details = response.getAsJsonArray("details");
-				if(details.size() >= 1) {
-					JsonObject entry = (JsonObject) details.get(0);
-					longError = entry.get("description").getAsString() + " - " + entry.get("description_detail").getAsString() + " - " + entry.get("status").getAsString();
-					
-					throw new PaymentPluginApiException(entry.get("error_code").getAsString(), longError);
-				}
+			if (e.getResponse() != null && e.getResponse().getStatusCode() == NOT_FOUND) {
+				return null;
+			}
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Failed to look up order " + orderId + " on Getnet - " + e.getMessage());
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Failed to look up order " + orderId + " on Getnet - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Looks a cancel request up by the cancel_custom_key it was sent with,
+	 * through the tenant's cancel_lookup_path. Returns null when Getnet does
+	 * not know it.
+	 */
+	public CancelRequestResponse findCancelRequestByCustomKey(String cancelCustomKey)
+			throws PaymentPluginApiException {
+		if (cancelLookupPath == null) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"No cancel_lookup_path configured to look cancel requests up by cancel_custom_key");
+		}
+		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
+				this.getAccessToken(), "seller_id", sellerId);
+		Map<String, String> query = ImmutableMap.of();
+
+		try {
+			final String path = cancelLookupPath.replace("{cancel_custom_key}", cancelCustomKey);
+			return call(GetnetEndpoint.CANCEL, GET, url + path, NO_BODY, query, headers, CancelRequestResponse.class);
+		} catch (InvalidRequest e) {
+			if (e.getResponse() != null && e.getResponse().getStatusCode() == NOT_FOUND) {
+				return null;
+			}
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Failed to look up cancel request " + cancelCustomKey + " on Getnet - " + e.getMessage());
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Failed to look up cancel request " + cancelCustomKey + " on Getnet - " + e.getMessage());
+		}
+	}
+
+	// A cancel request left without an answer may have been accepted, so nothing
+	// is reported before lookups by cancel_custom_key, paced like the payment
+	// ones, agree on it. Returns the cancel request found, fails when Getnet
+	// never got it or when that cannot be told.
+	private CancelRequestResponse lookupCancelRequest(String cancelCustomKey, Exception cause)
+			throws PaymentPluginApiException {
+		if (cancelLookupPath == null) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"No answer from Getnet, the refund may have been accepted - " + cause.getMessage());
+		}
+
+		for (int lookup = 1; lookup <= CONFIRMING_LOOKUPS; lookup++) {
+			retryPolicy.awaitLookup(lookup);
+			final CancelRequestResponse existing;
+			try {
+				existing = findCancelRequestByCustomKey(cancelCustomKey);
+			} catch (PaymentPluginApiException e) {
+				throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+						"No answer from Getnet and the lookup failed, the refund may have been accepted - "
+								+ e.getErrorMessage());
+			}
+			if (existing != null) {
+				logger.info("[GETNET] Cancel request {} was accepted despite the failed call", cancelCustomKey);
+				return existing;
+			}
+		}
+		throw new PaymentPluginApiException("Failed to process GETNET payment.",
+				"Getnet has no cancel request " + cancelCustomKey + " after the failed call - " + cause.getMessage());
+	}
+
+	// A payment left without an answer may have been approved, or may still be
+	// processed by Getnet. It is only sent again once lookups by order_id, each
+	// after a pause, agree that Getnet does not have it: a single "not found"
+	// right after a timeout may just be a payment Getnet has not recorded yet.
+	// Returns the payment found, or null when it is safe to retry.
+	private PaymentCreditResponse lookupBeforeRetry(String orderId, int attempt, Exception cause)
+			throws PaymentPluginApiException {
+		if (orderId == null || paymentLookupPath == null || !retryPolicy.canRetry(attempt)) {
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"No answer from Getnet, the payment may have been processed - " + cause.getMessage());
+		}
+
+		for (int lookup = 1; lookup <= CONFIRMING_LOOKUPS; lookup++) {
+			retryPolicy.awaitLookup(attempt);
+			final PaymentCreditResponse existing;
+			try {
+				existing = findPaymentByOrderId(orderId);
+			} catch (PaymentPluginApiException e) {
+				// Whatever stopped the lookup, the payment is not known to have failed
+				throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+						"No answer from Getnet and the lookup failed, the payment may have been processed - "
+								+ e.getErrorMessage());
+			}
+			if (existing != null) {
+				logger.info("[GETNET] Payment for order {} was processed despite the failed call", orderId);
+				return existing;
 			}
-			
-			throw new PaymentPluginApiException(response.get("name").getAsString() + " " + response.get("message").getAsString(), e.getResponse().getResponseBody());
 		}
+		logger.info("[GETNET] Order {} still unknown to Getnet after {} lookups, sending it again", orderId,
+				CONFIRMING_LOOKUPS);
+		retryPolicy.recordRetry();
+		return null;
 	}
 
-	public String captureTransactionRequest(String paymentId, Integer amount) throws PaymentPluginApiException {
+	public PaymentCreditDelayedConfirmResponse captureTransactionRequest(String paymentId, Integer amount)
+			throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken());
 		Map<String, String> query = ImmutableMap.of();
@@ -148,37 +359,34 @@ public class GetnetHttpClient extends HttpClient {
 		request.addProperty("amount", amount);
 
 		try {
-			return doCall(POST, url + "/v1/payments/credit/" + paymentId + "/confirm", request.toString(), query,
-					headers, String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException
-				| InvalidRequest e) {
+			return call(GetnetEndpoint.PAYMENTS, POST, url + "/v1/payments/credit/" + paymentId + "/confirm",
+					GetnetJson.toBytes(request), query, headers, PaymentCreditDelayedConfirmResponse.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		}
 	}
 
-	public String voidTransactionRequest(String paymentId) throws PaymentPluginApiException {
+	public PaymentCreditVoidReponse voidTransactionRequest(String paymentId) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken());
 		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(POST, url + "/v1/payments/credit/" + paymentId + "/cancel", "{}", query, headers,
-					String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException
-				| InvalidRequest e) {
+			return call(GetnetEndpoint.PAYMENTS, POST, url + "/v1/payments/credit/" + paymentId + "/cancel",
+					EMPTY_OBJECT, query, headers, PaymentCreditVoidReponse.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		}
 	}
 
-	public String getCardsByCustomerId(String customerId) throws PaymentPluginApiException {
+	public JsonObject getCardsByCustomerId(String customerId) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken(), "seller_id", sellerId);
 		Map<String, String> query = ImmutableMap.of("status", "active", "customer_id", customerId);
 
 		try {
-			return doCall(GET, url + "/v1/cards", "{}", query, headers, String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException
-				| InvalidRequest e) {
+			return call(GetnetEndpoint.CARDS, GET, url + "/v1/cards", EMPTY_OBJECT, query, headers, JsonObject.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		}
 	}
@@ -189,33 +397,40 @@ public class GetnetHttpClient extends HttpClient {
 		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(DELETE, url + "/v1/cards/" + cardId, "{}", query, headers, String.class, ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException
-				| InvalidRequest e) {
+			return call(GetnetEndpoint.CARDS, DELETE, url + "/v1/cards/" + cardId, EMPTY_OBJECT, query, headers,
+					String.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
 			throw new PaymentPluginApiException("Failed to delete card on Getnet.", e);
 		}
 	}
 
-	public String refundTransaction(String paymentId, Integer amount, String cancelCustomKey)
+	public CancelRequestResponse refundTransaction(String paymentId, Integer amount, String cancelCustomKey)
 			throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken(), "seller_id", sellerId);
 		Map<String, String> query = ImmutableMap.of();
 
+		final String customKey = cancelCustomKey.substring(0, 30);
 		JsonObject request = new JsonObject();
 		request.addProperty("cancel_amount", amount);
 		request.addProperty("payment_id", paymentId);
-		request.addProperty("cancel_custom_key", cancelCustomKey.substring(0, 30));
+		request.addProperty("cancel_custom_key", customKey);
 
 		try {
-			return doCall(POST, url + "/v1/payments/cancel/request", request.toString(), query, headers, String.class,
-					ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException e) {
-			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
+			return call(GetnetEndpoint.CANCEL, POST, url + "/v1/payments/cancel/request",
+					GetnetJson.toBytes(request), query, headers, CancelRequestResponse.class);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Interrupted waiting for Getnet, the refund may have been accepted");
+		} catch (ExecutionException | TimeoutException | IOException e) {
+			return lookupCancelRequest(customKey, e);
 		} catch (InvalidRequest e) {
+			if (e.getResponse() == null || isGatewayFailure(e.getResponse().getStatusCode())) {
+				return lookupCancelRequest(customKey, e);
+			}
 			if (e.getResponse().getStatusCode() == 400 && e.getResponse().hasResponseBody()) {
-				Gson gson = new Gson();
-				JsonObject res = gson.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
+				JsonObject res = GetnetJson.GSON.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
 				throw new PaymentPluginApiException(res.get("message").getAsString(), e);
 			}
 
@@ -223,7 +438,20 @@ public class GetnetHttpClient extends HttpClient {
 		}
 	}
 
-	public String tokenCard(String accountId, String pan) throws PaymentPluginApiException {
+	public CancelRequestResponse getCancelRequest(String cancelRequestId) throws PaymentPluginApiException {
+		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
+				this.getAccessToken(), "seller_id", sellerId);
+		Map<String, String> query = ImmutableMap.of();
+
+		try {
+			return call(GetnetEndpoint.CANCEL, GET, url + "/v1/payments/cancel/request/" + cancelRequestId, NO_BODY,
+					query, headers, CancelRequestResponse.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | InvalidRequest e) {
+			throw new PaymentPluginApiException("Failed to retrieve GETNET cancel request.", e.getMessage());
+		}
+	}
+
+	public JsonObject tokenCard(String accountId, String pan) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken(), "seller_id", sellerId);
 		Map<String, String> query = ImmutableMap.of();
@@ -233,14 +461,13 @@ public class GetnetHttpClient extends HttpClient {
 		request.addProperty("customer_id", accountId);
 
 		try {
-			return doCall(POST, url + "/v1/tokens/card", request.toString(), query, headers, String.class,
-					ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException e) {
+			return call(GetnetEndpoint.TOKENS, POST, url + "/v1/tokens/card", GetnetJson.toBytes(request), query,
+					headers, JsonObject.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		} catch (InvalidRequest e) {
 			if (e.getResponse().getStatusCode() == 400 && e.getResponse().hasResponseBody()) {
-				Gson gson = new Gson();
-				JsonObject res = gson.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
+				JsonObject res = GetnetJson.GSON.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
 				throw new PaymentPluginApiException(res.get("message").getAsString(), e);
 			}
 
@@ -248,21 +475,21 @@ public class GetnetHttpClient extends HttpClient {
 		}
 	}
 
-	public String saveCardToVault(VaultCard vaultCard) throws PaymentPluginApiException {
+	public VaultCardResponse saveCardToVault(VaultCard vaultCard) throws PaymentPluginApiException {
 		Map<String, String> headers = ImmutableMap.of("Content-Type", "application/json", "Authorization",
 				this.getAccessToken(), "seller_id", sellerId);
 		Map<String, String> query = ImmutableMap.of();
 
 		try {
-			return doCall(POST, url + "/v1/cards", vaultCard.toString(), query, headers, String.class,
-					ResponseFormat.TEXT);
-		} catch (InterruptedException | ExecutionException | TimeoutException | IOException | URISyntaxException e) {
+			return call(GetnetEndpoint.CARDS, POST, url + "/v1/cards", GetnetJson.toBytes(vaultCard), query, headers,
+					VaultCardResponse.class);
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
 			throw new PaymentPluginApiException("Failed to process GETNET payment.", e.getMessage());
 		} catch (InvalidRequest e) {
 			if (e.getResponse().getStatusCode() == 400 && e.getResponse().hasResponseBody()) {
-				Gson gson = new Gson();
-				JsonObject res = gson.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
-				logger.error("GETNET SAVE CARD ERROR:" + e.getResponse().getResponseBody());
+				JsonObject res = GetnetJson.GSON.fromJson(e.getResponse().getResponseBody(), JsonObject.class);
+				logger.error("[GETNET] Failed to save card to the vault: {}",
+						GetnetPayloadLogger.mask(e.getResponse().getResponseBody()));
 				JsonObject details = res.get("details").getAsJsonArray().get(0).getAsJsonObject();
 				throw new PaymentPluginApiException(res.get("message").getAsString() + " - Erro reportado: "
 						+ details.get("status").getAsString() + ", " + details.get("description").getAsString() + " - "
@@ -274,16 +501,319 @@ public class GetnetHttpClient extends HttpClient {
 		}
 	}
 
+	/**
+	 * Non-blocking counterpart of {@link #getCancelRequest(String)}, for the
+	 * refund reconciler. The future fails with the same PaymentPluginApiException
+	 * the blocking method would throw, it is not retried.
+	 */
+	public CompletableFuture<CancelRequestResponse> getCancelRequestAsync(String cancelRequestId) {
+		return callAsync(GetnetEndpoint.CANCEL, GET, url + "/v1/payments/cancel/request/" + cancelRequestId,
+				NO_BODY, true, CancelRequestResponse.class, response -> new PaymentPluginApiException(
+						"Failed to retrieve GETNET cancel request.", response.getResponseBody()));
+	}
+
+	/**
+	 * Starts renewing the OAuth token if it is due, without waiting for it.
+	 */
+	public CompletableFuture<String> getAccessTokenAsync() {
+		return tokenManager.getAccessTokenAsync();
+	}
+
+	// Issues the request on the async-http-client event loop, no thread is held
+	// while Getnet answers. Non 2xx answers fail the future with onError.
+	private <T> CompletableFuture<T> callAsync(GetnetEndpoint endpoint, String verb, String uri, byte[] body,
+			boolean withSellerId, Class<T> clazz, Function<Response, PaymentPluginApiException> onError) {
+		return callAsync(endpoint, verb, uri, body, withSellerId, clazz, onError, System.currentTimeMillis());
+	}
+
+	// Neither waits for a permit: a call the rate limiter holds back, or that
+	// Getnet throttles, is scheduled again once it may be sent, as long as its
+	// deadline counted from startMillis allows it
+	private <T> CompletableFuture<T> callAsync(GetnetEndpoint endpoint, String verb, String uri, byte[] body,
+			boolean withSellerId, Class<T> clazz, Function<Response, PaymentPluginApiException> onError,
+			long startMillis) {
+		final long waitMillis;
+		try {
+			waitMillis = rateLimiter.tryAcquire(startMillis);
+		} catch (PaymentPluginApiException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		if (waitMillis > 0) {
+			return later(waitMillis,
+					() -> callAsync(endpoint, verb, uri, body, withSellerId, clazz, onError, startMillis));
+		}
+
+		final GetnetCircuitBreaker breaker = circuitBreakers.get(endpoint);
+
+		// The breaker slot is only taken once the token is there, a slow login
+		// neither holds the slot nor counts as a failure of the endpoint
+		return tokenManager.getAccessTokenAsync().thenCompose(accessToken -> {
+			final GetnetCircuitBreaker.Permit permit;
+			try {
+				permit = breaker.acquire();
+			} catch (PaymentPluginApiException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+
+			final long startNanos = metrics.start();
+			try {
+				final RequestBuilder builder = new RequestBuilder(verb).setUrl(uri)
+						.setHeader("Content-Type", "application/json").setHeader("Authorization", accessToken)
+						.setRequestTimeout(connectionPool.getRequestTimeoutMillis());
+				if (withSellerId) {
+					builder.setHeader("seller_id", sellerId);
+				}
+				if (body.length > 0) {
+					builder.setBody(body);
+				}
+				return httpClient.executeRequest(builder.build()).toCompletableFuture()
+						.whenComplete((response, error) -> {
+							breaker.release(permit, error == null && !isGatewayFailure(response.getStatusCode()));
+							recordHttp(endpoint, verb, startNanos, response, error);
+							payloadLogger.log(verb, uri, body, response);
+						});
+			} catch (RuntimeException e) {
+				breaker.release(permit, false);
+				throw e;
+			}
+		}).<CompletableFuture<T>> handle((response, error) -> {
+			if (error != null) {
+				final Throwable cause = error instanceof CompletionException && error.getCause() != null
+						? error.getCause()
+						: error;
+				if (cause instanceof PaymentPluginApiException) {
+					throw new CompletionException(cause);
+				}
+				throw new CompletionException(
+						new PaymentPluginApiException("Failed communicate with Getnet.", cause.getMessage()));
+			}
+			if (response.getStatusCode() == TOO_MANY_REQUESTS) {
+				// Getnet did not process a throttled request, the rate limiter holds
+				// it back until the pause is over
+				rateLimiter.onThrottled(response.getHeader("Retry-After"));
+				return callAsync(endpoint, verb, uri, body, withSellerId, clazz, onError, startMillis);
+			}
+			if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+				throw new CompletionException(onError.apply(response));
+			}
+			rateLimiter.onSuccess();
+			try {
+				return CompletableFuture.completedFuture(GetnetJson.read(response, clazz));
+			} catch (IOException e) {
+				throw new CompletionException(new PaymentPluginApiException("Failed to read Getnet answer.", e));
+			}
+		}).thenCompose(Function.identity());
+	}
+
+	private static <T> CompletableFuture<T> later(long delayMillis, Supplier<CompletableFuture<T>> call) {
+		final Executor delayed = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS);
+		return CompletableFuture.supplyAsync(call, delayed).thenCompose(Function.identity());
+	}
+
+	// doCall behind the rate limiter, then the circuit breaker and bulkhead of
+	// the endpoint. Fails fast with a PaymentPluginApiException when one of them
+	// refuses the call. Reads and logins are retried with backoff when Getnet
+	// does not answer, other calls are left to their caller.
+	private <T> T call(GetnetEndpoint endpoint, String verb, String uri, byte[] body, Map<String, String> query,
+			Map<String, String> headers, Class<T> clazz) throws PaymentPluginApiException, InterruptedException,
+			ExecutionException, TimeoutException, IOException, InvalidRequest {
+		final GetnetCircuitBreaker breaker = circuitBreakers.get(endpoint);
+		final boolean safe = GET.equals(verb) || endpoint == GetnetEndpoint.AUTH;
+		final long start = System.currentTimeMillis();
+		int attempt = 0;
+		while (true) {
+			rateLimiter.acquire(start);
+			final GetnetCircuitBreaker.Permit permit = breaker.acquire();
+			attempt++;
+			boolean success = false;
+			boolean throttled = false;
+			Response answer = null;
+			Throwable failure = null;
+			final long startNanos = metrics.start();
+			try {
+				final Response response = execute(verb, uri, body, query, headers);
+				answer = response;
+				success = true;
+				rateLimiter.onSuccess();
+				return GetnetJson.read(response, clazz);
+			} catch (InvalidRequest e) {
+				answer = e.getResponse();
+				failure = e;
+				final int statusCode = e.getResponse() == null ? 0 : e.getResponse().getStatusCode();
+				success = e.getResponse() != null && !isGatewayFailure(statusCode);
+				if (statusCode == TOO_MANY_REQUESTS) {
+					// Getnet did not process a throttled request, it is sent again after the
+					// pause if the deadline allows it
+					final long pauseMillis = rateLimiter.onThrottled(e.getResponse().getHeader("Retry-After"));
+					if (pauseMillis >= rateLimiter.remainingWaitMillis(start)) {
+						throw new PaymentPluginApiException(GetnetRateLimiter.RATE_LIMITED,
+								"Getnet throttled " + endpoint.getMetricName() + " calls for " + pauseMillis + " ms");
+					}
+					throttled = true;
+				} else if (!safe || success || !retryPolicy.canRetry(attempt)) {
+					throw e;
+				}
+			} catch (ExecutionException | TimeoutException | IOException e) {
+				failure = e;
+				if (!safe || !retryPolicy.canRetry(attempt)) {
+					throw e;
+				}
+			} finally {
+				breaker.release(permit, success);
+				recordHttp(endpoint, verb, startNanos, answer, failure);
+				payloadLogger.log(verb, uri, body, answer);
+			}
+
+			if (!throttled) {
+				logger.info("[GETNET] Retrying {} {} after attempt {}", verb, endpoint.getMetricName(), attempt);
+				retryPolicy.backoff(attempt);
+			}
+		}
+	}
+
+	// Sends the request on the shared async-http-client and waits for it, the
+	// body is left unread for the caller to decode
+	private Response execute(String verb, String uri, byte[] body, Map<String, String> query,
+			Map<String, String> headers) throws InterruptedException, ExecutionException, TimeoutException,
+			InvalidRequest {
+		final RequestBuilder builder = new RequestBuilder(verb).setUrl(uri)
+				.setRequestTimeout(connectionPool.getRequestTimeoutMillis());
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			builder.setHeader(header.getKey(), header.getValue());
+		}
+		for (Map.Entry<String, String> param : query.entrySet()) {
+			builder.addQueryParam(param.getKey(), param.getValue());
+		}
+		if (body.length > 0) {
+			builder.setBody(body);
+		}
+
+		final Response response = httpClient.executeRequest(builder.build())
+				.get(connectionPool.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+		if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+			throw new InvalidRequest("Getnet answered " + response.getStatusCode() + " to " + verb + " " + uri,
+					response);
+		}
+		return response;
+	}
+
+	// One sample per attempt, tagged with the HTTP status or with timeout and
+	// io_error when Getnet did not answer
+	private void recordHttp(GetnetEndpoint endpoint, String verb, long startNanos, Response response,
+			Throwable error) {
+		if (error != null) {
+			connectionPool.onFailure(error);
+		}
+		if (startNanos == 0) {
+			return;
+		}
+		final String status;
+		final boolean failed;
+		if (response != null) {
+			status = Integer.toString(response.getStatusCode());
+			failed = response.getStatusCode() < 200 || response.getStatusCode() >= 300;
+		} else {
+			final Throwable cause = (error instanceof ExecutionException || error instanceof CompletionException)
+					&& error.getCause() != null ? error.getCause() : error;
+			status = cause instanceof TimeoutException ? "timeout" : "io_error";
+			failed = true;
+		}
+		metrics.record(GetnetMetrics.Layer.HTTP, endpoint.getMetricName(), verb, tenantId, status, failed,
+				startNanos);
+	}
+
+	private static boolean isGatewayFailure(int statusCode) {
+		return statusCode >= 500;
+	}
+
+	// Getnet reports payment refusals in the first entry of details
+	private static PaymentPluginApiException paymentError(String body) {
+		JsonObject response = GetnetJson.GSON.fromJson(body, JsonObject.class);
+
+		if (response.has("details")) {
+			JsonArray details = response.getAsJsonArray("details");
+			if (details.size() >= 1) {
+				JsonObject entry = (JsonObject) details.get(0);
+				String longError = entry.get("description").getAsString() + " - "
+						+ entry.get("description_detail").getAsString() + " - " + entry.get("status").getAsString();
+
+				return new PaymentPluginApiException(entry.get("error_code").getAsString(), longError);
+			}
+		}
+
+		return new PaymentPluginApiException(
+				response.get("name").getAsString() + " " + response.get("message").getAsString(), body);
+	}
+
 	public String getAccessToken() throws PaymentPluginApiException {
-		if (this.accessToken.isEmpty() || DateTime.now().isAfter(tokenExpires)) {
-			doLogin();
+		return tokenManager.getAccessToken();
+	}
+
+	/**
+	 * Opens up to count pooled connections to Getnet ahead of the first calls,
+	 * with concurrent HEAD requests on the API root, and returns how many were
+	 * answered within the timeout.
+	 */
+	public int openConnections(int count, long timeoutMillis) throws InterruptedException {
+		final List<CompletableFuture<Response>> requests = new ArrayList<CompletableFuture<Response>>(count);
+		for (int i = 0; i < count; i++) {
+			requests.add(httpClient.executeRequest(
+					new RequestBuilder(HEAD).setUrl(url).setRequestTimeout((int) timeoutMillis).build())
+					.toCompletableFuture());
 		}
 
-		return this.accessToken;
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		int opened = 0;
+		for (CompletableFuture<Response> request : requests) {
+			try {
+				request.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				opened++;
+			} catch (ExecutionException e) {
+				connectionPool.onFailure(e);
+			} catch (TimeoutException e) {
+				request.cancel(true);
+			}
+		}
+		return opened;
+	}
+
+	/**
+	 * Whether the error type is one of the client side refusals, the call was
+	 * never processed by Getnet and can safely be attempted again later.
+	 */
+	public static boolean isFastFailure(String errorType) {
+		return GetnetCircuitBreaker.isFastFailure(errorType) || GetnetRateLimiter.RATE_LIMITED.equals(errorType)
+				|| GetnetOperationExecutor.REJECTED.equals(errorType);
+	}
+
+	public GetnetRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public GetnetRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	public Map<GetnetEndpoint, GetnetCircuitBreaker> getCircuitBreakers() {
+		return circuitBreakers;
+	}
+
+	public GetnetTokenManager getTokenManager() {
+		return this.tokenManager;
 	}
 
 	public UUID getTenantId() {
 		return this.tenantId;
 	}
 
+	public Properties getConfigProperties() {
+		return this.configProperties;
+	}
+
+	@Override
+	public void close() throws IOException {
+		tokenManager.close();
+		connectionPools.release(connectionPool);
+	}
+
 }
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps one {@link GetnetHttpClient} per tenant so that connection pools and
+ * OAuth tokens survive across calls for different tenants. Entries are dropped
+ * when the tenant configuration changes.
+ */
+public class GetnetHttpClientRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetHttpClientRegistry.class);
+
+	// ConcurrentHashMap does not accept null keys, the default (global)
+	// configuration is stored under this one
+	private static final UUID DEFAULT_TENANT_KEY = new UUID(0L, 0L);
+
+	// Time given to in-flight requests before a replaced client is closed
+	private static final long CLOSE_GRACE_PERIOD_SECONDS = 90;
+
+	// Logins in progress at once, for all tenants together
+	private static final int TOKEN_LOGIN_THREADS = 4;
+
+	private final GetnetConfigurationHandler getnetConfigurationHandler;
+	private final GetnetMetrics metrics;
+	private final GetnetConnectionPools connectionPools = new GetnetConnectionPools();
+	private final ConcurrentMap<UUID, GetnetHttpClient> clients = new ConcurrentHashMap<UUID, GetnetHttpClient>();
+	// Shared by all tenants for the proactive OAuth token refreshes, it only
+	// hands the logins over to the pool below so that a slow one does not hold
+	// back the other tenants
+	private final ScheduledExecutorService tokenRefreshScheduler = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("getnet-token-refresh-%d").setDaemon(true).build());
+	private final ExecutorService tokenLoginPool = newTokenLoginPool();
+
+	public GetnetHttpClientRegistry(GetnetConfigurationHandler getnetConfigurationHandler, GetnetMetrics metrics) {
+		this.getnetConfigurationHandler = getnetConfigurationHandler;
+		this.metrics = metrics;
+	}
+
+	public GetnetHttpClient getClient(UUID tenantId) throws PaymentPluginApiException {
+		final UUID key = tenantId == null ? DEFAULT_TENANT_KEY : tenantId;
+
+		GetnetHttpClient client = clients.get(key);
+		if (client != null) {
+			return client;
+		}
+
+		// The first lookup for a tenant loads its configuration, and the handler
+		// calls us back through invalidate(): load it outside of the map lock
+		getnetConfigurationHandler.getConfigurable(tenantId);
+
+		try {
+			// Read again under the lock, an invalidate() for this tenant waits for
+			// the client to be built and then discards it, so a client built from
+			// a replaced configuration is never kept
+			client = clients.computeIfAbsent(key, k -> {
+				final Properties configProperties = getnetConfigurationHandler.getConfigurable(tenantId);
+				return new GetnetHttpClient(configProperties, tenantId, tokenRefreshScheduler, tokenLoginPool,
+						metrics, connectionPools);
+			});
+		} catch (IllegalArgumentException e) {
+			logger.error("[GETNET] Failed to initialize http client for tenant " + tenantId);
+			throw new PaymentPluginApiException("#getClient, failed to initialize http client.", e.getMessage());
+		}
+
+		return client;
+	}
+
+	public void invalidate(UUID tenantId) {
+		final GetnetHttpClient client = clients.remove(tenantId == null ? DEFAULT_TENANT_KEY : tenantId);
+		if (client != null) {
+			logger.info("[GETNET] Configuration changed for tenant {}, discarding http client", tenantId);
+			// Other threads may still be using this client, don't close it under them
+			CompletableFuture.runAsync(() -> closeQuietly(client),
+					CompletableFuture.delayedExecutor(CLOSE_GRACE_PERIOD_SECONDS, TimeUnit.SECONDS));
+		}
+	}
+
+	public void close() {
+		tokenRefreshScheduler.shutdownNow();
+		tokenLoginPool.shutdownNow();
+		for (UUID key : clients.keySet()) {
+			final GetnetHttpClient client = clients.remove(key);
+			if (client != null) {
+				closeQuietly(client);
+			}
+		}
+		connectionPools.close();
+	}
+
+	/**
+	 * Reads the token, circuit breaker, rate limiting and retry counters of the
+	 * live clients, and the connection pool counters, see
+	 * {@link GetnetMetrics.Collector}.
+	 */
+	public void collect(GetnetMetrics.Samples samples) {
+		connectionPools.collect(samples);
+		for (GetnetHttpClient client : clients.values()) {
+			final String tenant = client.getTenantId() == null ? "none" : client.getTenantId().toString();
+
+			final GetnetTokenManager tokenManager = client.getTokenManager();
+			samples.counter("getnet_token_refreshes_total", "OAuth token refreshes",
+					tokenManager.getRefreshCount(), "tenant", tenant);
+			samples.counter("getnet_token_refresh_failures_total", "OAuth token refreshes that failed",
+					tokenManager.getRefreshFailureCount(), "tenant", tenant);
+			samples.gauge("getnet_token_last_refresh_seconds", "Duration of the last OAuth token refresh",
+					tokenManager.getLastRefreshLatencyMillis() / 1000.0, "tenant", tenant);
+
+			for (Map.Entry<GetnetEndpoint, GetnetCircuitBreaker> entry : client.getCircuitBreakers().entrySet()) {
+				final String endpoint = entry.getKey().getMetricName();
+				final GetnetCircuitBreaker breaker = entry.getValue();
+				samples.gauge("getnet_circuit_breaker_state", "Circuit breaker state: 0 closed, 1 open, 2 half open",
+						breaker.getState().ordinal(), "endpoint", endpoint, "tenant", tenant);
+				samples.gauge("getnet_circuit_breaker_in_flight_calls", "Calls holding a bulkhead permit",
+						breaker.getInFlightCalls(), "endpoint", endpoint, "tenant", tenant);
+				samples.counter("getnet_circuit_breaker_opened_total", "Times the circuit breaker opened",
+						breaker.getOpenedCount(), "endpoint", endpoint, "tenant", tenant);
+				samples.counter("getnet_circuit_breaker_rejected_total", "Calls rejected by the open circuit",
+						breaker.getRejectedCount(), "endpoint", endpoint, "tenant", tenant);
+				samples.counter("getnet_bulkhead_rejected_total", "Calls rejected by the full bulkhead",
+						breaker.getBulkheadRejectedCount(), "endpoint", endpoint, "tenant", tenant);
+			}
+
+			final GetnetRateLimiter rateLimiter = client.getRateLimiter();
+			samples.gauge("getnet_rate_limit_permits_per_second", "Current client side rate limit",
+					rateLimiter.getCurrentRate(), "tenant", tenant);
+			samples.counter("getnet_rate_limit_throttled_total", "Answers with HTTP 429 from Getnet",
+					rateLimiter.getThrottledCount(), "tenant", tenant);
+			samples.counter("getnet_rate_limit_rejected_total", "Calls rejected by the client side rate limit",
+					rateLimiter.getRejectedCount(), "tenant", tenant);
+			samples.counter("getnet_rate_limit_wait_seconds_total", "Time spent waiting for a permit",
+					rateLimiter.getTotalWaitMillis() / 1000.0, "tenant", tenant);
+
+			samples.counter("getnet_retries_total", "Retried calls to Getnet", client.getRetryPolicy().getRetryCount(),
+					"tenant", tenant);
+		}
+	}
+
+	// Threads are only kept while logins are running
+	private static ExecutorService newTokenLoginPool() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(TOKEN_LOGIN_THREADS, TOKEN_LOGIN_THREADS, 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("getnet-token-login-%d").setDaemon(true).build());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private void closeQuietly(GetnetHttpClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			logger.warn("[GETNET] Failed to close http client for tenant " + client.getTenantId(), e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.asynchttpclient.Response;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+
+/**
+ * Shared JSON codec for Getnet payloads. Gson instances are thread-safe once
+ * built, so one is configured here for the whole plugin instead of one per
+ * call.
+ */
+public final class GetnetJson {
+
+	public static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+	// Large enough for a payment with billing and shipping addresses
+	private static final int INITIAL_BODY_SIZE = 1024;
+
+	private GetnetJson() {
+	}
+
+	/**
+	 * Decodes the response body into the model class, reading the body bytes
+	 * directly rather than building an intermediate String.
+	 */
+	public static <T> T read(Response response, Class<T> clazz) throws IOException {
+		if (clazz == String.class) {
+			return clazz.cast(response.getResponseBody());
+		}
+		return read(response.getResponseBodyAsStream(), clazz);
+	}
+
+	public static <T> T read(InputStream body, Class<T> clazz) throws IOException {
+		try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+			return GSON.fromJson(reader, clazz);
+		}
+	}
+
+	/**
+	 * Encodes a request body as compact UTF-8 JSON. Gson writes straight into
+	 * the byte buffer, no intermediate String is built. The pretty-printed
+	 * toString() of the model classes is meant for logs only.
+	 */
+	public static byte[] toBytes(Object src) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BODY_SIZE);
+		try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			GSON.toJson(src, src.getClass(), writer);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.killbill.billing.util.entity.Pagination;
+
+/**
+ * Search results read page by page. The Kill Bill offset is a row offset, as
+ * core computes the next one from the current offset, the limit and the
+ * totals. Every page remembers the record_id it ended on, so that the next
+ * one seeks past it rather than skipping rows; only an offset nobody ended a
+ * page on is skipped row by row. Pages are read lazily while iterating, the
+ * first one up front so that small searches are complete before Kill Bill
+ * asks for the totals.
+ */
+public class GetnetKeysetPagination<R, T> implements Pagination<T> {
+
+	// Rows read per query when the caller asks for a large limit
+	static final int PAGE_SIZE = 100;
+
+	public interface PageFetcher<R> {
+		/**
+		 * Rows past afterRecordId, skipping the first skip of them, in record_id
+		 * order.
+		 */
+		List<R> fetch(long skip, long afterRecordId, int pageSize) throws SQLException;
+	}
+
+	public interface Counter {
+		long count() throws SQLException;
+	}
+
+	/**
+	 * record_ids pages of the same search ended on, by row offset.
+	 */
+	public interface Checkpoints {
+		/**
+		 * record_id of the row just before the row offset, null when unknown.
+		 */
+		Long get(long rowOffset);
+
+		void put(long rowOffset, long recordId);
+	}
+
+	private final long offset;
+	private final long limit;
+	private final PageFetcher<R> fetcher;
+	private final Counter matchCounter;
+	private final Checkpoints checkpoints;
+	private final Function<R, Long> recordId;
+	private final Function<R, T> mapper;
+
+	private List<R> page;
+	private int pageIndex;
+	// The first page starts from a checkpoint or skips rows, the next ones seek
+	// past the last row read
+	private boolean started;
+	private long lastRecordId;
+	private long returned;
+	private boolean exhausted;
+	private Long totalNbRecords;
+
+	public GetnetKeysetPagination(Long offset, Long limit, PageFetcher<R> fetcher, Counter matchCounter,
+			Checkpoints checkpoints, Function<R, Long> recordId, Function<R, T> mapper) throws SQLException {
+		this.offset = offset == null ? 0L : offset;
+		this.limit = limit == null ? PAGE_SIZE : limit;
+		this.fetcher = fetcher;
+		this.matchCounter = matchCounter;
+		this.checkpoints = checkpoints;
+		this.recordId = recordId;
+		this.mapper = mapper;
+		fetchPage();
+	}
+
+	@Override
+	public Long getCurrentOffset() {
+		return offset;
+	}
+
+	/**
+	 * Row offset of the next page, null on the last one.
+	 */
+	@Override
+	public Long getNextOffset() {
+		final long nextOffset = offset + limit;
+		return nextOffset < getTotalNbRecords() ? nextOffset : null;
+	}
+
+	// Counting every response of the tenant is a full index scan at hundreds of
+	// millions of rows, Pagination allows leaving it unknown
+	@Override
+	public Long getMaxNbRecords() {
+		return null;
+	}
+
+	/**
+	 * Responses matching the search, counted on first use.
+	 */
+	@Override
+	public Long getTotalNbRecords() {
+		if (totalNbRecords == null) {
+			totalNbRecords = count(matchCounter);
+		}
+		return totalNbRecords;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				if (pageIndex < page.size()) {
+					return true;
+				}
+				if (exhausted || returned >= limit) {
+					return false;
+				}
+
+				try {
+					fetchPage();
+				} catch (SQLException e) {
+					throw new IllegalStateException("Failed to fetch the next page of results", e);
+				}
+				return pageIndex < page.size();
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final R row = page.get(pageIndex++);
+				if (++returned == limit) {
+					checkpoints.put(offset + limit, recordId.apply(row));
+				}
+				return mapper.apply(row);
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		page = Collections.emptyList();
+		exhausted = true;
+	}
+
+	private void fetchPage() throws SQLException {
+		pageIndex = 0;
+		final int pageSize = (int) Math.min(PAGE_SIZE, limit - returned);
+		if (pageSize <= 0) {
+			page = Collections.emptyList();
+			return;
+		}
+
+		if (!started) {
+			final Long checkpoint = checkpoints.get(offset);
+			page = checkpoint == null ? fetcher.fetch(offset, 0L, pageSize) : fetcher.fetch(0L, checkpoint, pageSize);
+			started = true;
+		} else {
+			page = fetcher.fetch(0L, lastRecordId, pageSize);
+		}
+		// A short page means nothing is left past it
+		exhausted = page.size() < pageSize;
+		if (!page.isEmpty()) {
+			lastRecordId = recordId.apply(page.get(page.size() - 1));
+		}
+	}
+
+	private static long count(Counter counter) {
+		try {
+			return counter.count();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Failed to count the results", e);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the plugin, rendered in the Prometheus text format. Latencies
+ * of Getnet calls, plugin operations and DAO statements are recorded in
+ * histograms tagged by tenant and status, with an error counter next to each.
+ * Recording is off by default and then costs a single check per call. The
+ * counters the other components keep anyway (token refreshes, circuit
+ * breakers, rate limiting, retries, refund reconciliation) are read when the
+ * metrics are scraped, whether recording is on or not.
+ */
+public class GetnetMetrics {
+
+	public static final GetnetMetrics DISABLED = new GetnetMetrics(false);
+
+	// Upper bounds in seconds, from a fast DAO statement to a Getnet timeout
+	private static final double[] BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5,
+			10, 30 };
+
+	private static final String NO_TENANT = "none";
+
+	public enum Layer {
+		HTTP("getnet_http_request", "Calls to the Getnet API", "endpoint", "method"),
+		OPERATION("getnet_plugin_operation", "Payment plugin API operations", "operation", null),
+		DAO("getnet_dao_statement", "Statements run by the Getnet DAO", "statement", null);
+
+		private final String prefix;
+		private final String help;
+		private final String nameLabel;
+		// Null for layers with a single label besides tenant and status
+		private final String detailLabel;
+
+		Layer(String prefix, String help, String nameLabel, String detailLabel) {
+			this.prefix = prefix;
+			this.help = help;
+			this.nameLabel = nameLabel;
+			this.detailLabel = detailLabel;
+		}
+	}
+
+	/**
+	 * Reads the counters of a component at scrape time.
+	 */
+	public interface Collector {
+		void collect(Samples samples);
+	}
+
+	private final boolean enabled;
+	private final ConcurrentMap<Key, Histogram> histograms = new ConcurrentHashMap<Key, Histogram>();
+	private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+	public GetnetMetrics(Properties configProperties) {
+		this(Boolean.parseBoolean(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "metrics_enabled", "false")));
+	}
+
+	private GetnetMetrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void addCollector(Collector collector) {
+		collectors.add(collector);
+	}
+
+	/**
+	 * Start time to hand to {@link #record}, 0 when recording is off.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public void record(Layer layer, String name, Object tenantId, String status, boolean error, long startNanos) {
+		record(layer, name, null, tenantId, status, error, startNanos);
+	}
+
+	public void record(Layer layer, String name, String detail, Object tenantId, String status, boolean error,
+			long startNanos) {
+		if (startNanos == 0) {
+			return;
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		final Key key = new Key(layer, name, detail, tenantId == null ? NO_TENANT : tenantId.toString(), status);
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+		}
+		histogram.observe(elapsedNanos / 1e9, error);
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text exposition format.
+	 */
+	public String scrape() {
+		final Samples samples = new Samples();
+		for (Map.Entry<Key, Histogram> entry : histograms.entrySet()) {
+			entry.getValue().writeTo(entry.getKey(), samples);
+		}
+		for (Collector collector : collectors) {
+			collector.collect(samples);
+		}
+		return samples.toString();
+	}
+
+	/**
+	 * Samples of one scrape, grouped by metric family.
+	 */
+	public static final class Samples {
+
+		private final Map<String, StringBuilder> families = new LinkedHashMap<String, StringBuilder>();
+
+		public void counter(String name, String help, double value, String... labels) {
+			sample(name, "counter", help, name, value, labels);
+		}
+
+		public void gauge(String name, String help, double value, String... labels) {
+			sample(name, "gauge", help, name, value, labels);
+		}
+
+		private void sample(String family, String type, String help, String name, double value, String... labels) {
+			StringBuilder lines = families.get(family);
+			if (lines == null) {
+				lines = new StringBuilder();
+				lines.append("# HELP ").append(family).append(' ').append(help).append('\n');
+				lines.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+				families.put(family, lines);
+			}
+			lines.append(name);
+			if (labels.length > 0) {
+				lines.append('{');
+				for (int i = 0; i + 1 < labels.length; i += 2) {
+					if (i > 0) {
+						lines.append(',');
+					}
+					lines.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+				}
+				lines.append('}');
+			}
+			lines.append(' ').append(format(value)).append('\n');
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder out = new StringBuilder();
+			for (StringBuilder lines : families.values()) {
+				out.append(lines);
+			}
+			return out.toString();
+		}
+
+		private static String escape(String value) {
+			if (value == null) {
+				return "";
+			}
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+
+		private static String format(double value) {
+			if (value == Double.POSITIVE_INFINITY) {
+				return "+Inf";
+			}
+			if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+				return Long.toString((long) value);
+			}
+			return Double.toString(value);
+		}
+	}
+
+	private static final class Histogram {
+
+		// Per bucket, made cumulative when written
+		private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final DoubleAdder sumSeconds = new DoubleAdder();
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void observe(double seconds, boolean error) {
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (seconds <= BUCKETS[i]) {
+					buckets[i].increment();
+					break;
+				}
+			}
+			count.increment();
+			sumSeconds.add(seconds);
+			if (error) {
+				errors.increment();
+			}
+		}
+
+		void writeTo(Key key, Samples samples) {
+			final Layer layer = key.layer;
+			final String family = layer.prefix + "_duration_seconds";
+			final String help = layer.help + ", in seconds";
+			final List<String> labels = new ArrayList<String>(10);
+			labels.add(layer.nameLabel);
+			labels.add(key.name);
+			if (layer.detailLabel != null) {
+				labels.add(layer.detailLabel);
+				labels.add(key.detail);
+			}
+			labels.add("tenant");
+			labels.add(key.tenant);
+			labels.add("status");
+			labels.add(key.status);
+
+			long cumulative = 0;
+			for (int i = 0; i <= BUCKETS.length; i++) {
+				cumulative += i < BUCKETS.length ? buckets[i].sum() : 0;
+				final List<String> bucketLabels = new ArrayList<String>(labels);
+				bucketLabels.add("le");
+				bucketLabels.add(i < BUCKETS.length ? Samples.format(BUCKETS[i]) : "+Inf");
+				samples.sample(family, "histogram", help, family.replace("_seconds", "_seconds_bucket"),
+						i < BUCKETS.length ? cumulative : count.sum(), bucketLabels.toArray(new String[0]));
+			}
+			final String[] labelArray = labels.toArray(new String[0]);
+			samples.sample(family, "histogram", help, family + "_sum", sumSeconds.sum(), labelArray);
+			samples.sample(family, "histogram", help, family + "_count", count.sum(), labelArray);
+
+			final long errorCount = errors.sum();
+			if (errorCount > 0) {
+				samples.counter(layer.prefix + "_errors_total", layer.help + " that failed", errorCount, labelArray);
+			}
+		}
+	}
+
+	private static final class Key {
+
+		private final Layer layer;
+		private final String name;
+		private final String detail;
+		private final String tenant;
+		private final String status;
+
+		Key(Layer layer, String name, String detail, String tenant, String status) {
+			this.layer = layer;
+			this.name = name;
+			this.detail = detail;
+			this.tenant = tenant;
+			this.status = status;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return layer == other.layer && name.equals(other.name) && Objects.equals(detail, other.detail)
+					&& tenant.equals(other.tenant) && Objects.equals(status, other.status);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(layer, name, detail, tenant, status);
+		}
+	}
+}
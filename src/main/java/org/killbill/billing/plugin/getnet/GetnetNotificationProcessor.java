@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.PaymentApiException;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.api.PluginCallContext;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.billing.plugin.getnet.dao.GetnetStatusUpdate;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.killbill.billing.plugin.getnet.model.CancelRequestResponse;
+import org.killbill.billing.plugin.getnet.model.GetnetNotification;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Ingests Getnet status callbacks. Notifications are queued by the servlet
+ * thread and applied in batches by a single worker: duplicates within a batch
+ * collapse to the latest status, rows are updated with one JDBC batch and
+ * refunds that reached a final status are resolved in Kill Bill. Callbacks are
+ * not authenticated, so the status of a cancel request is read back from
+ * Getnet before it is written, and left to the refund reconciler when it
+ * cannot be. Callbacks are acknowledged once queued, so a batch the database refuses is kept and
+ * retried with a backoff, the queue filling up meanwhile makes the servlet
+ * refuse new ones, and close() writes what is still queued before returning.
+ */
+public class GetnetNotificationProcessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetNotificationProcessor.class);
+
+	private static final long MIN_RETRY_MILLIS = 1000;
+	private static final long MAX_RETRY_MILLIS = 30000;
+
+	private final OSGIKillbillAPI killbillAPI;
+	private final GetnetDao getnetDao;
+	private final GetnetHttpClientRegistry clientRegistry;
+	private final Clock clock;
+	private final BlockingQueue<GetnetStatusUpdate> queue;
+	private final int batchSize;
+	private final long shutdownTimeoutMillis;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setNameFormat("getnet-notifications-%d").setDaemon(true).build());
+	private final Gson gson = GetnetJson.GSON;
+
+	private volatile boolean running;
+
+	public GetnetNotificationProcessor(OSGIKillbillAPI killbillAPI, GetnetDao getnetDao,
+			GetnetHttpClientRegistry clientRegistry, Clock clock, Properties configProperties) {
+		this.killbillAPI = killbillAPI;
+		this.getnetDao = getnetDao;
+		this.clientRegistry = clientRegistry;
+		this.clock = clock;
+		this.queue = new ArrayBlockingQueue<GetnetStatusUpdate>(Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "notification_queue_capacity", "10000")));
+		this.batchSize = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "notification_batch_size", "100"));
+		this.shutdownTimeoutMillis = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "notification_shutdown_timeout_millis", "10000"));
+	}
+
+	public void start() {
+		running = true;
+		worker.submit(this::run);
+	}
+
+	/**
+	 * Lets the worker write the notifications still queued, interrupting it
+	 * once the shutdown timeout elapsed, in which case it logs the ones left.
+	 */
+	public void close() {
+		running = false;
+		worker.shutdown();
+		try {
+			if (!worker.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				worker.shutdownNow();
+				worker.awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Parses the callback, either a JSON body or the query parameters Kill Bill
+	 * hands over as plugin properties. Returns null when it carries nothing the
+	 * plugin can act on.
+	 */
+	public GetnetNotification parse(String body, Iterable<PluginProperty> properties) {
+		GetnetNotification notification = null;
+		if (body != null && body.trim().startsWith("{")) {
+			try {
+				notification = gson.fromJson(body, GetnetNotification.class);
+			} catch (JsonSyntaxException e) {
+				return null;
+			}
+		} else if (properties != null) {
+			final JsonObject params = new JsonObject();
+			for (PluginProperty property : properties) {
+				if (property.getValue() != null) {
+					params.addProperty(property.getKey(), property.getValue().toString());
+				}
+			}
+			notification = gson.fromJson(params, GetnetNotification.class);
+		}
+
+		if (notification == null || notification.getStatus() == null
+				|| (notification.getPaymentId() == null && notification.getCancelRequestId() == null)) {
+			return null;
+		}
+		return notification;
+	}
+
+	/**
+	 * Queues the notification without blocking. Returns false when the queue is
+	 * full, Getnet retries notifications that are not acknowledged.
+	 */
+	public boolean offer(UUID kbTenantId, GetnetNotification notification) {
+		return queue.offer(new GetnetStatusUpdate(kbTenantId, notification.getPaymentId(),
+				notification.getCancelRequestId(), notification.getStatus()));
+	}
+
+	private void run() {
+		// Kept across failed attempts, later notifications are merged into it
+		final List<GetnetStatusUpdate> batch = new ArrayList<GetnetStatusUpdate>(batchSize);
+		long retryMillis = 0;
+		while (running || !batch.isEmpty() || !queue.isEmpty()) {
+			try {
+				if (batch.isEmpty()) {
+					final GetnetStatusUpdate first = queue.poll(1, TimeUnit.SECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+				}
+				queue.drainTo(batch, batchSize - batch.size());
+				write(batch, true);
+				batch.clear();
+				retryMillis = 0;
+			} catch (SQLException e) {
+				retryMillis = Math.min(Math.max(retryMillis * 2, MIN_RETRY_MILLIS), MAX_RETRY_MILLIS);
+				logger.warn("[GETNET] Failed to apply {} status updates, retrying in {} ms - {}", batch.size(),
+						retryMillis, e.getMessage());
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (RuntimeException e) {
+				// Not a database outage, retrying would fail the same way
+				logger.error("[GETNET] Failed to process notifications, dropping " + describe(batch), e);
+				batch.clear();
+			}
+		}
+
+		queue.drainTo(batch);
+		if (!batch.isEmpty()) {
+			logger.error("[GETNET] Dropping {} notifications not written on shutdown: {}", batch.size(),
+					describe(batch));
+		}
+	}
+
+	/**
+	 * Writes the status changes and resolves the refunds they settle. Used by
+	 * the refund reconciler for the statuses it polls, which it polls again
+	 * after a failure. Returns the number of rows whose status changed.
+	 */
+	int apply(List<GetnetStatusUpdate> batch) {
+		try {
+			// Read from Getnet already
+			return write(batch, false);
+		} catch (SQLException e) {
+			logger.error("[GETNET] Failed to apply {} status updates - {}", batch.size(), e.getMessage());
+			return 0;
+		}
+	}
+
+	private int write(List<GetnetStatusUpdate> batch, boolean confirmRefunds) throws SQLException {
+		// Later notifications of the same transaction supersede earlier ones
+		final Map<String, GetnetStatusUpdate> latest = new LinkedHashMap<String, GetnetStatusUpdate>();
+		for (GetnetStatusUpdate update : batch) {
+			latest.put(update.getKey(), update);
+		}
+		if (confirmRefunds) {
+			confirmRefunds(latest);
+			if (latest.isEmpty()) {
+				return 0;
+			}
+		}
+
+		final List<GetnetPaymentsRecord> changed = getnetDao.updateStatuses(latest.values());
+		if (changed.size() < latest.size()) {
+			logger.info("[GETNET] {} of {} status updates matched no row or did not change its status",
+					latest.size() - changed.size(), latest.size());
+		}
+
+		for (GetnetPaymentsRecord record : changed) {
+			if (TransactionType.REFUND.toString().equals(record.getTransactionType())) {
+				resolveRefund(record);
+			}
+		}
+		return changed.size();
+	}
+
+	// Replaces the notified status of each cancel request by the one Getnet
+	// reports, dropping the ones it cannot be read for
+	private void confirmRefunds(Map<String, GetnetStatusUpdate> updates) {
+		for (Iterator<Map.Entry<String, GetnetStatusUpdate>> it = updates.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<String, GetnetStatusUpdate> entry = it.next();
+			final GetnetStatusUpdate update = entry.getValue();
+			if (!update.isRefund()) {
+				continue;
+			}
+
+			final String status = readCancelRequestStatus(update);
+			if (status == null) {
+				it.remove();
+			} else if (!status.equals(update.getStatus())) {
+				logger.warn("[GETNET] Cancel request {} notified as {} but {} on Getnet", update.getCancelRequestId(),
+						update.getStatus(), status);
+				entry.setValue(new GetnetStatusUpdate(update.getKbTenantId(), update.getGetnetPaymentId(),
+						update.getCancelRequestId(), status));
+			}
+		}
+	}
+
+	private String readCancelRequestStatus(GetnetStatusUpdate update) {
+		try {
+			final CancelRequestResponse response = clientRegistry.getClient(update.getKbTenantId())
+					.getCancelRequest(update.getCancelRequestId());
+			if (response != null && response.getStatus() != null) {
+				return response.getStatus();
+			}
+			logger.warn("[GETNET] Ignoring notification of cancel request {}, unknown to Getnet",
+					update.getCancelRequestId());
+		} catch (PaymentPluginApiException e) {
+			logger.warn("[GETNET] Could not confirm cancel request {}, left to the refund reconciler - {}",
+					update.getCancelRequestId(), e.getMessage());
+		}
+		return null;
+	}
+
+	// Enough to replay the notifications by hand
+	private static String describe(List<GetnetStatusUpdate> batch) {
+		final StringBuilder description = new StringBuilder();
+		for (GetnetStatusUpdate update : batch) {
+			description.append(description.length() == 0 ? "" : ", ").append(update.getKey()).append('=')
+					.append(update.getStatus());
+		}
+		return description.toString();
+	}
+
+	// Refunds are left PENDING by refundPayment until Getnet settles the cancel
+	// request
+	private void resolveRefund(GetnetPaymentsRecord record) {
+		final PaymentPluginStatus status = GetnetTransactionInfoMapper.toPluginStatus(TransactionType.REFUND,
+				record);
+		if (status == PaymentPluginStatus.PENDING) {
+			return;
+		}
+
+		final UUID kbAccountId = UUID.fromString(record.getKbAccountId());
+		final CallContext context = new PluginCallContext(GetnetActivator.PLUGIN_NAME, clock.getUTCNow(),
+				kbAccountId, UUID.fromString(record.getKbTenantId()));
+		try {
+			final Account account = killbillAPI.getAccountUserApi().getAccountById(kbAccountId, context);
+			killbillAPI.getPaymentApi().notifyPendingTransactionOfStateChanged(account,
+					UUID.fromString(record.getKbPaymentTransactionId()), status == PaymentPluginStatus.PROCESSED,
+					context);
+		} catch (AccountApiException | PaymentApiException e) {
+			logger.warn("[GETNET] Failed to resolve refund " + record.getKbPaymentTransactionId() + " - "
+					+ e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the blocking part of payment operations (Getnet calls and DAO work).
+ * Disabled by default, operations then run on the Kill Bill thread as before.
+ * When enabled, they are offloaded to virtual threads on JDKs providing them,
+ * or to a bounded platform pool otherwise, and each tenant is limited to a
+ * number of concurrent operations so that one slow seller cannot take every
+ * thread. On the platform pool that limit is kept to half the pool, and
+ * operations finding its queue full are refused rather than left waiting.
+ */
+public class GetnetOperationExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetOperationExecutor.class);
+
+	// Error type of operations refused before running, Getnet never saw them
+	public static final String REJECTED = "GETNET_OFFLOAD_REJECTED";
+
+	// ConcurrentHashMap does not accept null keys
+	private static final UUID DEFAULT_TENANT_KEY = new UUID(0L, 0L);
+
+	public interface Operation<T> {
+		T run() throws PaymentPluginApiException;
+	}
+
+	private final boolean enabled;
+	private final int maxConcurrentPerTenant;
+	private final long acquireTimeoutMillis;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final ConcurrentMap<UUID, Semaphore> tenantPermits = new ConcurrentHashMap<UUID, Semaphore>();
+
+	public GetnetOperationExecutor(Properties configProperties) {
+		this(configProperties, true);
+	}
+
+	GetnetOperationExecutor(Properties configProperties, boolean allowVirtualThreads) {
+		this.enabled = Boolean.parseBoolean(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "offload_enabled", "false"));
+		final int maxConcurrentPerTenant = Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "offload_max_concurrent_per_tenant", "200"));
+		this.acquireTimeoutMillis = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "offload_acquire_timeout_millis", "5000"));
+
+		if (!enabled) {
+			this.maxConcurrentPerTenant = maxConcurrentPerTenant;
+			this.executor = null;
+			this.virtualThreads = false;
+			return;
+		}
+
+		final ExecutorService virtualExecutor = allowVirtualThreads ? newVirtualThreadExecutor() : null;
+		if (virtualExecutor != null) {
+			this.maxConcurrentPerTenant = maxConcurrentPerTenant;
+			this.executor = virtualExecutor;
+			this.virtualThreads = true;
+			logger.info("[GETNET] Payment operations run on virtual threads");
+		} else {
+			final int poolSize = Integer.parseInt(configProperties
+					.getProperty(GetnetActivator.PROPERTY_PREFIX + "offload_fallback_pool_size", "64"));
+			final int queueSize = Integer.parseInt(configProperties
+					.getProperty(GetnetActivator.PROPERTY_PREFIX + "offload_fallback_queue_size", "64"));
+			// A tenant never holds more than half the threads, the others always
+			// find some free
+			this.maxConcurrentPerTenant = Math.max(1, Math.min(maxConcurrentPerTenant, poolSize / 2));
+			this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(queueSize),
+					new ThreadFactoryBuilder().setNameFormat("getnet-operations-%d").setDaemon(true).build());
+			this.virtualThreads = false;
+			logger.info("[GETNET] Virtual threads not available, payment operations run on a pool of {} threads, "
+					+ "{} per tenant", poolSize, this.maxConcurrentPerTenant);
+		}
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Runs the operation and waits for its result. Fails without running it when
+	 * the tenant already has the maximum number of operations in flight for
+	 * longer than the acquire timeout. When the calling thread is interrupted
+	 * while the operation runs, the operation is cancelled and fails with
+	 * {@link GetnetRetryPolicy#UNKNOWN_OUTCOME}, Getnet may have processed it.
+	 */
+	public <T> T execute(UUID tenantId, Operation<T> operation) throws PaymentPluginApiException {
+		if (!enabled) {
+			return operation.run();
+		}
+
+		final Semaphore permits = tenantPermits.computeIfAbsent(tenantId == null ? DEFAULT_TENANT_KEY : tenantId,
+				k -> new Semaphore(maxConcurrentPerTenant));
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new PaymentPluginApiException(REJECTED,
+						"Tenant " + tenantId + " reached " + maxConcurrentPerTenant + " operations in flight");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentPluginApiException("Interrupted waiting for a Getnet operation slot.", e);
+		}
+
+		Future<T> result = null;
+		try {
+			result = executor.submit(operation::run);
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.cancel(true);
+			throw new PaymentPluginApiException(GetnetRetryPolicy.UNKNOWN_OUTCOME,
+					"Interrupted waiting for a Getnet operation, it may have been processed");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PaymentPluginApiException) {
+				throw (PaymentPluginApiException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new PaymentPluginApiException("Getnet operation failed.", e.getCause());
+		} catch (RejectedExecutionException e) {
+			throw new PaymentPluginApiException(REJECTED, "No thread free nor queue room for the Getnet operation");
+		} catch (CancellationException e) {
+			throw new PaymentPluginApiException("Getnet operation could not be run.", e);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * See {@link GetnetMetrics.Collector}.
+	 */
+	public void collect(GetnetMetrics.Samples samples) {
+		for (Map.Entry<UUID, Semaphore> entry : tenantPermits.entrySet()) {
+			final String tenant = DEFAULT_TENANT_KEY.equals(entry.getKey()) ? "none" : entry.getKey().toString();
+			samples.gauge("getnet_offloaded_operations_in_flight", "Offloaded payment operations running",
+					maxConcurrentPerTenant - entry.getValue().availablePermits(), "tenant", tenant);
+		}
+	}
+
+	public void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	// The plugin is built for Java 11, Executors.newVirtualThreadPerTaskExecutor
+	// is looked up at runtime so that it is used when running on 21+
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
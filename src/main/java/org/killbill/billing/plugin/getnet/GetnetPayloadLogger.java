@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Debug log of the payloads exchanged with Getnet, under its own logger so
+ * that it can be turned on alone. Card numbers, tokens and secrets are masked,
+ * and only a sample of the calls is logged when payload_log_sample_rate is
+ * below 1. Nothing is formatted, and nothing allocated, unless the call is
+ * actually logged.
+ */
+public class GetnetPayloadLogger {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetPayloadLogger.class);
+
+	private static final String MASK = "****";
+
+	// Values of these JSON fields are replaced, card_number keeps its last four
+	// digits
+	private static final Pattern SECRET_FIELD = Pattern.compile(
+			"\"(card_number|number_token|security_code|access_token|refresh_token|client_secret)\""
+					+ "(\\s*:\\s*)\"((?:[^\"\\\\]|\\\\.)*)\"");
+	// Card numbers anywhere else, 13 to 19 digits
+	private static final Pattern PAN = Pattern.compile("(?<!\\d)\\d{9,15}(\\d{4})(?!\\d)");
+	private static final Pattern SECRET_PROPERTY = Pattern.compile("(?i).*(secret|password|token).*");
+
+	private final double sampleRate;
+
+	public GetnetPayloadLogger(Properties configProperties) {
+		this.sampleRate = Double.parseDouble(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "payload_log_sample_rate", "1"));
+	}
+
+	/**
+	 * Whether this call is to be logged, drawing the sample.
+	 */
+	public boolean isEnabled() {
+		if (sampleRate <= 0 || !logger.isDebugEnabled()) {
+			return false;
+		}
+		return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	public void log(String verb, String uri, byte[] requestBody, Response response) {
+		if (!isEnabled()) {
+			return;
+		}
+		logger.debug("[GETNET] {} {} answered {}, request: {}, response: {}", verb, uri,
+				response == null ? "nothing" : response.getStatusCode(),
+				mask(new String(requestBody, StandardCharsets.UTF_8)),
+				response == null ? "" : mask(response.getResponseBody()));
+	}
+
+	/**
+	 * The payload with card numbers, tokens and secrets masked.
+	 */
+	public static String mask(String payload) {
+		if (payload == null || payload.isEmpty()) {
+			return payload;
+		}
+		final Matcher fields = SECRET_FIELD.matcher(payload);
+		final String masked = fields.replaceAll(match -> Matcher.quoteReplacement("\"" + match.group(1) + "\""
+				+ match.group(2) + "\"" + maskValue(match.group(1), match.group(3)) + "\""));
+		return PAN.matcher(masked).replaceAll(MASK + "$1");
+	}
+
+	/**
+	 * The properties sorted by name, with the values of secrets, passwords and
+	 * tokens masked.
+	 */
+	public static String mask(Properties properties) {
+		final Map<String, String> masked = new TreeMap<String, String>();
+		for (String name : properties.stringPropertyNames()) {
+			masked.put(name, SECRET_PROPERTY.matcher(name).matches() ? MASK : properties.getProperty(name));
+		}
+		return masked.toString();
+	}
+
+	private static String maskValue(String field, String value) {
+		if ("card_number".equals(field) && value.length() > 4) {
+			return MASK + value.substring(value.length() - 4);
+		}
+		return MASK;
+	}
+}
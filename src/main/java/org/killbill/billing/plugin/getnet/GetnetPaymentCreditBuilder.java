@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.model.BillingAddress;
+import org.killbill.billing.plugin.getnet.model.CardCredit;
+import org.killbill.billing.plugin.getnet.model.Credit;
+import org.killbill.billing.plugin.getnet.model.Credit.TransactionTypeEnum;
+import org.killbill.billing.plugin.getnet.model.CustomerCredit;
+import org.killbill.billing.plugin.getnet.model.Order;
+import org.killbill.billing.plugin.getnet.model.Order.ProductTypeEnum;
+import org.killbill.billing.plugin.getnet.model.PaymentCredit;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
+import org.killbill.billing.plugin.util.KillBillMoney;
+
+/**
+ * Builds the charge request posted to /v1/payments/credit for authorizations
+ * and purchases. Public so that the benchmarks measure the request the plugin
+ * actually sends.
+ */
+public final class GetnetPaymentCreditBuilder {
+
+	private GetnetPaymentCreditBuilder() {
+	}
+
+	/**
+	 * The order id is the Kill Bill transaction id, the lookup of an unanswered
+	 * payment relies on it. The soft descriptor prefix is optional.
+	 */
+	public static PaymentCredit build(TransactionType transactionType, UUID kbAccountId, UUID kbTransactionId,
+			BigDecimal amount, Currency currency, VaultCardResponse cardRes, String softDescriptor) {
+		PaymentCredit getnetPayment = new PaymentCredit();
+		getnetPayment.setCurrency(currency.toString());
+		getnetPayment.setAmount(Math.toIntExact(KillBillMoney.toMinorUnits(currency.toString(), amount)));
+		Order order = new Order();
+		order.setOrderId(kbTransactionId.toString());
+		order.setProductType(ProductTypeEnum.SERVICE);
+		getnetPayment.setOrder(order);
+		CustomerCredit customer = new CustomerCredit();
+		customer.setCustomerId(kbAccountId.toString());
+		BillingAddress billing = new BillingAddress();
+		customer.setBillingAddress(billing);
+		getnetPayment.setCustomer(customer);
+		Credit creditTransaction = new Credit();
+		creditTransaction.setPreAuthorization(transactionType.equals(TransactionType.AUTHORIZE));
+		creditTransaction.setDelayed(false);
+		creditTransaction.setSaveCardData(false);
+		creditTransaction.setTransactionType(TransactionTypeEnum.FULL);
+		creditTransaction.setNumberInstallments(BigDecimal.valueOf(1));
+
+		if (softDescriptor != null && !softDescriptor.isEmpty()) {
+			creditTransaction.setSoftDescriptor((softDescriptor + "*" + kbTransactionId.toString()).substring(0, 20));
+		}
+
+		CardCredit card = new CardCredit();
+		card.setNumberToken(cardRes.getNumberToken());
+		card.setCardholderName(cardRes.getCardholderName());
+		card.setExpirationMonth(cardRes.getExpirationMonth());
+		card.setExpirationYear(cardRes.getExpirationYear());
+		card.setBrand(cardRes.getBrand());
+		creditTransaction.setCard(card);
+		getnetPayment.setCredit(creditTransaction);
+		return getnetPayment;
+	}
+}
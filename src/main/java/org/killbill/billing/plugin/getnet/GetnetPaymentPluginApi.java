@@ -21,17 +21,20 @@
 package org.killbill.billing.plugin.getnet;
 
 import java.math.BigDecimal;
-import java.security.GeneralSecurityException;
 import java.sql.SQLException;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jooq.Cursor;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.catalog.api.Currency;
@@ -41,7 +44,9 @@ import org.killbill.billing.payment.api.Payment;
 import org.killbill.billing.payment.api.PaymentApiException;
 import org.killbill.billing.payment.api.PaymentMethod;
 import org.killbill.billing.payment.api.PaymentMethodPlugin;
+import org.killbill.billing.payment.api.PaymentTransaction;
 import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.GatewayNotification;
 import org.killbill.billing.payment.plugin.api.HostedPaymentPageFormDescriptor;
@@ -50,20 +55,16 @@ import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.api.PluginProperties;
+import org.killbill.billing.plugin.api.payment.PluginGatewayNotification;
 import org.killbill.billing.plugin.api.payment.PluginPaymentMethodInfoPlugin;
 import org.killbill.billing.plugin.api.payment.PluginPaymentMethodPlugin;
 import org.killbill.billing.plugin.api.payment.PluginPaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.getnet.dao.GetnetDao;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentMethodsRecord;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
-import org.killbill.billing.plugin.getnet.model.BillingAddress;
 import org.killbill.billing.plugin.getnet.model.CancelRequestResponse;
-import org.killbill.billing.plugin.getnet.model.CardCredit;
-import org.killbill.billing.plugin.getnet.model.Credit;
-import org.killbill.billing.plugin.getnet.model.Credit.TransactionTypeEnum;
-import org.killbill.billing.plugin.getnet.model.CustomerCredit;
-import org.killbill.billing.plugin.getnet.model.Order;
-import org.killbill.billing.plugin.getnet.model.Order.ProductTypeEnum;
+import org.killbill.billing.plugin.getnet.model.GetnetNotification;
 import org.killbill.billing.plugin.getnet.model.PaymentCredit;
 import org.killbill.billing.plugin.getnet.model.PaymentCreditDelayedConfirmResponse;
 import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
@@ -78,31 +79,114 @@ import org.killbill.clock.Clock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 public class GetnetPaymentPluginApi implements PaymentPluginApi {
 
 	private static final Logger logger = LoggerFactory.getLogger(GetnetPaymentPluginApi.class);
+	// Plugin property forcing getPaymentMethodDetail to read the card from Getnet
+	public static final String REFRESH_FROM_GATEWAY_PROPERTY = "refreshFromGateway";
+	// Error type of payments left UNDEFINED that Getnet turned out never to have
+	static final String ORDER_NOT_FOUND = "GETNET_ORDER_NOT_FOUND";
 	private OSGIKillbillAPI killbillAPI;
 	private Clock clock;
-	private GetnetHttpClient client;
 	private GetnetDao getnetDao;
-	private Properties configProperties;
 	private final GetnetConfigurationHandler getnetConfigurationHandler;
+	private final GetnetHttpClientRegistry clientRegistry;
+	private final GetnetCardCache cardCache;
+	private final GetnetNotificationProcessor notificationProcessor;
+	private final GetnetOperationExecutor operationExecutor;
+	private final GetnetMetrics metrics;
+	// Where searchPayments pages ended, keyed by tenant, search key and row offset
+	private final Cache<String, Long> searchCheckpoints = CacheBuilder.newBuilder().maximumSize(10000)
+			.expireAfterAccess(10, TimeUnit.MINUTES).build();
 
 	public GetnetPaymentPluginApi(final OSGIKillbillAPI killbillAPI, final Clock clock,
 			OSGIConfigPropertiesService configProperties, GetnetDao getnetDao,
-			GetnetConfigurationHandler getnetConfigurationHandler) {
+			GetnetConfigurationHandler getnetConfigurationHandler, GetnetHttpClientRegistry clientRegistry,
+			GetnetCardCache cardCache, GetnetNotificationProcessor notificationProcessor,
+			GetnetOperationExecutor operationExecutor, GetnetMetrics metrics) {
 		this.killbillAPI = killbillAPI;
 		this.clock = clock;
 		this.getnetDao = getnetDao;
 		this.getnetConfigurationHandler = getnetConfigurationHandler;
-		this.client = null;
-		this.configProperties = null;
+		this.clientRegistry = clientRegistry;
+		this.cardCache = cardCache;
+		this.notificationProcessor = notificationProcessor;
+		this.operationExecutor = operationExecutor;
+		this.metrics = metrics;
+	}
+
+	// Runs the operation on the operation executor, timing the wait for it too
+	private <T> T offload(String operation, UUID tenantId, GetnetOperationExecutor.Operation<T> body)
+			throws PaymentPluginApiException {
+		return timed(operation, tenantId, () -> operationExecutor.execute(tenantId, body));
+	}
+
+	// Offloads an operation returning a transaction. One abandoned by an
+	// interrupted Kill Bill thread may still have reached Getnet, it is reported
+	// UNDEFINED for the Janitor to settle rather than failed. One refused by the
+	// executor never ran and is reported CANCELED.
+	private PaymentTransactionInfoPlugin offloadTransaction(String operation, TransactionType transactionType,
+			UUID kbPaymentId, UUID kbTransactionId, BigDecimal amount, Currency currency, UUID tenantId,
+			GetnetOperationExecutor.Operation<PaymentTransactionInfoPlugin> body) throws PaymentPluginApiException {
+		try {
+			return offload(operation, tenantId, body);
+		} catch (PaymentPluginApiException e) {
+			final PaymentPluginStatus status;
+			if (GetnetRetryPolicy.UNKNOWN_OUTCOME.equals(e.getErrorType())) {
+				logger.warn("[GETNET] Outcome of " + operation + " for transaction " + kbTransactionId + " unknown - "
+						+ e.getErrorMessage());
+				status = PaymentPluginStatus.UNDEFINED;
+			} else if (GetnetOperationExecutor.REJECTED.equals(e.getErrorType())) {
+				// Never run, Kill Bill may try it again
+				logger.warn("[GETNET] " + operation + " for transaction " + kbTransactionId + " refused - "
+						+ e.getErrorMessage());
+				status = PaymentPluginStatus.CANCELED;
+			} else {
+				throw e;
+			}
+			return new PluginPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, transactionType, amount,
+					currency, status, e.getErrorMessage(), e.getErrorType(), null, null, new DateTime(), null, null);
+		}
+	}
+
+	// Latency sample of the operation, tagged with the status of the returned
+	// transaction, with rejected when the call never reached Getnet or with
+	// exception
+	private <T> T timed(String operation, UUID tenantId, GetnetOperationExecutor.Operation<T> body)
+			throws PaymentPluginApiException {
+		final long startNanos = metrics.start();
+		if (startNanos == 0) {
+			return body.run();
+		}
+
+		String status = "exception";
+		boolean failed = true;
+		try {
+			final T result = body.run();
+			if (result instanceof PaymentTransactionInfoPlugin) {
+				final PaymentPluginStatus pluginStatus = ((PaymentTransactionInfoPlugin) result).getStatus();
+				status = String.valueOf(pluginStatus);
+				failed = pluginStatus == PaymentPluginStatus.ERROR || pluginStatus == PaymentPluginStatus.CANCELED;
+			} else {
+				status = "ok";
+				failed = false;
+			}
+			return result;
+		} catch (PaymentPluginApiException e) {
+			if (GetnetHttpClient.isFastFailure(e.getErrorType())) {
+				status = "rejected";
+			}
+			throw e;
+		} finally {
+			metrics.record(GetnetMetrics.Layer.OPERATION, operation, tenantId, status, failed, startNanos);
+		}
 	}
 
 	@Override
@@ -110,28 +194,34 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
 
-		return executePaymentTransaction(TransactionType.AUTHORIZE, kbAccountId, kbPaymentId, kbTransactionId,
-				kbPaymentMethodId, amount, currency, properties, context);
+		return offloadTransaction("authorizePayment", TransactionType.AUTHORIZE, kbPaymentId, kbTransactionId,
+				amount, currency, context.getTenantId(),
+				() -> executePaymentTransaction(TransactionType.AUTHORIZE, kbAccountId, kbPaymentId, kbTransactionId,
+						kbPaymentMethodId, amount, currency, properties, context));
 	}
 
 	@Override
 	public PaymentTransactionInfoPlugin capturePayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
+		return offloadTransaction("capturePayment", TransactionType.CAPTURE, kbPaymentId, kbTransactionId, amount,
+				currency, context.getTenantId(), () -> executeCapture(kbAccountId, kbPaymentId, kbTransactionId,
+						kbPaymentMethodId, amount, currency, properties, context));
+	}
+
+	private PaymentTransactionInfoPlugin executeCapture(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
+			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
+			CallContext context) throws PaymentPluginApiException {
 		PaymentTransactionInfoPlugin paymentTransactionInfoPlugin = null;
 
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 
 		try {
 			GetnetPaymentsRecord record = getnetDao.getSuccessfulAuthorizationResponse(kbPaymentId,
 					context.getTenantId());
 
-			String res = client.captureTransactionRequest(record.getGetnetPaymentId(),
+			PaymentCreditDelayedConfirmResponse response = client.captureTransactionRequest(record.getGetnetPaymentId(),
 					Math.toIntExact(KillBillMoney.toMinorUnits(currency.toString(), amount)));
-			logger.debug("[GETNET] PAYMNET RESPONSE" + res);
-			Gson gson = new Gson();
-			PaymentCreditDelayedConfirmResponse response = gson.fromJson(res,
-					PaymentCreditDelayedConfirmResponse.class);
 
 			if (response.getStatus().equalsIgnoreCase("CONFIRMED")) {
 				try {
@@ -157,15 +247,25 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	public PaymentTransactionInfoPlugin purchasePayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
-		return executePaymentTransaction(TransactionType.PURCHASE, kbAccountId, kbPaymentId, kbTransactionId,
-				kbPaymentMethodId, amount, currency, properties, context);
+		return offloadTransaction("purchasePayment", TransactionType.PURCHASE, kbPaymentId, kbTransactionId,
+				amount, currency, context.getTenantId(),
+				() -> executePaymentTransaction(TransactionType.PURCHASE, kbAccountId, kbPaymentId, kbTransactionId,
+						kbPaymentMethodId, amount, currency, properties, context));
 	}
 
 	@Override
 	public PaymentTransactionInfoPlugin voidPayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, Iterable<PluginProperty> properties, CallContext context)
 			throws PaymentPluginApiException {
-		this.ensureClient(context.getTenantId());
+		return offloadTransaction("voidPayment", TransactionType.VOID, kbPaymentId, kbTransactionId, null, null,
+				context.getTenantId(), () -> executeVoid(kbAccountId, kbPaymentId, kbTransactionId, kbPaymentMethodId,
+						properties, context));
+	}
+
+	private PaymentTransactionInfoPlugin executeVoid(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
+			UUID kbPaymentMethodId, Iterable<PluginProperty> properties, CallContext context)
+			throws PaymentPluginApiException {
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 		try {
 			Payment originalPayment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, true, false, properties,
 					context);
@@ -196,10 +296,7 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 					throw new PaymentPluginApiException("Failed.", "Failed to find the original Getnet payment id.");
 				}
 
-				String res = client.voidTransactionRequest(getnetPaymentId);
-				logger.debug("[GETNET] VOID RESPONSE" + res);
-				Gson gson = new Gson();
-				PaymentCreditVoidReponse response = gson.fromJson(res, PaymentCreditVoidReponse.class);
+				PaymentCreditVoidReponse response = client.voidTransactionRequest(getnetPaymentId);
 
 				getnetDao.addResponseGeneric(kbAccountId, kbPaymentId, kbTransactionId, TransactionType.VOID,
 						record.getAmount(), Currency.fromCode(record.getCurrency()), response, context.getTenantId(),
@@ -236,9 +333,17 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	public PaymentTransactionInfoPlugin refundPayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
 			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
+		return offloadTransaction("refundPayment", TransactionType.REFUND, kbPaymentId, kbTransactionId, amount,
+				currency, context.getTenantId(), () -> executeRefund(kbAccountId, kbPaymentId, kbTransactionId,
+						kbPaymentMethodId, amount, currency, properties, context));
+	}
+
+	private PaymentTransactionInfoPlugin executeRefund(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId,
+			UUID kbPaymentMethodId, BigDecimal amount, Currency currency, Iterable<PluginProperty> properties,
+			CallContext context) throws PaymentPluginApiException {
 		PaymentTransactionInfoPlugin paymentTransactionInfoPlugin = null;
 
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 
 		try {
 			GetnetPaymentsRecord record = null;
@@ -252,11 +357,9 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 				}
 			}
 
-			String res = client.refundTransaction(getnetPaymentId,
+			CancelRequestResponse response = client.refundTransaction(getnetPaymentId,
 					Math.toIntExact(KillBillMoney.toMinorUnits(currency.toString(), amount)),
 					kbTransactionId.toString());
-			Gson gson = new Gson();
-			CancelRequestResponse response = gson.fromJson(res, CancelRequestResponse.class);
 
 			getnetDao.addResponseGeneric(kbAccountId, kbPaymentId, kbTransactionId, TransactionType.REFUND, amount,
 					currency, response, context.getTenantId(), record);
@@ -272,38 +375,151 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 					TransactionType.REFUND, amount, currency, status, response.getStatus(),
 					status.equals(PaymentPluginStatus.PENDING) ? "00" : "01", response.getCancelRequestId(), null,
 					clock.getUTCNow(), clock.getUTCNow(), new ArrayList<PluginProperty>());
-		} catch (SQLException | PaymentPluginApiException e) {
+		} catch (PaymentPluginApiException e) {
+			if (GetnetRetryPolicy.UNKNOWN_OUTCOME.equals(e.getErrorType())) {
+				// Getnet may have accepted the refund, the Janitor settles it
+				logger.warn("[GETNET] Refund " + kbTransactionId + " outcome unknown - " + e.getErrorMessage());
+				return new PluginPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, TransactionType.REFUND,
+						amount, currency, PaymentPluginStatus.UNDEFINED, e.getErrorMessage(), e.getErrorType(), null,
+						null, clock.getUTCNow(), null, new ArrayList<PluginProperty>());
+			}
+			if (!GetnetHttpClient.isFastFailure(e.getErrorType())) {
+				return refundFailed(kbPaymentId, kbTransactionId, amount, currency, e);
+			}
+			// Refused by the circuit breaker or the rate limiter, the refund never
+			// reached Getnet and Kill Bill may retry it
+			logger.warn("[GETNET] Refund " + kbTransactionId + " not sent to Getnet - " + e.getErrorMessage());
 			paymentTransactionInfoPlugin = new PluginPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId,
-					TransactionType.REFUND, amount, currency, PaymentPluginStatus.ERROR,
-					"Failed to find related Getnet transaction. " + e.getMessage(), "E100", null, null,
-					clock.getUTCNow(), clock.getUTCNow(), new ArrayList<PluginProperty>());
+					TransactionType.REFUND, amount, currency, PaymentPluginStatus.CANCELED, e.getErrorMessage(),
+					e.getErrorType(), null, null, clock.getUTCNow(), clock.getUTCNow(),
+					new ArrayList<PluginProperty>());
+		} catch (SQLException e) {
+			return refundFailed(kbPaymentId, kbTransactionId, amount, currency, e);
 		}
 
 		return paymentTransactionInfoPlugin;
 	}
 
+	private PaymentTransactionInfoPlugin refundFailed(UUID kbPaymentId, UUID kbTransactionId, BigDecimal amount,
+			Currency currency, Exception e) {
+		return new PluginPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, TransactionType.REFUND, amount,
+				currency, PaymentPluginStatus.ERROR, "Failed to find related Getnet transaction. " + e.getMessage(),
+				"E100", null, null, clock.getUTCNow(), clock.getUTCNow(), new ArrayList<PluginProperty>());
+	}
+
 	@Override
 	public List<PaymentTransactionInfoPlugin> getPaymentInfo(UUID kbAccountId, UUID kbPaymentId,
 			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
-		List<PaymentTransactionInfoPlugin> returnList = new ArrayList<PaymentTransactionInfoPlugin>();
+		return timed("getPaymentInfo", context.getTenantId(),
+				() -> executeGetPaymentInfo(kbAccountId, kbPaymentId, properties, context));
+	}
 
+	private List<PaymentTransactionInfoPlugin> executeGetPaymentInfo(UUID kbAccountId, UUID kbPaymentId,
+			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
 		try {
-			GetnetPaymentsRecord record = getnetDao.getSuccessfulAuthorizationResponse(kbPaymentId,
-					context.getTenantId());
-
-			if (record != null) {
-				returnList.add(buildPaymentTransactionInfoPlugin(record));
+			// Whole transaction chain (authorization, captures, refunds...) in record order
+			final List<GetnetPaymentsRecord> records = getnetDao.getResponses(kbPaymentId, context.getTenantId());
+			final List<PaymentTransactionInfoPlugin> infos = new ArrayList<PaymentTransactionInfoPlugin>(
+					GetnetTransactionInfoMapper.toTransactionInfos(records));
+			if (!hasPaymentRecord(records)) {
+				infos.addAll(settleUnknownOutcomes(kbAccountId, kbPaymentId, records, properties, context));
 			}
+			return infos;
 		} catch (SQLException e) {
 			logger.error("GetnetDAO failed to retrieve more information on payment. " + e.getMessage());
 		}
-		return returnList;
+		return new ArrayList<PaymentTransactionInfoPlugin>();
+	}
+
+	private static boolean hasPaymentRecord(List<GetnetPaymentsRecord> records) {
+		for (GetnetPaymentsRecord record : records) {
+			if (TransactionType.AUTHORIZE.toString().equals(record.getTransactionType())
+					|| TransactionType.PURCHASE.toString().equals(record.getTransactionType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Authorizations and purchases Getnet never answered are UNKNOWN in Kill Bill
+	// without a row here. Their order_id is the Kill Bill transaction id, so the
+	// Janitor refreshing them looks them up on Getnet and the payment found is
+	// stored. One Getnet still does not have past unknown_outcome_failed_after_seconds
+	// was never processed and is reported as failed.
+	private List<PaymentTransactionInfoPlugin> settleUnknownOutcomes(UUID kbAccountId, UUID kbPaymentId,
+			List<GetnetPaymentsRecord> records, Iterable<PluginProperty> properties, TenantContext context)
+			throws SQLException {
+		final Payment payment;
+		final GetnetHttpClient client;
+		try {
+			payment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, false, false, properties, context);
+			client = clientRegistry.getClient(context.getTenantId());
+		} catch (PaymentApiException | PaymentPluginApiException e) {
+			logger.warn("[GETNET] Failed to look for unknown transactions of payment " + kbPaymentId + " - "
+					+ e.getMessage());
+			return new ArrayList<PaymentTransactionInfoPlugin>();
+		}
+		return settleUnknownOutcomes(client, kbAccountId, kbPaymentId, records, payment.getTransactions(),
+				context.getTenantId());
+	}
+
+	List<PaymentTransactionInfoPlugin> settleUnknownOutcomes(GetnetHttpClient client, UUID kbAccountId,
+			UUID kbPaymentId, List<GetnetPaymentsRecord> records, List<PaymentTransaction> transactions,
+			UUID kbTenantId) throws SQLException {
+		final List<PaymentTransactionInfoPlugin> settled = new ArrayList<PaymentTransactionInfoPlugin>();
+		final Set<String> recorded = new HashSet<String>();
+		for (GetnetPaymentsRecord record : records) {
+			recorded.add(record.getKbPaymentTransactionId());
+		}
+		final long failedAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(client.getConfigProperties()
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "unknown_outcome_failed_after_seconds", "3600")));
+		for (PaymentTransaction transaction : transactions) {
+			if (transaction.getTransactionStatus() != TransactionStatus.UNKNOWN
+					|| recorded.contains(transaction.getId().toString())
+					|| (transaction.getTransactionType() != TransactionType.AUTHORIZE
+							&& transaction.getTransactionType() != TransactionType.PURCHASE)) {
+				continue;
+			}
+
+			final PaymentCreditResponse response;
+			try {
+				response = client.findPaymentByOrderId(transaction.getId().toString());
+			} catch (PaymentPluginApiException e) {
+				logger.warn("[GETNET] Failed to look up unknown transaction " + transaction.getId() + " - "
+						+ e.getErrorMessage());
+				continue;
+			}
+			if (response != null) {
+				logger.info("[GETNET] Unknown transaction {} found on Getnet with status {}", transaction.getId(),
+						response.getStatus());
+				settled.add(buildPaymentTransactionInfoPlugin(getnetDao.addResponse(kbAccountId, kbPaymentId,
+						transaction.getId(), transaction.getTransactionType(), transaction.getAmount(),
+						transaction.getCurrency(), response, kbTenantId)));
+			} else if (clock.getUTCNow().getMillis() - transaction.getCreatedDate().getMillis() > failedAfterMillis) {
+				logger.info("[GETNET] Unknown transaction {} never reached Getnet", transaction.getId());
+				settled.add(new PluginPaymentTransactionInfoPlugin(kbPaymentId, transaction.getId(),
+						transaction.getTransactionType(), transaction.getAmount(), transaction.getCurrency(),
+						PaymentPluginStatus.ERROR, "Getnet has no payment for this transaction", ORDER_NOT_FOUND, null,
+						null, clock.getUTCNow(), null, null));
+			}
+		}
+		return settled;
 	}
 
 	@Override
 	public void addPaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId, PaymentMethodPlugin paymentMethodProps,
 			boolean setDefault, Iterable<PluginProperty> properties, CallContext context)
 			throws PaymentPluginApiException {
+		timed("addPaymentMethod", context.getTenantId(), () -> {
+			executeAddPaymentMethod(kbAccountId, kbPaymentMethodId, paymentMethodProps, setDefault, properties,
+					context);
+			return null;
+		});
+	}
+
+	private void executeAddPaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId,
+			PaymentMethodPlugin paymentMethodProps, boolean setDefault, Iterable<PluginProperty> properties,
+			CallContext context) throws PaymentPluginApiException {
 		List<PluginProperty> result = ImmutableList.copyOf(properties);
 		PluginProperty externalProp = null;
 		Boolean shouldRecordCard = false;
@@ -330,11 +546,20 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public void deletePaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
+		timed("deletePaymentMethod", context.getTenantId(), () -> {
+			executeDeletePaymentMethod(kbAccountId, kbPaymentMethodId, properties, context);
+			return null;
+		});
+	}
+
+	private void executeDeletePaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId,
+			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
 		GetnetPaymentMethodsRecord record;
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 
 		try {
 			record = getnetDao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
+			cardCache.invalidate(context.getTenantId(), record.getGetnetCardId());
 			try {
 				client.deleteCardFromVault(record.getGetnetCardId().toString());
 			} catch (PaymentPluginApiException e) {
@@ -352,35 +577,53 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public PaymentMethodPlugin getPaymentMethodDetail(UUID kbAccountId, UUID kbPaymentMethodId,
 			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
+		return timed("getPaymentMethodDetail", context.getTenantId(),
+				() -> executeGetPaymentMethodDetail(kbAccountId, kbPaymentMethodId, properties, context));
+	}
+
+	private PaymentMethodPlugin executeGetPaymentMethodDetail(UUID kbAccountId, UUID kbPaymentMethodId,
+			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
 		List<PluginProperty> outputProperties = new ArrayList<PluginProperty>();
-		Gson gson = new Gson();
 		PaymentMethod paymentMethod = null;
-		this.ensureClient(context.getTenantId());
 
 		try {
 			paymentMethod = killbillAPI.getPaymentApi().getPaymentMethodById(kbPaymentMethodId, false, false,
 					properties, context);
 			GetnetPaymentMethodsRecord record = getnetDao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
-			String res = client.exchangeTokenForNumberToken(record.getGetnetCardId().toString());
-			VaultCardResponse cardRes = gson.fromJson(res, VaultCardResponse.class);
-
-			outputProperties.add(new PluginProperty("getnetCardId", cardRes.getCardId(), false));
-			outputProperties.add(new PluginProperty("brand", cardRes.getBrand(), false));
-			outputProperties.add(new PluginProperty("lastFourDigits", cardRes.getLastFourDigits(), false));
-			outputProperties.add(new PluginProperty("expirationMonth", cardRes.getExpirationMonth(), false));
-			outputProperties.add(new PluginProperty("expirationYear", cardRes.getExpirationYear(), false));
-			outputProperties.add(new PluginProperty("customerId", cardRes.getCustomerId(), false));
-			outputProperties.add(new PluginProperty("cardholderName", cardRes.getCardholderName(), false));
-			outputProperties.add(new PluginProperty("usedAt", cardRes.getUsedAt(), false));
-			outputProperties.add(new PluginProperty("status", cardRes.getStatus(), false));
 
-			return new PluginPaymentMethodPlugin(kbPaymentMethodId, paymentMethod.getExternalKey(), false,
-					outputProperties);
-		} catch (PaymentPluginApiException e) {
+			// Card attributes are served from the local table, Getnet is only called when
+			// explicitly asked to or when the stored copy is too old
+			VaultCardResponse cardRes = null;
+			if (shouldRefreshCardDetails(record, properties, context.getTenantId())) {
+				try {
+					cardRes = fetchCardDetails(clientRegistry.getClient(context.getTenantId()), context.getTenantId(),
+							record.getGetnetCardId());
+				} catch (PaymentPluginApiException e) {
+					logger.warn("[GETNET] No http client to refresh card details - " + e.getMessage());
+				}
+				if (cardRes != null) {
+					getnetDao.updateCardDetails(kbPaymentMethodId, cardRes, clock.getUTCNow(), context.getTenantId());
+				}
+			}
+
+			if (cardRes != null) {
+				outputProperties.add(new PluginProperty("getnetCardId", cardRes.getCardId(), false));
+				outputProperties.add(new PluginProperty("brand", cardRes.getBrand(), false));
+				outputProperties.add(new PluginProperty("lastFourDigits", cardRes.getLastFourDigits(), false));
+				outputProperties.add(new PluginProperty("expirationMonth", cardRes.getExpirationMonth(), false));
+				outputProperties.add(new PluginProperty("expirationYear", cardRes.getExpirationYear(), false));
+				outputProperties.add(new PluginProperty("customerId", cardRes.getCustomerId(), false));
+				outputProperties.add(new PluginProperty("cardholderName", cardRes.getCardholderName(), false));
+				outputProperties.add(new PluginProperty("usedAt", cardRes.getUsedAt(), false));
+				outputProperties.add(new PluginProperty("status", cardRes.getStatus(), false));
+			} else if (record.getCardDetailsRefreshedAt() != null) {
+				outputProperties = buildStoredCardProperties(record);
+			}
+
 			// guarantees that Killbill will be able to render this payment method anyway,
-			// even if it does not exist on Getnet. Maybe it's a problem.
-			return new PluginPaymentMethodPlugin(kbPaymentMethodId,
-					paymentMethod != null ? paymentMethod.getExternalKey() : kbPaymentMethodId.toString(), false,
+			// from the stored attributes (if any) when Getnet cannot be reached or does
+			// not know the card. Maybe it's a problem.
+			return new PluginPaymentMethodPlugin(kbPaymentMethodId, paymentMethod.getExternalKey(), false,
 					outputProperties);
 		} catch (SQLException e) {
 			throw new PaymentPluginApiException("Requested card does not exist in Getnet tables. Plugin wont work.", e);
@@ -392,12 +635,18 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public List<PaymentMethodInfoPlugin> getPaymentMethods(UUID kbAccountId, boolean refreshFromGateway,
 			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
+		return timed("getPaymentMethods", context.getTenantId(),
+				() -> executeGetPaymentMethods(kbAccountId, refreshFromGateway, properties, context));
+	}
+
+	private List<PaymentMethodInfoPlugin> executeGetPaymentMethods(UUID kbAccountId, boolean refreshFromGateway,
+			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
 		List<PaymentMethodInfoPlugin> returnList = new ArrayList<PaymentMethodInfoPlugin>();
 		if (!refreshFromGateway) {
 			return returnList;
 		}
 
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 		try {
 			Account account = killbillAPI.getAccountUserApi().getAccountById(kbAccountId, context);
 			List<PaymentMethod> payments = killbillAPI.getPaymentApi().getAccountPaymentMethods(kbAccountId, false,
@@ -408,10 +657,7 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 						new ArrayList<PluginProperty>(), context);
 			}
 
-			String res = client.getCardsByCustomerId(account.getExternalKey());
-			logger.debug("[GETNET] CARDS RESPONSE" + res);
-			Gson gson = new Gson();
-			JsonObject response = gson.fromJson(res, JsonObject.class);
+			JsonObject response = client.getCardsByCustomerId(account.getExternalKey());
 
 			if (!response.has("cards")) {
 				throw new PaymentPluginApiException("Failed to get the card list from Getnet.", "Gateway failed.");
@@ -440,8 +686,17 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public void setDefaultPaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
+		timed("setDefaultPaymentMethod", context.getTenantId(), () -> {
+			executeSetDefaultPaymentMethod(kbAccountId, kbPaymentMethodId, properties, context);
+			return null;
+		});
+	}
+
+	private void executeSetDefaultPaymentMethod(UUID kbAccountId, UUID kbPaymentMethodId,
+			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
 		try {
 			GetnetPaymentMethodsRecord record = getnetDao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
+			cardCache.invalidate(context.getTenantId(), record.getGetnetCardId());
 			getnetDao.markAllNotDefaultCards(kbAccountId, context.getTenantId(), clock.getUTCNow());
 
 			Map<String, Object> props = ImmutableMap.of("isDeleted", false, "isDefault", true);
@@ -455,7 +710,28 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public Pagination<PaymentMethodPlugin> searchPaymentMethods(String searchKey, Long offset, Long limit,
 			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
-		throw new PaymentPluginApiException("INTERNAL", "#searchPaymentMethods not supported.");
+		return timed("searchPaymentMethods", context.getTenantId(),
+				() -> executeSearchPaymentMethods(searchKey, offset, limit, properties, context));
+	}
+
+	private Pagination<PaymentMethodPlugin> executeSearchPaymentMethods(String searchKey, Long offset, Long limit,
+			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
+		if (searchKey == null || searchKey.isEmpty()) {
+			throw new PaymentPluginApiException("INTERNAL", "#searchPaymentMethods, a search key is required.");
+		}
+
+		// The offset is a row offset, Kill Bill computes the next one from the totals
+		final UUID tenant = context.getTenantId();
+		try {
+			final Cursor<GetnetPaymentMethodsRecord> cursor = getnetDao.streamPaymentMethods(searchKey,
+					offset == null ? 0L : offset, limit == null ? Long.MAX_VALUE : limit, tenant);
+			return new GetnetCursorPagination<GetnetPaymentMethodsRecord, PaymentMethodPlugin>(offset, limit, cursor,
+					() -> getnetDao.countPaymentMethods(searchKey, tenant),
+					record -> new PluginPaymentMethodPlugin(UUID.fromString(record.getKbPaymentMethodId()),
+							record.getGetnetCardId(), record.getIsDefault() == 1, buildStoredCardProperties(record)));
+		} catch (SQLException e) {
+			throw new PaymentPluginApiException("#searchPaymentMethods, SQL Exception", e);
+		}
 	}
 
 	@Override
@@ -467,38 +743,70 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 	@Override
 	public Pagination<PaymentTransactionInfoPlugin> searchPayments(String searchKey, Long offset, Long limit,
 			Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
-		throw new PaymentPluginApiException("INTERNAL", "#searchPayments not supported.");
+		return timed("searchPayments", context.getTenantId(),
+				() -> executeSearchPayments(searchKey, offset, limit, properties, context));
+	}
+
+	private Pagination<PaymentTransactionInfoPlugin> executeSearchPayments(String searchKey, Long offset,
+			Long limit, Iterable<PluginProperty> properties, TenantContext context) throws PaymentPluginApiException {
+		if (searchKey == null || searchKey.isEmpty()) {
+			throw new PaymentPluginApiException("INTERNAL", "#searchPayments, a search key is required.");
+		}
+
+		// The offset is a row offset, Kill Bill computes the next one from the totals
+		final String checkpointPrefix = context.getTenantId() + "/" + searchKey + "/";
+		final GetnetKeysetPagination.Checkpoints checkpoints = new GetnetKeysetPagination.Checkpoints() {
+			@Override
+			public Long get(long rowOffset) {
+				return searchCheckpoints.getIfPresent(checkpointPrefix + rowOffset);
+			}
+
+			@Override
+			public void put(long rowOffset, long recordId) {
+				searchCheckpoints.put(checkpointPrefix + rowOffset, recordId);
+			}
+		};
+		try {
+			return new GetnetKeysetPagination<GetnetPaymentsRecord, PaymentTransactionInfoPlugin>(offset, limit,
+					(skip, afterRecordId, pageSize) -> getnetDao.searchResponses(searchKey, skip, afterRecordId,
+							pageSize, context.getTenantId()),
+					() -> getnetDao.countResponses(searchKey, context.getTenantId()), checkpoints,
+					record -> record.getRecordId().longValue(), GetnetTransactionInfoMapper::toTransactionInfo);
+		} catch (SQLException e) {
+			throw new PaymentPluginApiException("#searchPayments, SQL Exception", e);
+		}
 	}
 
 	@Override
 	public GatewayNotification processNotification(String notification, Iterable<PluginProperty> properties,
 			CallContext context) throws PaymentPluginApiException {
-		throw new PaymentPluginApiException("INTERNAL", "#processNotification not used.");
+		return timed("processNotification", context.getTenantId(),
+				() -> executeProcessNotification(notification, properties, context));
+	}
+
+	private GatewayNotification executeProcessNotification(String notification,
+			Iterable<PluginProperty> properties, CallContext context) throws PaymentPluginApiException {
+		final GetnetNotification getnetNotification = notificationProcessor.parse(notification, properties);
+		if (getnetNotification == null) {
+			logger.warn("[GETNET] Ignoring unrecognized notification");
+			return new PluginGatewayNotification(null, 400, "Unrecognized notification",
+					new HashMap<String, List<String>>(), new ArrayList<PluginProperty>());
+		}
+
+		// Rows are updated asynchronously, the servlet thread only queues the
+		// notification. Getnet retries the ones refused here.
+		if (!notificationProcessor.offer(context.getTenantId(), getnetNotification)) {
+			logger.warn("[GETNET] Notification queue full, refusing notification for payment "
+					+ getnetNotification.getPaymentId());
+			return new PluginGatewayNotification(null, 503, "Busy", new HashMap<String, List<String>>(),
+					new ArrayList<PluginProperty>());
+		}
+		return new PluginGatewayNotification(null, 200, "OK", new HashMap<String, List<String>>(),
+				new ArrayList<PluginProperty>());
 	}
 
 	public PaymentTransactionInfoPlugin buildPaymentTransactionInfoPlugin(GetnetPaymentsRecord record) {
-		List<PluginProperty> outputProperties = new ArrayList<PluginProperty>();
-		DateTimeFormatter dtFormat = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
-
-		outputProperties.add(new PluginProperty("paymentId", record.getGetnetPaymentId(), false));
-		outputProperties.add(new PluginProperty("sellerId", record.getSellerId(), false));
-		outputProperties.add(new PluginProperty("authorizationCode", record.getAuthorizationCode(), false));
-		outputProperties.add(new PluginProperty("terminalNsu", record.getTerminalNsu(), false));
-		outputProperties.add(new PluginProperty("acquirerTransactionId", record.getAcquirerTransactionId(), false));
-		outputProperties.add(new PluginProperty("transactionId", record.getTransactionId(), false));
-		outputProperties.add(new PluginProperty("authorizedAt", dtFormat.format(record.getAuthorizedAt()), false));
-		outputProperties.add(new PluginProperty("softDescriptor", record.getSoftDescriptor(), false));
-		outputProperties.add(new PluginProperty("getnetStatus", record.getGetnetStatus(), false));
-		outputProperties.add(new PluginProperty("receivedAt", dtFormat.format(record.getReceivedAt()), false));
-
-		return new PluginPaymentTransactionInfoPlugin(UUID.fromString(record.getKbPaymentId()),
-				UUID.fromString(record.getKbPaymentTransactionId()),
-				TransactionType.valueOf(record.getTransactionType()), record.getAmount(),
-				Currency.fromCode(record.getCurrency()),
-				record.getReasonCode().equals("00") ? PaymentPluginStatus.PROCESSED : PaymentPluginStatus.ERROR,
-				record.getReasonMessage(), record.getReasonCode(), record.getGetnetPaymentId(), record.getTerminalNsu(),
-				DateTime.parse(record.getCreatedDate().toString()), DateTime.parse(record.getAuthorizedAt().toString()),
-				outputProperties);
+		return GetnetTransactionInfoMapper.toTransactionInfo(record);
 	}
 
 	private PaymentTransactionInfoPlugin executePaymentTransaction(final TransactionType transactionType,
@@ -506,53 +814,27 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 			final BigDecimal amount, final Currency currency, final Iterable<PluginProperty> properties,
 			final CallContext context) throws PaymentPluginApiException {
 		PaymentTransactionInfoPlugin paymentTransactionInfoPlugin = null;
-		Gson gson = new Gson();
-		String res = null;
 
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
+		// A due token renewal runs while the card is looked up instead of after it
+		client.getAccessTokenAsync();
 
 		try {
 			GetnetPaymentMethodsRecord cardRecord = getnetDao.getPaymentMethod(kbPaymentMethodId,
 					context.getTenantId());
-			res = client.exchangeTokenForNumberToken(cardRecord.getGetnetCardId().toString());
-			VaultCardResponse cardRes = gson.fromJson(res, VaultCardResponse.class);
-
-			PaymentCredit getnetPayment = new PaymentCredit();
-			getnetPayment.setCurrency(currency.toString());
-			getnetPayment.setAmount(Math.toIntExact(KillBillMoney.toMinorUnits(currency.toString(), amount)));
-			Order order = new Order();
-			order.setOrderId(kbTransactionId.toString());
-			order.setProductType(ProductTypeEnum.SERVICE);
-			getnetPayment.setOrder(order);
-			CustomerCredit customer = new CustomerCredit();
-			customer.setCustomerId(kbAccountId.toString());
-			BillingAddress billing = new BillingAddress();
-			customer.setBillingAddress(billing);
-			getnetPayment.setCustomer(customer);
-			Credit creditTransaction = new Credit();
-			creditTransaction.setPreAuthorization(transactionType.equals(TransactionType.AUTHORIZE));
-			creditTransaction.setDelayed(false);
-			creditTransaction.setSaveCardData(false);
-			creditTransaction.setTransactionType(TransactionTypeEnum.FULL);
-			creditTransaction.setNumberInstallments(BigDecimal.valueOf(1));
-			
-			String softDescriptor = this.configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "softdescriptor");
-			if(softDescriptor != null && !softDescriptor.isEmpty()) {
-				creditTransaction.setSoftDescriptor((softDescriptor + "*" + kbTransactionId.toString()).substring(0, 20));
-			}
-			
-			CardCredit card = new CardCredit();
-			card.setNumberToken(cardRes.getNumberToken());
-			card.setCardholderName(cardRes.getCardholderName());
-			card.setExpirationMonth(cardRes.getExpirationMonth());
-			card.setExpirationYear(cardRes.getExpirationYear());
-			card.setBrand(cardRes.getBrand());
-			creditTransaction.setCard(card);
-			getnetPayment.setCredit(creditTransaction);
-
-			res = client.sendPaymentRequest(getnetPayment);
-			logger.debug("[GETNET] PAYMENT RESPONSE" + res);
-			PaymentCreditResponse response = gson.fromJson(res, PaymentCreditResponse.class);
+			// Metadata comes from the cache, the vault is only hit when the cached number
+			// token is too old to be used for a charge
+			final String cardId = cardRecord.getGetnetCardId();
+			VaultCardResponse cardRes = cardCache.getCard(context.getTenantId(), cardId, true,
+					() -> client.exchangeTokenForNumberToken(cardId));
+
+			final PaymentCredit getnetPayment = GetnetPaymentCreditBuilder.build(transactionType, kbAccountId,
+					kbTransactionId, amount, currency, cardRes,
+					client.getConfigProperties().getProperty(GetnetActivator.PROPERTY_PREFIX + "softdescriptor"));
+
+			// Blocking call, it is the one looking the payment up by order_id before
+			// sending it again
+			PaymentCreditResponse response = client.sendPaymentRequest(getnetPayment);
 
 			try {
 				GetnetPaymentsRecord record = getnetDao.addResponse(kbAccountId, kbPaymentId, kbTransactionId,
@@ -569,11 +851,21 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 			if (errorType.length() > 32) {
 				errorType = errorType.substring(0, 32);
 			}
+			// Calls refused by the circuit breaker or the rate limiter were never
+			// processed by Getnet, CANCELED lets Kill Bill retry them. Payments left
+			// without an answer are UNDEFINED until the Janitor settles them.
+			final PaymentPluginStatus status;
+			if (GetnetHttpClient.isFastFailure(e.getErrorType())) {
+				status = PaymentPluginStatus.CANCELED;
+			} else if (GetnetRetryPolicy.UNKNOWN_OUTCOME.equals(e.getErrorType())) {
+				status = PaymentPluginStatus.UNDEFINED;
+			} else {
+				status = PaymentPluginStatus.ERROR;
+			}
 			paymentTransactionInfoPlugin = new PluginPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId,
 					transactionType.equals(TransactionType.AUTHORIZE) ? TransactionType.AUTHORIZE
 							: TransactionType.PURCHASE,
-					amount, currency, PaymentPluginStatus.ERROR, e.getErrorMessage(), errorType, null, null,
-					new DateTime(), null, null);
+					amount, currency, status, e.getErrorMessage(), errorType, null, null, new DateTime(), null, null);
 
 			logger.debug("[GETNET] Returning paymentTransactionInfoPlugin={}", paymentTransactionInfoPlugin);
 			return paymentTransactionInfoPlugin;
@@ -587,8 +879,7 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 			CallContext context) throws PaymentPluginApiException {
 		VaultCard vaultCard = new VaultCard();
 		List<PluginProperty> props = paymentMethodProps.getProperties();
-		Gson gson = new Gson();
-		this.ensureClient(context.getTenantId());
+		final GetnetHttpClient client = clientRegistry.getClient(context.getTenantId());
 		for (int i = 0; i < props.size(); i++) {
 			switch (props.get(i).getKey()) {
 			case "ccFirstName":
@@ -606,8 +897,7 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 				vaultCard.setExpirationYear(year);
 				break;
 			case "ccNumber":
-				String res = client.tokenCard(kbAccountId.toString(), props.get(i).getValue().toString());
-				JsonObject response = gson.fromJson(res, JsonObject.class);
+				JsonObject response = client.tokenCard(kbAccountId.toString(), props.get(i).getValue().toString());
 				vaultCard.setNumberToken(response.get("number_token").getAsString());
 				break;
 			default:
@@ -621,12 +911,15 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 		try {
 			Account account = killbillAPI.getAccountUserApi().getAccountById(kbAccountId, context);
 			vaultCard.setCustomerId(account.getExternalKey().toString());
-			String res = client.saveCardToVault(vaultCard);
-			VaultCardResponse response = gson.fromJson(res, VaultCardResponse.class);
+			VaultCardResponse response = client.saveCardToVault(vaultCard);
+
+			// The vault only answers with the card id, read the card back to store its
+			// display attributes
+			VaultCardResponse cardDetails = fetchCardDetails(client, context.getTenantId(), response.getCardId());
 
 			Map<String, String> daoProperties = ImmutableMap.of("token", response.getCardId());
-			getnetDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, setDefault, daoProperties, clock.getUTCNow(),
-					context.getTenantId());
+			getnetDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, setDefault, daoProperties, cardDetails,
+					clock.getUTCNow(), context.getTenantId());
 		} catch (AccountApiException e) {
 			throw new PaymentPluginApiException("#addPaymentMethod failed with internal API.", e);
 		} catch (SQLException e) {
@@ -639,25 +932,59 @@ public class GetnetPaymentPluginApi implements PaymentPluginApi {
 			boolean setDefault, CallContext context, String cardToken) throws PaymentPluginApiException {
 
 		Map<String, String> daoProperties = ImmutableMap.of("token", cardToken);
+		VaultCardResponse cardDetails = fetchCardDetails(clientRegistry.getClient(context.getTenantId()),
+				context.getTenantId(), cardToken);
 
 		try {
-			getnetDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, setDefault, daoProperties, clock.getUTCNow(),
-					context.getTenantId());
+			getnetDao.addPaymentMethod(kbAccountId, kbPaymentMethodId, setDefault, daoProperties, cardDetails,
+					clock.getUTCNow(), context.getTenantId());
 		} catch (SQLException e) {
 			throw new PaymentPluginApiException("#addPaymentMethodLocal failed to store on internal payments table.",
 					e.getMessage());
 		}
 	}
 
-	private void ensureClient(UUID tenantId) throws PaymentPluginApiException {
-		if (this.client == null || !this.client.getTenantId().equals(tenantId)) {
-			try {
-				this.configProperties = getnetConfigurationHandler.getConfigurable(tenantId);
-				this.client = new GetnetHttpClient(this.configProperties, tenantId);
-			} catch (GeneralSecurityException e) {
-				logger.error("[Getnet] Failed to initialize http client.");
-				throw new PaymentPluginApiException("#ensureClient, failed to initialize http client.", e.getMessage());
-			}
+	private static List<PluginProperty> buildStoredCardProperties(GetnetPaymentMethodsRecord record) {
+		final List<PluginProperty> outputProperties = new ArrayList<PluginProperty>();
+		outputProperties.add(new PluginProperty("getnetCardId", record.getGetnetCardId(), false));
+		outputProperties.add(new PluginProperty("brand", record.getBrand(), false));
+		outputProperties.add(new PluginProperty("lastFourDigits", record.getLastFourDigits(), false));
+		outputProperties.add(new PluginProperty("expirationMonth", record.getExpirationMonth(), false));
+		outputProperties.add(new PluginProperty("expirationYear", record.getExpirationYear(), false));
+		outputProperties.add(new PluginProperty("customerId", record.getCustomerId(), false));
+		outputProperties.add(new PluginProperty("cardholderName", record.getCardholderName(), false));
+		outputProperties.add(new PluginProperty("status", record.getCardStatus(), false));
+		return outputProperties;
+	}
+
+	private boolean shouldRefreshCardDetails(GetnetPaymentMethodsRecord record, Iterable<PluginProperty> properties,
+			UUID tenantId) {
+		if (Boolean.parseBoolean(PluginProperties.findPluginPropertyValue(REFRESH_FROM_GATEWAY_PROPERTY, properties))) {
+			return true;
+		}
+		if (record.getCardDetailsRefreshedAt() == null) {
+			return true;
+		}
+
+		final long maxAgeSeconds = Long.parseLong(getnetConfigurationHandler.getConfigurable(tenantId)
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "card_details_max_age_seconds", "86400"));
+		final DateTime refreshedAt = new DateTime(
+				record.getCardDetailsRefreshedAt().toInstant(ZoneOffset.UTC).toEpochMilli(), DateTimeZone.UTC);
+		return refreshedAt.plusSeconds((int) maxAgeSeconds).isBefore(clock.getUTCNow());
+	}
+
+	/**
+	 * Reads the card from the Getnet vault, returning null when it cannot be
+	 * retrieved so that callers can fall back to what is stored locally.
+	 */
+	private VaultCardResponse fetchCardDetails(GetnetHttpClient client, UUID tenantId, String cardId) {
+		try {
+			VaultCardResponse card = client.exchangeTokenForNumberToken(cardId);
+			cardCache.put(tenantId, cardId, card);
+			return card;
+		} catch (PaymentPluginApiException e) {
+			logger.warn("[GETNET] Failed to retrieve card details from the vault - " + e.getMessage());
+			return null;
 		}
 	}
 }
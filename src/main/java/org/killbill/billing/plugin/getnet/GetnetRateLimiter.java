@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Token bucket in front of the Getnet API of one seller. Callers wait for a
+ * permit up to a deadline instead of failing straight away. A 429 pauses all
+ * calls for the Retry-After period and halves the rate, which then grows back
+ * to the configured one as calls succeed.
+ */
+public class GetnetRateLimiter {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetRateLimiter.class);
+
+	// Error type of calls that could not get a permit before their deadline
+	public static final String RATE_LIMITED = "GETNET_RATE_LIMITED";
+
+	// Pause applied on a 429 without a usable Retry-After header, and the
+	// shortest one applied so that a 0 or past value does not retry at once
+	private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+	// The adapted rate never drops below this share of the configured one
+	private static final double MIN_RATE_RATIO = 0.1;
+	// Share of the configured rate given back after each successful call
+	private static final double RECOVERY_RATIO = 0.01;
+
+	private final String name;
+	private final double configuredRate;
+	private final long maxWaitMillis;
+	// Null when the rate is not limited, 429 pauses still apply
+	private final RateLimiter rateLimiter;
+
+	private volatile long pausedUntilMillis;
+	private volatile double currentRate;
+
+	private final AtomicLong throttledCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+
+	public GetnetRateLimiter(String name, double permitsPerSecond, long maxWaitMillis) {
+		this.name = name;
+		this.configuredRate = permitsPerSecond;
+		this.maxWaitMillis = maxWaitMillis;
+		this.rateLimiter = permitsPerSecond > 0 ? RateLimiter.create(permitsPerSecond) : null;
+		this.currentRate = permitsPerSecond;
+	}
+
+	/**
+	 * Waits until the call may be sent, failing with {@link #RATE_LIMITED} when
+	 * that would take it past the maximum wait counted from startMillis.
+	 */
+	public void acquire(long startMillis) throws PaymentPluginApiException {
+		final long start = System.currentTimeMillis();
+		final long deadline = startMillis + maxWaitMillis;
+		try {
+			final long pausedUntil = pausedUntilMillis;
+			if (pausedUntil > start) {
+				if (pausedUntil > deadline) {
+					throw reject("Getnet asked to slow down " + name + " for longer than the maximum wait");
+				}
+				Thread.sleep(pausedUntil - start);
+			}
+
+			if (rateLimiter != null && !rateLimiter.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS)) {
+				throw reject("No permit for " + name + " within " + maxWaitMillis + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentPluginApiException(RATE_LIMITED, "Interrupted waiting for a permit for " + name);
+		} finally {
+			totalWaitMillis.addAndGet(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Non-blocking counterpart of {@link #acquire(long)}. Returns 0 when the call
+	 * may be sent, or how long to wait before asking again, failing with
+	 * {@link #RATE_LIMITED} when that would take it past the maximum wait
+	 * counted from startMillis.
+	 */
+	public long tryAcquire(long startMillis) throws PaymentPluginApiException {
+		final long now = System.currentTimeMillis();
+		final long pausedUntil = pausedUntilMillis;
+		final long waitMillis;
+		if (pausedUntil > now) {
+			waitMillis = pausedUntil - now;
+		} else if (rateLimiter == null || rateLimiter.tryAcquire()) {
+			return 0;
+		} else {
+			// About the time the bucket takes to hand out its next permit
+			waitMillis = Math.max(1, (long) Math.ceil(1000 / currentRate));
+		}
+
+		if (now + waitMillis > startMillis + maxWaitMillis) {
+			throw reject(pausedUntil > now
+					? "Getnet asked to slow down " + name + " for longer than the maximum wait"
+					: "No permit for " + name + " within " + maxWaitMillis + " ms");
+		}
+		totalWaitMillis.addAndGet(waitMillis);
+		return waitMillis;
+	}
+
+	/**
+	 * Time left before the deadline of a call started at startMillis.
+	 */
+	public long remainingWaitMillis(long startMillis) {
+		return startMillis + maxWaitMillis - System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a 429. Returns the pause Getnet asked for in milliseconds.
+	 */
+	public long onThrottled(String retryAfter) {
+		throttledCount.incrementAndGet();
+		final long pauseMillis = parseRetryAfter(retryAfter);
+		final long pausedUntil = System.currentTimeMillis() + pauseMillis;
+		if (pausedUntil > pausedUntilMillis) {
+			pausedUntilMillis = pausedUntil;
+		}
+
+		if (rateLimiter != null) {
+			synchronized (this) {
+				currentRate = Math.max(configuredRate * MIN_RATE_RATIO, currentRate / 2);
+				rateLimiter.setRate(currentRate);
+			}
+		}
+		logger.warn("[GETNET] Throttled by Getnet on {}, pausing {} ms, rate now {}/s", name, pauseMillis,
+				currentRate);
+		return pauseMillis;
+	}
+
+	public void onSuccess() {
+		if (rateLimiter == null || currentRate >= configuredRate) {
+			return;
+		}
+		synchronized (this) {
+			currentRate = Math.min(configuredRate, currentRate + configuredRate * RECOVERY_RATIO);
+			rateLimiter.setRate(currentRate);
+		}
+	}
+
+	public double getCurrentRate() {
+		return currentRate;
+	}
+
+	public long getThrottledCount() {
+		return throttledCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getTotalWaitMillis() {
+		return totalWaitMillis.get();
+	}
+
+	private PaymentPluginApiException reject(String message) {
+		rejectedCount.incrementAndGet();
+		return new PaymentPluginApiException(RATE_LIMITED, message);
+	}
+
+	// Retry-After is either a number of seconds or an HTTP date, pauses shorter
+	// than the default are raised to it
+	static long parseRetryAfter(String retryAfter) {
+		if (retryAfter == null || retryAfter.trim().isEmpty()) {
+			return DEFAULT_RETRY_AFTER_MILLIS;
+		}
+
+		final String value = retryAfter.trim();
+		try {
+			return Math.max(DEFAULT_RETRY_AFTER_MILLIS, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+		} catch (NumberFormatException e) {
+			// Not a number of seconds
+		}
+		try {
+			final long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+					.toEpochMilli();
+			return Math.max(DEFAULT_RETRY_AFTER_MILLIS, at - System.currentTimeMillis());
+		} catch (DateTimeParseException e) {
+			return DEFAULT_RETRY_AFTER_MILLIS;
+		}
+	}
+}
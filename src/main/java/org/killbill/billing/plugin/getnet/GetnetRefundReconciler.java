@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.jooq.Record2;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.billing.plugin.getnet.dao.GetnetStatusUpdate;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Settles refunds left PENDING by refundPayment when no notification arrives.
+ * Every run reads a batch of pending refunds, polls their cancel requests on
+ * Getnet in parallel (rate limited per seller) and applies the statuses found
+ * in bulk, resolving the Kill Bill transactions that settled. The batch is
+ * shared between the tenants with pending refunds, starting each run with the
+ * tenant after the last one served, and each tenant's refunds are read in
+ * creation order past the last one polled, wrapping around once its oldest
+ * have all been seen, so that refunds Getnet keeps reporting as pending do
+ * not hold back the others.
+ */
+public class GetnetRefundReconciler {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetRefundReconciler.class);
+
+	private final GetnetDao getnetDao;
+	private final GetnetHttpClientRegistry clientRegistry;
+	private final GetnetNotificationProcessor notificationProcessor;
+	private final Clock clock;
+	private final long intervalSeconds;
+	private final int batchSize;
+	private final long minAgeSeconds;
+	private final double ratePerSeller;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("getnet-refund-reconciler-%d").setDaemon(true).build());
+	private final ExecutorService pollers;
+	// The requests are asynchronous, this bounds how many are in flight at once
+	private final Semaphore inFlightPolls;
+	private final ConcurrentMap<String, RateLimiter> sellerRateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+
+	// Only touched by the scheduler thread: the last refund polled per tenant,
+	// and the position of the tenant to serve first on the next run
+	private final Map<UUID, GetnetPaymentsRecord> lastPolled = new HashMap<UUID, GetnetPaymentsRecord>();
+	private int nextTenant;
+
+	private final AtomicLong backlogSize = new AtomicLong();
+	private final AtomicLong backlogAgeSeconds = new AtomicLong();
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong pollFailureCount = new AtomicLong();
+	private final AtomicLong settledCount = new AtomicLong();
+
+	public GetnetRefundReconciler(GetnetDao getnetDao, GetnetHttpClientRegistry clientRegistry,
+			GetnetNotificationProcessor notificationProcessor, Clock clock, Properties configProperties) {
+		this.getnetDao = getnetDao;
+		this.clientRegistry = clientRegistry;
+		this.notificationProcessor = notificationProcessor;
+		this.clock = clock;
+		this.intervalSeconds = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "refund_reconciler_interval_seconds", "300"));
+		this.batchSize = Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "refund_reconciler_batch_size", "200"));
+		this.minAgeSeconds = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "refund_reconciler_min_age_seconds", "60"));
+		this.ratePerSeller = Double.parseDouble(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "refund_reconciler_rate_per_second", "5"));
+		final int parallelism = Integer.parseInt(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "refund_reconciler_parallelism", "4"));
+		this.inFlightPolls = new Semaphore(parallelism);
+		this.pollers = Executors.newFixedThreadPool(parallelism,
+				new ThreadFactoryBuilder().setNameFormat("getnet-refund-poller-%d").setDaemon(true).build());
+	}
+
+	public void start() {
+		if (intervalSeconds <= 0) {
+			logger.info("[GETNET] Refund reconciler disabled");
+			return;
+		}
+		scheduler.scheduleWithFixedDelay(this::reconcileQuietly, intervalSeconds, intervalSeconds,
+				TimeUnit.SECONDS);
+	}
+
+	public void close() {
+		scheduler.shutdownNow();
+		pollers.shutdownNow();
+	}
+
+	/**
+	 * Number of refunds waiting on Getnet, as of the last run.
+	 */
+	public long getBacklogSize() {
+		return backlogSize.get();
+	}
+
+	/**
+	 * Age of the oldest pending refund in seconds, as of the last run.
+	 */
+	public long getBacklogAgeSeconds() {
+		return backlogAgeSeconds.get();
+	}
+
+	public long getPollCount() {
+		return pollCount.get();
+	}
+
+	public long getPollFailureCount() {
+		return pollFailureCount.get();
+	}
+
+	public long getSettledCount() {
+		return settledCount.get();
+	}
+
+	/**
+	 * See {@link GetnetMetrics.Collector}.
+	 */
+	public void collect(GetnetMetrics.Samples samples) {
+		samples.gauge("getnet_refund_backlog", "Refunds waiting on Getnet", getBacklogSize());
+		samples.gauge("getnet_refund_backlog_age_seconds", "Age of the oldest pending refund",
+				getBacklogAgeSeconds());
+		samples.counter("getnet_refund_polls_total", "Refund status lookups", getPollCount());
+		samples.counter("getnet_refund_poll_failures_total", "Refund status lookups that failed",
+				getPollFailureCount());
+		samples.counter("getnet_refunds_settled_total", "Refunds settled by the reconciler", getSettledCount());
+	}
+
+	private void reconcileQuietly() {
+		try {
+			reconcile();
+		} catch (SQLException | RuntimeException e) {
+			logger.warn("[GETNET] Refund reconciliation failed - " + e.getMessage());
+		}
+	}
+
+	void reconcile() throws SQLException {
+		updateBacklog();
+		if (backlogSize.get() == 0) {
+			return;
+		}
+
+		final List<GetnetPaymentsRecord> pending = nextBatch(clock.getUTCNow().minusSeconds((int) minAgeSeconds));
+
+		final List<CompletableFuture<GetnetStatusUpdate>> polls = new ArrayList<CompletableFuture<GetnetStatusUpdate>>(
+				pending.size());
+		for (GetnetPaymentsRecord record : pending) {
+			polls.add(poll(record));
+		}
+
+		final List<GetnetStatusUpdate> updates = new ArrayList<GetnetStatusUpdate>(pending.size());
+		for (CompletableFuture<GetnetStatusUpdate> poll : polls) {
+			final GetnetStatusUpdate update = poll.join();
+			if (update != null) {
+				updates.add(update);
+			}
+		}
+
+		if (!updates.isEmpty()) {
+			final int settled = notificationProcessor.apply(updates);
+			settledCount.addAndGet(settled);
+			logger.info("[GETNET] Refund reconciler polled {} cancel requests, {} changed status", updates.size(),
+					settled);
+		}
+	}
+
+	// An equal share of the batch per tenant, as many tenants as fit in the batch
+	private List<GetnetPaymentsRecord> nextBatch(DateTime createdBefore) throws SQLException {
+		final List<UUID> tenants = getnetDao.getPendingRefundTenants(createdBefore);
+		lastPolled.keySet().retainAll(new HashSet<UUID>(tenants));
+		final List<GetnetPaymentsRecord> batch = new ArrayList<GetnetPaymentsRecord>(batchSize);
+		if (tenants.isEmpty()) {
+			return batch;
+		}
+
+		final int share = Math.max(1, batchSize / tenants.size());
+		final int first = nextTenant % tenants.size();
+		int served = 0;
+		while (served < tenants.size() && batch.size() < batchSize) {
+			final UUID tenant = tenants.get((first + served) % tenants.size());
+			batch.addAll(nextRefunds(tenant, createdBefore, Math.min(share, batchSize - batch.size())));
+			served++;
+		}
+		nextTenant = first + served;
+		return batch;
+	}
+
+	private List<GetnetPaymentsRecord> nextRefunds(UUID tenant, DateTime createdBefore, int limit)
+			throws SQLException {
+		final GetnetPaymentsRecord after = lastPolled.get(tenant);
+		final List<GetnetPaymentsRecord> refunds = new ArrayList<GetnetPaymentsRecord>(
+				getnetDao.getPendingRefunds(tenant, createdBefore, after, limit));
+		if (refunds.size() < limit && after != null) {
+			// Past the newest one, start over from the oldest
+			for (GetnetPaymentsRecord refund : getnetDao.getPendingRefunds(tenant, createdBefore, null,
+					limit - refunds.size())) {
+				if (isPast(refund, after)) {
+					// Already read by the first query
+					break;
+				}
+				refunds.add(refund);
+			}
+		}
+		if (!refunds.isEmpty()) {
+			lastPolled.put(tenant, refunds.get(refunds.size() - 1));
+		}
+		return refunds;
+	}
+
+	private static boolean isPast(GetnetPaymentsRecord refund, GetnetPaymentsRecord after) {
+		final int order = refund.getCreatedDate().compareTo(after.getCreatedDate());
+		return order > 0 || (order == 0 && refund.getRecordId().compareTo(after.getRecordId()) > 0);
+	}
+
+	private void updateBacklog() throws SQLException {
+		final Record2<Integer, LocalDateTime> backlog = getnetDao.getPendingRefundsBacklog();
+		final int size = backlog == null || backlog.value1() == null ? 0 : backlog.value1();
+		backlogSize.set(size);
+		if (size == 0 || backlog.value2() == null) {
+			backlogAgeSeconds.set(0);
+		} else {
+			final long oldestMillis = backlog.value2().toInstant(ZoneOffset.UTC).toEpochMilli();
+			backlogAgeSeconds.set(TimeUnit.MILLISECONDS.toSeconds(clock.getUTCNow().getMillis() - oldestMillis));
+		}
+	}
+
+	// Only the rate limiter and parallelism waits run on the poller pool, the
+	// request itself is asynchronous and gives its slot back once answered.
+	// Completes with null when the cancel request could not be read, the refund
+	// is picked up again on the next run.
+	private CompletableFuture<GetnetStatusUpdate> poll(GetnetPaymentsRecord record) {
+		final UUID kbTenantId = UUID.fromString(record.getKbTenantId());
+		final String cancelRequestId = record.getOrderId();
+		final String seller = record.getSellerId() == null ? record.getKbTenantId() : record.getSellerId();
+
+		final AtomicBoolean holdsSlot = new AtomicBoolean();
+		return CompletableFuture.runAsync(() -> {
+			sellerRateLimiters.computeIfAbsent(seller, key -> RateLimiter.create(ratePerSeller)).acquire();
+			try {
+				inFlightPolls.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+			holdsSlot.set(true);
+			pollCount.incrementAndGet();
+		}, pollers).thenCompose(ignored -> {
+			try {
+				return clientRegistry.getClient(kbTenantId).getCancelRequestAsync(cancelRequestId);
+			} catch (PaymentPluginApiException e) {
+				throw new CompletionException(e);
+			}
+		}).handle((response, error) -> {
+			if (holdsSlot.get()) {
+				inFlightPolls.release();
+			}
+			if (error != null) {
+				pollFailureCount.incrementAndGet();
+				final Throwable cause = error.getCause() == null ? error : error.getCause();
+				logger.warn("[GETNET] Failed to poll cancel request " + cancelRequestId + " - " + cause.getMessage());
+				return null;
+			}
+			if (response == null || response.getStatus() == null) {
+				return null;
+			}
+			return new GetnetStatusUpdate(kbTenantId, null, cancelRequestId, response.getStatus());
+		});
+	}
+}
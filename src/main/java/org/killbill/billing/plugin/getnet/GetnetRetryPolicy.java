@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+
+/**
+ * Exponential backoff with full jitter for calls that failed without an
+ * answer from Getnet (I/O errors, timeouts, 5xx). Only calls that are safe to
+ * repeat are retried blindly, payments are first looked up by order_id.
+ */
+public class GetnetRetryPolicy {
+
+	// Error type of payments that got no answer and could not be looked up,
+	// Getnet may or may not have processed them
+	public static final String UNKNOWN_OUTCOME = "GETNET_UNKNOWN_OUTCOME";
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final long lookupDelayMillis;
+
+	private final AtomicLong retryCount = new AtomicLong();
+
+	public GetnetRetryPolicy(Properties configProperties) {
+		this.maxAttempts = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "retry_max_attempts", "3"));
+		this.baseDelayMillis = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "retry_base_delay_millis", "200"));
+		this.maxDelayMillis = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "retry_max_delay_millis", "2000"));
+		this.lookupDelayMillis = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "retry_lookup_delay_millis", "1000"));
+	}
+
+	public boolean canRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+
+	/**
+	 * Sleeps before the attempt following the given one.
+	 */
+	public void backoff(int attempt) throws PaymentPluginApiException {
+		recordRetry();
+		try {
+			Thread.sleep(backoffMillis(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentPluginApiException("Interrupted waiting to retry a Getnet call.", e);
+		}
+	}
+
+	/**
+	 * Sleeps before looking up a payment Getnet did not answer after the given
+	 * attempt, at least the lookup delay so that a payment Getnet is still
+	 * processing has time to show up.
+	 */
+	public void awaitLookup(int attempt) throws PaymentPluginApiException {
+		try {
+			Thread.sleep(lookupDelayMillis + backoffMillis(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentPluginApiException(UNKNOWN_OUTCOME,
+					"Interrupted waiting to look the payment up on Getnet, it may have been processed");
+		}
+	}
+
+	public void recordRetry() {
+		retryCount.incrementAndGet();
+	}
+
+	// Random delay up to base * 2^(attempt - 1), capped, so that clients failing
+	// together do not retry together
+	long backoffMillis(int attempt) {
+		final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+}
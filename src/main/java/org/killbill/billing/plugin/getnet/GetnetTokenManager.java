@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the OAuth token of one seller. Only one login runs at a time, callers
+ * arriving while it is in progress wait for its result, and the token is
+ * renewed in the background a configurable skew before it expires so that
+ * payments do not pay for the login round trip. A failed login is reported to
+ * every caller that was waiting for it rather than retried by each of them in
+ * turn. The scheduler only times the renewals, logins block and run on the
+ * login executor, which is shared by the tenants: each of them takes at most
+ * two of its threads, one for its asynchronous callers and one for its
+ * background renewal.
+ */
+public class GetnetTokenManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetTokenManager.class);
+
+	// Delay before retrying a failed background refresh
+	private static final long RETRY_DELAY_MILLIS = 10000;
+
+	public interface Login {
+		AccessToken login() throws PaymentPluginApiException;
+	}
+
+	public static class AccessToken {
+		private final String value;
+		private final long issuedAtMillis;
+		private final long expiresAtMillis;
+
+		public AccessToken(String value, long issuedAtMillis, long expiresAtMillis) {
+			this.value = value;
+			this.issuedAtMillis = issuedAtMillis;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public long getExpiresAtMillis() {
+			return expiresAtMillis;
+		}
+
+		boolean isValid(long nowMillis) {
+			return nowMillis < expiresAtMillis;
+		}
+
+		long getLifetimeMillis() {
+			return expiresAtMillis - issuedAtMillis;
+		}
+	}
+
+	private final Login login;
+	private final long refreshSkewMillis;
+	private final ScheduledExecutorService scheduler;
+	private final Executor loginExecutor;
+	private final ReentrantLock loginLock = new ReentrantLock();
+	// Shared by the asynchronous callers arriving while a login is in progress
+	private final AtomicReference<CompletableFuture<String>> pending = new AtomicReference<CompletableFuture<String>>();
+
+	// Logins done so far, and the failure of the last one when it failed
+	private final AtomicLong completedLogins = new AtomicLong();
+	private volatile LoginFailure lastFailure;
+
+	private volatile AccessToken token;
+	private volatile boolean closed;
+	private ScheduledFuture<?> scheduledRefresh;
+
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong refreshFailureCount = new AtomicLong();
+	private final AtomicLong lastRefreshLatencyMillis = new AtomicLong();
+	private final AtomicLong totalRefreshLatencyMillis = new AtomicLong();
+
+	public GetnetTokenManager(Login login, long refreshSkewMillis, ScheduledExecutorService scheduler,
+			Executor loginExecutor) {
+		this.login = login;
+		this.refreshSkewMillis = refreshSkewMillis;
+		this.scheduler = scheduler;
+		this.loginExecutor = loginExecutor == null ? ForkJoinPool.commonPool() : loginExecutor;
+	}
+
+	public String getAccessToken() throws PaymentPluginApiException {
+		AccessToken current = token;
+		if (current != null && current.isValid(System.currentTimeMillis())) {
+			return current.getValue();
+		}
+
+		final long loginsSeen = completedLogins.get();
+		loginLock.lock();
+		try {
+			// Another caller may have logged in while we were waiting
+			current = token;
+			if (current != null && current.isValid(System.currentTimeMillis())) {
+				return current.getValue();
+			}
+
+			rethrowFailureSince(loginsSeen);
+			return refresh().getValue();
+		} finally {
+			loginLock.unlock();
+		}
+	}
+
+	/**
+	 * Completes immediately while the current token is valid, otherwise logs in
+	 * on the login executor so that the calling thread is not held. Callers
+	 * arriving during that login share its result.
+	 */
+	public CompletableFuture<String> getAccessTokenAsync() {
+		final AccessToken current = token;
+		if (current != null && current.isValid(System.currentTimeMillis())) {
+			return CompletableFuture.completedFuture(current.getValue());
+		}
+
+		while (true) {
+			final CompletableFuture<String> inProgress = pending.get();
+			if (inProgress != null) {
+				return inProgress;
+			}
+			final CompletableFuture<String> started = new CompletableFuture<String>();
+			if (pending.compareAndSet(null, started)) {
+				try {
+					loginExecutor.execute(() -> completeLogin(started));
+				} catch (RejectedExecutionException e) {
+					pending.compareAndSet(started, null);
+					started.completeExceptionally(e);
+				}
+				return started;
+			}
+		}
+	}
+
+	private void completeLogin(CompletableFuture<String> started) {
+		String value = null;
+		Exception error = null;
+		try {
+			value = getAccessToken();
+		} catch (PaymentPluginApiException | RuntimeException e) {
+			error = e;
+		}
+		// Later callers read the new token, or start another login after a failure
+		pending.compareAndSet(started, null);
+		if (error == null) {
+			started.complete(value);
+		} else {
+			started.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Discards the current token and logs in again, regardless of its expiry.
+	 */
+	public void forceRefresh() throws PaymentPluginApiException {
+		final long loginsSeen = completedLogins.get();
+		loginLock.lock();
+		try {
+			rethrowFailureSince(loginsSeen);
+			refresh();
+		} finally {
+			loginLock.unlock();
+		}
+	}
+
+	public void close() {
+		closed = true;
+		loginLock.lock();
+		try {
+			if (scheduledRefresh != null) {
+				scheduledRefresh.cancel(false);
+			}
+		} finally {
+			loginLock.unlock();
+		}
+	}
+
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	public long getRefreshFailureCount() {
+		return refreshFailureCount.get();
+	}
+
+	public long getLastRefreshLatencyMillis() {
+		return lastRefreshLatencyMillis.get();
+	}
+
+	public long getTotalRefreshLatencyMillis() {
+		return totalRefreshLatencyMillis.get();
+	}
+
+	// Must be called with loginLock held
+	private AccessToken refresh() throws PaymentPluginApiException {
+		final long start = System.nanoTime();
+		try {
+			final AccessToken newToken = login.login();
+			token = newToken;
+			lastFailure = null;
+			completedLogins.incrementAndGet();
+			refreshCount.incrementAndGet();
+			scheduleRefresh(newToken);
+			return newToken;
+		} catch (PaymentPluginApiException | RuntimeException e) {
+			lastFailure = new LoginFailure(completedLogins.incrementAndGet(), e);
+			refreshFailureCount.incrementAndGet();
+			throw e;
+		} finally {
+			final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			lastRefreshLatencyMillis.set(latency);
+			totalRefreshLatencyMillis.addAndGet(latency);
+		}
+	}
+
+	// Must be called with loginLock held. Fails like the last login when it
+	// failed after the caller started waiting for the lock.
+	private void rethrowFailureSince(long loginsSeen) throws PaymentPluginApiException {
+		final LoginFailure failure = lastFailure;
+		if (failure == null || failure.login <= loginsSeen) {
+			return;
+		}
+		if (failure.error instanceof PaymentPluginApiException) {
+			throw (PaymentPluginApiException) failure.error;
+		}
+		throw (RuntimeException) failure.error;
+	}
+
+	// Must be called with loginLock held
+	private void scheduleRefresh(AccessToken newToken) {
+		// Tokens living less than twice the skew are renewed halfway through
+		final long lifetime = newToken.getLifetimeMillis();
+		final long delay = Math.max(lifetime - refreshSkewMillis, lifetime / 2);
+		schedule(delay);
+	}
+
+	// Must be called with loginLock held
+	private void schedule(long delayMillis) {
+		if (closed || scheduler == null || delayMillis <= 0) {
+			return;
+		}
+		if (scheduledRefresh != null) {
+			scheduledRefresh.cancel(false);
+		}
+		scheduledRefresh = scheduler.schedule(() -> {
+			try {
+				loginExecutor.execute(this::backgroundRefresh);
+			} catch (RejectedExecutionException e) {
+				logger.debug("[GETNET] Background token refresh skipped, the login executor is shut down");
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void backgroundRefresh() {
+		if (closed) {
+			return;
+		}
+
+		loginLock.lock();
+		try {
+			refresh();
+		} catch (PaymentPluginApiException | RuntimeException e) {
+			logger.warn("[GETNET] Background token refresh failed - " + e.getMessage());
+			// Keep trying while the current token is still usable, callers will log in
+			// inline once it has expired
+			final AccessToken current = token;
+			final long remaining = current == null ? 0 : current.getExpiresAtMillis() - System.currentTimeMillis();
+			if (remaining > 0) {
+				schedule(Math.min(RETRY_DELAY_MILLIS, remaining / 2));
+			}
+		} finally {
+			loginLock.unlock();
+		}
+	}
+
+	private static final class LoginFailure {
+		private final long login;
+		private final Exception error;
+
+		private LoginFailure(long login, Exception error) {
+			this.login = login;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+
+/**
+ * Maps getnet_payments rows to the transaction info handed to Kill Bill.
+ * Stateless, shared by every call.
+ */
+public final class GetnetTransactionInfoMapper {
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+	private static final int PROPERTY_COUNT = 10;
+
+	private GetnetTransactionInfoMapper() {
+	}
+
+	public static List<PaymentTransactionInfoPlugin> toTransactionInfos(List<GetnetPaymentsRecord> records) {
+		final List<PaymentTransactionInfoPlugin> infos = new ArrayList<PaymentTransactionInfoPlugin>(records.size());
+		for (int i = 0; i < records.size(); i++) {
+			infos.add(toTransactionInfo(records.get(i)));
+		}
+		return infos;
+	}
+
+	public static PaymentTransactionInfoPlugin toTransactionInfo(GetnetPaymentsRecord record) {
+		final List<PluginProperty> outputProperties = new ArrayList<PluginProperty>(PROPERTY_COUNT);
+		outputProperties.add(new PluginProperty("paymentId", record.getGetnetPaymentId(), false));
+		outputProperties.add(new PluginProperty("sellerId", record.getSellerId(), false));
+		outputProperties.add(new PluginProperty("authorizationCode", record.getAuthorizationCode(), false));
+		outputProperties.add(new PluginProperty("terminalNsu", record.getTerminalNsu(), false));
+		outputProperties.add(new PluginProperty("acquirerTransactionId", record.getAcquirerTransactionId(), false));
+		outputProperties.add(new PluginProperty("transactionId", record.getTransactionId(), false));
+		outputProperties.add(new PluginProperty("authorizedAt", format(record.getAuthorizedAt()), false));
+		outputProperties.add(new PluginProperty("softDescriptor", record.getSoftDescriptor(), false));
+		outputProperties.add(new PluginProperty("getnetStatus", record.getGetnetStatus(), false));
+		outputProperties.add(new PluginProperty("receivedAt", format(record.getReceivedAt()), false));
+
+		final TransactionType transactionType = TransactionType.valueOf(record.getTransactionType());
+		final DateTime createdDate = toUTCDateTime(record.getCreatedDate());
+		final DateTime effectiveDate = record.getAuthorizedAt() != null ? toUTCDateTime(record.getAuthorizedAt())
+				: createdDate;
+
+		return new GetnetPaymentTransactionInfoPlugin(UUID.fromString(record.getKbPaymentId()),
+				UUID.fromString(record.getKbPaymentTransactionId()), transactionType, record.getAmount(),
+				record.getCurrency() == null ? null : Currency.fromCode(record.getCurrency()),
+				toPluginStatus(transactionType, record), record.getReasonMessage(), record.getReasonCode(),
+				record.getGetnetPaymentId(), record.getTerminalNsu(), createdDate, effectiveDate, outputProperties);
+	}
+
+	/**
+	 * Authorizations, purchases and captures are good when Getnet answered with
+	 * reason code 00. Voids carry the cancellation status, refunds the status of
+	 * the cancel request, which Getnet may still be processing.
+	 */
+	static PaymentPluginStatus toPluginStatus(TransactionType transactionType, GetnetPaymentsRecord record) {
+		final String status = record.getGetnetStatus();
+		switch (transactionType) {
+		case VOID:
+			return "CANCELED".equalsIgnoreCase(status) ? PaymentPluginStatus.PROCESSED : PaymentPluginStatus.ERROR;
+		case REFUND:
+			if ("DENIED".equalsIgnoreCase(status)) {
+				return PaymentPluginStatus.ERROR;
+			}
+			return "CANCELED".equalsIgnoreCase(status) || "PROCESSED".equalsIgnoreCase(status)
+					? PaymentPluginStatus.PROCESSED
+					: PaymentPluginStatus.PENDING;
+		default:
+			return "00".equals(record.getReasonCode()) ? PaymentPluginStatus.PROCESSED : PaymentPluginStatus.ERROR;
+		}
+	}
+
+	// Dates are stored in UTC
+	private static DateTime toUTCDateTime(LocalDateTime value) {
+		return new DateTime(value.toInstant(ZoneOffset.UTC).toEpochMilli(), DateTimeZone.UTC);
+	}
+
+	private static String format(LocalDateTime value) {
+		return value == null ? null : DATE_FORMAT.format(value);
+	}
+}
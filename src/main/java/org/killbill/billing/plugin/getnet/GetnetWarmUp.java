@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Gets the tenant http clients ready in the background after the bundle
+ * starts, so that the first payment of each tenant does not pay for the
+ * client creation, the OAuth login and the TLS handshakes. Disabled by
+ * default. The tenants are the ones with a plugin configuration in the Kill
+ * Bill tenant_kvs table, plus the ones listed in warmup_tenant_ids. Every step
+ * is bounded by warmup_step_timeout_seconds, a tenant whose step fails or
+ * times out is skipped and warms up on its first payment as before.
+ */
+public class GetnetWarmUp {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetWarmUp.class);
+
+	private final GetnetDao getnetDao;
+	private final GetnetHttpClientRegistry clientRegistry;
+	private final boolean enabled;
+	private final long delaySeconds;
+	private final List<String> tenantIds;
+	private final int connections;
+	private final long stepTimeoutMillis;
+	private final ScheduledExecutorService scheduler;
+	// Runs the steps so that the warm-up thread can give up on them
+	private final ExecutorService steps;
+
+	public GetnetWarmUp(GetnetDao getnetDao, GetnetHttpClientRegistry clientRegistry, Properties configProperties) {
+		this.getnetDao = getnetDao;
+		this.clientRegistry = clientRegistry;
+		this.enabled = Boolean.parseBoolean(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "warmup_enabled", "false"));
+		this.delaySeconds = Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "warmup_delay_seconds", "5"));
+		this.tenantIds = Splitter.on(',').trimResults().omitEmptyStrings()
+				.splitToList(configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "warmup_tenant_ids", ""));
+		this.connections = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "warmup_connections", "2"));
+		this.stepTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "warmup_step_timeout_seconds", "10")));
+
+		if (!enabled) {
+			this.scheduler = null;
+			this.steps = null;
+			return;
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("getnet-warmup-%d").setDaemon(true).build());
+		this.steps = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("getnet-warmup-step-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Schedules the warm-up and returns right away.
+	 */
+	public void start() {
+		if (enabled) {
+			scheduler.schedule(this::warmUp, delaySeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	public void close() {
+		if (enabled) {
+			scheduler.shutdownNow();
+			steps.shutdownNow();
+		}
+	}
+
+	private void warmUp() {
+		final long startMillis = System.currentTimeMillis();
+		final Set<UUID> tenants = new LinkedHashSet<UUID>();
+		for (String tenantId : tenantIds) {
+			try {
+				tenants.add(UUID.fromString(tenantId));
+			} catch (IllegalArgumentException e) {
+				logger.warn("[GETNET] Ignoring invalid warm-up tenant id {}", tenantId);
+			}
+		}
+		final List<UUID> configured = step("list tenants", null,
+				() -> getnetDao.getConfiguredTenants(GetnetActivator.PLUGIN_NAME));
+		if (configured != null) {
+			tenants.addAll(configured);
+		}
+
+		int warmed = 0;
+		for (UUID tenantId : tenants) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if (warmUpTenant(tenantId)) {
+				warmed++;
+			}
+		}
+		logger.info("[GETNET] Warmed up {} of {} tenants in {} ms", warmed, tenants.size(),
+				System.currentTimeMillis() - startMillis);
+	}
+
+	private boolean warmUpTenant(UUID tenantId) {
+		final GetnetHttpClient client = step("create client", tenantId, () -> clientRegistry.getClient(tenantId));
+		if (client == null || step("log in", tenantId, client::getAccessToken) == null) {
+			return false;
+		}
+		return step("open connections", tenantId, () -> client.openConnections(connections, stepTimeoutMillis)) != null;
+	}
+
+	// Null when the step failed or did not complete in time
+	private <T> T step(String name, UUID tenantId, Callable<T> step) {
+		final Future<T> result = steps.submit(step);
+		try {
+			return result.get(stepTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			result.cancel(true);
+			logger.warn("[GETNET] Warm-up step '{}' timed out for tenant {}", name, tenantId);
+		} catch (ExecutionException e) {
+			logger.warn("[GETNET] Warm-up step '{}' failed for tenant {} - {}", name, tenantId,
+					e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+}
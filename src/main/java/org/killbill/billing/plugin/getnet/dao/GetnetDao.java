@@ -26,127 +26,507 @@ import static org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPayments.G
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Record2;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.SelectConditionStep;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DataSourceConnectionProvider;
+import org.jooq.types.ULong;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.plugin.dao.payment.PluginPaymentDao;
+import org.killbill.billing.plugin.getnet.GetnetMetrics;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPaymentMethods;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPayments;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentMethodsRecord;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
 import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
 import org.killbill.billing.plugin.getnet.model.PaymentOperation;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.google.common.collect.ImmutableList;
 
 public class GetnetDao extends
 		PluginPaymentDao<GetnetPaymentsRecord, GetnetPayments, GetnetPaymentMethodsRecord, GetnetPaymentMethods> {
 
+	// Columns searchPayments matches on, each backed by a (kb_tenant_id, column,
+	// record_id) index, getnet_payment_id by its existing single-column index
+	private static final List<TableField<GetnetPaymentsRecord, String>> SEARCHABLE_RESPONSE_FIELDS = ImmutableList
+			.of(GETNET_PAYMENTS.GETNET_PAYMENT_ID, GETNET_PAYMENTS.ORDER_ID, GETNET_PAYMENTS.AUTHORIZATION_CODE,
+					GETNET_PAYMENTS.TERMINAL_NSU, GETNET_PAYMENTS.ACQUIRER_TRANSACTION_ID);
+
+	// Cancel request statuses of refunds Getnet has not settled yet
+	public static final List<String> PENDING_REFUND_STATUSES = ImmutableList.of("ACCEPTED", "PENDING");
+
+	// Rows per round trip when streaming search results from PostgreSQL
+	private static final int STREAMING_FETCH_SIZE = 500;
+
+	// Kill Bill tables, read to find the tenants with a plugin configuration
+	private static final Table<?> TENANTS = DSL.table(DSL.name("tenants"));
+	private static final Table<?> TENANT_KVS = DSL.table(DSL.name("tenant_kvs"));
+	private static final Field<String> TENANTS_ID = DSL.field(DSL.name("tenants", "id"), String.class);
+	private static final Field<Long> TENANTS_RECORD_ID = DSL.field(DSL.name("tenants", "record_id"), Long.class);
+	private static final Field<Long> TENANT_KVS_TENANT_RECORD_ID = DSL.field(DSL.name("tenant_kvs", "tenant_record_id"),
+			Long.class);
+	private static final Field<String> TENANT_KVS_KEY = DSL.field(DSL.name("tenant_kvs", "tenant_key"), String.class);
+	private static final Field<Boolean> TENANT_KVS_IS_ACTIVE = DSL.field(DSL.name("tenant_kvs", "is_active"),
+			Boolean.class);
+	private static final String PLUGIN_CONFIG_KEY_PREFIX = "PLUGIN_CONFIG_";
+
+	private volatile GetnetResponseJournal responseJournal;
+	private volatile GetnetMetrics metrics = GetnetMetrics.DISABLED;
+
 	public GetnetDao(final DataSource dataSource) throws SQLException {
 		super(GETNET_PAYMENTS, GETNET_PAYMENT_METHODS, dataSource);
 		// Save space in the database
 		objectMapper.setSerializationInclusion(Include.NON_EMPTY);
 	}
 
+	/**
+	 * Switches response inserts to write-behind: rows are acknowledged once
+	 * journaled and written to the database by the journal.
+	 */
+	public void setResponseJournal(final GetnetResponseJournal responseJournal) {
+		this.responseJournal = responseJournal;
+	}
+
+	public void setMetrics(final GetnetMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// The statement name and tenant tag the latency sample, the tenant is null
+	// for statements spanning tenants
+	private <T> T execute(final String statement, final Object kbTenantId, final WithConnectionCallback<T> callback)
+			throws SQLException {
+		final GetnetMetrics metrics = this.metrics;
+		final long startNanos = metrics.start();
+		boolean failed = true;
+		try {
+			final T result = execute(dataSource.getConnection(), callback);
+			failed = false;
+			return result;
+		} finally {
+			metrics.record(GetnetMetrics.Layer.DAO, statement, kbTenantId, failed ? "error" : "ok", failed,
+					startNanos);
+		}
+	}
+
 	// Responses
 	public GetnetPaymentsRecord addResponse(final UUID kbAccountId, final UUID kbPaymentId,
 			final UUID kbPaymentTransactionId, final TransactionType transactionType, final BigDecimal amount,
 			final Currency currency, final PaymentCreditResponse getnetPayment, final UUID kbTenantId)
 			throws SQLException {
+		final GetnetPaymentsRecord record = newResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId,
+				transactionType, amount, currency, kbTenantId);
+		record.setGetnetPaymentId(getnetPayment.getPaymentId());
+		record.setSellerId(getnetPayment.getSellerId());
+		record.setOrderId(getnetPayment.getOrderId());
+		record.setGetnetStatus(getnetPayment.getStatus());
+		record.setReceivedAt(toLocalDateTime(DateTime.parse(getnetPayment.getReceivedAt())));
+		record.setAuthorizationCode(getnetPayment.getCredit().getAuthorizationCode());
+		record.setAuthorizedAt(toLocalDateTime(DateTime.parse(getnetPayment.getCredit().getAuthorizedAt())));
+		record.setReasonCode(getnetPayment.getCredit().getReasonCode());
+		record.setReasonMessage(getnetPayment.getCredit().getReasonMessage());
+		record.setSoftDescriptor(getnetPayment.getCredit().getSoftDescriptor());
+		record.setBrand(getnetPayment.getCredit().getBrand());
+		record.setTerminalNsu(getnetPayment.getCredit().getTerminalNsu());
+		record.setAcquirerTransactionId(getnetPayment.getCredit().getAcquirerTransactionId());
+		record.setTransactionId(getnetPayment.getCredit().getTransactionId());
 
-		return execute(dataSource.getConnection(),
-				conn -> DSL.using(conn, dialect, settings).transactionResult(configuration -> {
-					final DSLContext dslContext = DSL.using(configuration);
-					dslContext.insertInto(GETNET_PAYMENTS, GETNET_PAYMENTS.KB_ACCOUNT_ID, GETNET_PAYMENTS.KB_PAYMENT_ID,
-							GETNET_PAYMENTS.KB_PAYMENT_TRANSACTION_ID, GETNET_PAYMENTS.TRANSACTION_TYPE,
-							GETNET_PAYMENTS.AMOUNT, GETNET_PAYMENTS.CURRENCY, GETNET_PAYMENTS.GETNET_PAYMENT_ID,
-							GETNET_PAYMENTS.SELLER_ID, GETNET_PAYMENTS.ORDER_ID, GETNET_PAYMENTS.GETNET_STATUS,
-							GETNET_PAYMENTS.RECEIVED_AT, GETNET_PAYMENTS.AUTHORIZATION_CODE,
-							GETNET_PAYMENTS.AUTHORIZED_AT, GETNET_PAYMENTS.REASON_CODE, GETNET_PAYMENTS.REASON_MESSAGE,
-							GETNET_PAYMENTS.SOFT_DESCRIPTOR, GETNET_PAYMENTS.BRAND, GETNET_PAYMENTS.TERMINAL_NSU,
-							GETNET_PAYMENTS.ACQUIRER_TRANSACTION_ID, GETNET_PAYMENTS.TRANSACTION_ID,
-							GETNET_PAYMENTS.CREATED_DATE, GETNET_PAYMENTS.KB_TENANT_ID)
-							.values(kbAccountId.toString(), kbPaymentId.toString(), kbPaymentTransactionId.toString(),
-									transactionType.toString(), amount, currency == null ? null : currency.name(),
-									getnetPayment.getPaymentId(), getnetPayment.getSellerId(),
-									getnetPayment.getOrderId(), getnetPayment.getStatus(),
-									toLocalDateTime(DateTime.parse(getnetPayment.getReceivedAt())),
-									getnetPayment.getCredit().getAuthorizationCode(),
-									toLocalDateTime(DateTime.parse(getnetPayment.getCredit().getAuthorizedAt())),
-									getnetPayment.getCredit().getReasonCode(),
-									getnetPayment.getCredit().getReasonMessage(),
-									getnetPayment.getCredit().getSoftDescriptor(), getnetPayment.getCredit().getBrand(),
-									getnetPayment.getCredit().getTerminalNsu(),
-									getnetPayment.getCredit().getAcquirerTransactionId(),
-									getnetPayment.getCredit().getTransactionId(), toLocalDateTime(new DateTime()),
-									kbTenantId.toString())
-							.execute();
-					return dslContext.fetchOne(GETNET_PAYMENTS, GETNET_PAYMENTS.RECORD_ID
-							.eq(GETNET_PAYMENTS.RECORD_ID.getDataType().convert(dslContext.lastID())));
-				}));
+		return insertResponse(record);
 	}
 
 	public GetnetPaymentsRecord addResponseGeneric(final UUID kbAccountId, final UUID kbPaymentId,
 			final UUID kbPaymentTransactionId, final TransactionType transactionType, final BigDecimal amount,
 			final Currency currency, final PaymentOperation getnetPayment, final UUID kbTenantId,
 			GetnetPaymentsRecord originalTransaction) throws SQLException {
+		final GetnetPaymentsRecord record = newResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId,
+				transactionType, amount, currency, kbTenantId);
+		record.setGetnetPaymentId(getnetPayment.getPaymentId());
+		record.setSellerId(getnetPayment.getSellerId());
+		record.setOrderId(getnetPayment.getOrderId());
+		record.setGetnetStatus(getnetPayment.getStatus());
+		record.setReceivedAt(toLocalDateTime(DateTime.parse(getnetPayment.getDateField())));
+		record.setAuthorizationCode(originalTransaction.getAuthorizationCode());
+		record.setAuthorizedAt(originalTransaction.getAuthorizedAt());
+		record.setReasonCode(originalTransaction.getReasonCode());
+		record.setReasonMessage(getnetPayment.getMessageField());
+		record.setSoftDescriptor(originalTransaction.getSoftDescriptor());
+		record.setBrand(originalTransaction.getBrand());
+		record.setTerminalNsu(originalTransaction.getTerminalNsu());
+		record.setAcquirerTransactionId(originalTransaction.getAcquirerTransactionId());
+		record.setTransactionId(originalTransaction.getTransactionId());
 
-		return execute(dataSource.getConnection(),
-				conn -> DSL.using(conn, dialect, settings).transactionResult(configuration -> {
-					final DSLContext dslContext = DSL.using(configuration);
-					dslContext.insertInto(GETNET_PAYMENTS, GETNET_PAYMENTS.KB_ACCOUNT_ID, GETNET_PAYMENTS.KB_PAYMENT_ID,
-							GETNET_PAYMENTS.KB_PAYMENT_TRANSACTION_ID, GETNET_PAYMENTS.TRANSACTION_TYPE,
-							GETNET_PAYMENTS.AMOUNT, GETNET_PAYMENTS.CURRENCY, GETNET_PAYMENTS.GETNET_PAYMENT_ID,
-							GETNET_PAYMENTS.SELLER_ID, GETNET_PAYMENTS.ORDER_ID, GETNET_PAYMENTS.GETNET_STATUS,
-							GETNET_PAYMENTS.RECEIVED_AT, GETNET_PAYMENTS.AUTHORIZATION_CODE,
-							GETNET_PAYMENTS.AUTHORIZED_AT, GETNET_PAYMENTS.REASON_CODE, GETNET_PAYMENTS.REASON_MESSAGE,
-							GETNET_PAYMENTS.SOFT_DESCRIPTOR, GETNET_PAYMENTS.BRAND, GETNET_PAYMENTS.TERMINAL_NSU,
-							GETNET_PAYMENTS.ACQUIRER_TRANSACTION_ID, GETNET_PAYMENTS.TRANSACTION_ID,
-							GETNET_PAYMENTS.CREATED_DATE, GETNET_PAYMENTS.KB_TENANT_ID)
-							.values(kbAccountId.toString(), kbPaymentId.toString(), kbPaymentTransactionId.toString(),
-									transactionType.toString(), amount, currency == null ? null : currency.name(),
-									getnetPayment.getPaymentId(), getnetPayment.getSellerId(),
-									getnetPayment.getOrderId(), getnetPayment.getStatus(),
-									toLocalDateTime(DateTime.parse(getnetPayment.getDateField())),
-									originalTransaction.getAuthorizationCode(), originalTransaction.getAuthorizedAt(),
-									originalTransaction.getReasonCode(), getnetPayment.getMessageField(),
-									originalTransaction.getSoftDescriptor(), originalTransaction.getBrand(),
-									originalTransaction.getTerminalNsu(),
-									originalTransaction.getAcquirerTransactionId(),
-									originalTransaction.getTransactionId(), toLocalDateTime(new DateTime()),
-									kbTenantId.toString())
-							.execute();
-					return dslContext.fetchOne(GETNET_PAYMENTS, GETNET_PAYMENTS.RECORD_ID
-							.eq(GETNET_PAYMENTS.RECORD_ID.getDataType().convert(dslContext.lastID())));
-				}));
+		return insertResponse(record);
+	}
+
+	private GetnetPaymentsRecord newResponse(final UUID kbAccountId, final UUID kbPaymentId,
+			final UUID kbPaymentTransactionId, final TransactionType transactionType, final BigDecimal amount,
+			final Currency currency, final UUID kbTenantId) {
+		final GetnetPaymentsRecord record = new GetnetPaymentsRecord();
+		record.setKbAccountId(kbAccountId.toString());
+		record.setKbPaymentId(kbPaymentId.toString());
+		record.setKbPaymentTransactionId(kbPaymentTransactionId.toString());
+		record.setTransactionType(transactionType.toString());
+		record.setAmount(amount);
+		record.setCurrency(currency == null ? null : currency.name());
+		// created_date has no fractional seconds, keep the in-memory record identical
+		// to the stored row
+		record.setCreatedDate(toLocalDateTime(new DateTime().withMillisOfSecond(0)));
+		record.setKbTenantId(kbTenantId.toString());
+		return record;
+	}
+
+	/**
+	 * Inserts the response in a single statement. PostgreSQL hands the persisted
+	 * row back through INSERT ... RETURNING, on MySQL only the generated key comes
+	 * back with the insert and the rest of the record is what was sent.
+	 */
+	private GetnetPaymentsRecord insertResponse(final GetnetPaymentsRecord record) throws SQLException {
+		final GetnetResponseJournal journal = responseJournal;
+		if (journal != null && journal.append(record)) {
+			return record;
+		}
+
+		return execute("insertResponse", record.getKbTenantId(), new WithConnectionCallback<GetnetPaymentsRecord>() {
+			@Override
+			public GetnetPaymentsRecord withConnection(final Connection conn) throws SQLException {
+				final DSLContext dslContext = DSL.using(conn, dialect, settings);
+				if (dialect.family() == SQLDialect.POSTGRES) {
+					return dslContext.insertInto(GETNET_PAYMENTS).set(record).returning().fetchOne();
+				}
+
+				final Record1<ULong> key = dslContext.insertInto(GETNET_PAYMENTS).set(record)
+						.returningResult(GETNET_PAYMENTS.RECORD_ID).fetchOne();
+				record.setRecordId(key.value1());
+				record.changed(false);
+				return record;
+			}
+		});
+	}
+
+	// All or nothing: drivers carry on with a batch past a rejected row, and the
+	// journal inserts the rows of a rejected batch again one at a time
+	void insertResponses(final List<GetnetPaymentsRecord> records) throws SQLException {
+		execute("insertResponses", null, new WithConnectionCallback<Void>() {
+			@Override
+			public Void withConnection(final Connection conn) throws SQLException {
+				DSL.using(conn, dialect, settings)
+						.transaction(configuration -> DSL.using(configuration).batchInsert(records).execute());
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Inserts the records that are not in the table yet, matching on
+	 * kb_payment_transaction_id and created_date.
+	 */
+	void insertMissingResponses(final List<GetnetPaymentsRecord> records) throws SQLException {
+		final Set<String> transactionIds = new HashSet<String>();
+		for (GetnetPaymentsRecord record : records) {
+			transactionIds.add(record.getKbPaymentTransactionId());
+		}
+
+		final Set<String> existing = execute("insertMissingResponses", null, new WithConnectionCallback<Set<String>>() {
+			@Override
+			public Set<String> withConnection(final Connection conn) throws SQLException {
+				final Set<String> keys = new HashSet<String>();
+				for (Record2<String, LocalDateTime> row : DSL.using(conn, dialect, settings)
+						.select(GETNET_PAYMENTS.KB_PAYMENT_TRANSACTION_ID, GETNET_PAYMENTS.CREATED_DATE)
+						.from(GETNET_PAYMENTS).where(GETNET_PAYMENTS.KB_PAYMENT_TRANSACTION_ID.in(transactionIds))
+						.fetch()) {
+					keys.add(row.value1() + "|" + row.value2());
+				}
+				return keys;
+			}
+		});
+
+		final List<GetnetPaymentsRecord> missing = new ArrayList<GetnetPaymentsRecord>();
+		for (GetnetPaymentsRecord record : records) {
+			if (!existing.contains(record.getKbPaymentTransactionId() + "|" + record.getCreatedDate())) {
+				missing.add(record);
+			}
+		}
+		if (!missing.isEmpty()) {
+			insertResponses(missing);
+		}
 	}
 
+	@Override
+	public List<GetnetPaymentsRecord> getResponses(final UUID kbPaymentId, final UUID kbTenantId)
+			throws SQLException {
+		flushJournal(kbPaymentId);
+		return execute("getResponses", kbTenantId, new WithConnectionCallback<List<GetnetPaymentsRecord>>() {
+			@Override
+			public List<GetnetPaymentsRecord> withConnection(final Connection conn) throws SQLException {
+				return DSL.using(conn, dialect, settings).selectFrom(GETNET_PAYMENTS)
+						.where(GETNET_PAYMENTS.KB_TENANT_ID.equal(kbTenantId.toString()))
+						.and(GETNET_PAYMENTS.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+						.orderBy(GETNET_PAYMENTS.RECORD_ID.asc()).fetch();
+			}
+		});
+	}
+
+	/**
+	 * Latest response of the payment. Served by the (kb_tenant_id, kb_payment_id,
+	 * record_id) index, without sorting.
+	 */
 	@Override
 	public GetnetPaymentsRecord getSuccessfulAuthorizationResponse(final UUID kbPaymentId, final UUID kbTenantId)
 			throws SQLException {
-		return execute(dataSource.getConnection(), new WithConnectionCallback<GetnetPaymentsRecord>() {
+		flushJournal(kbPaymentId);
+		return execute("getSuccessfulAuthorizationResponse", kbTenantId,
+				new WithConnectionCallback<GetnetPaymentsRecord>() {
 			@Override
 			public GetnetPaymentsRecord withConnection(final Connection conn) throws SQLException {
-				return DSL.using(conn, dialect, settings).selectFrom(responsesTable)
-						.where(DSL.field(responsesTable.getName() + "." + KB_PAYMENT_ID).equal(kbPaymentId.toString()))
-						.and(DSL.field(responsesTable.getName() + "." + KB_TENANT_ID).equal(kbTenantId.toString()))
-						.orderBy(DSL.field(responsesTable.getName() + "." + RECORD_ID).desc()).limit(1).fetchOne();
+				return DSL.using(conn, dialect, settings).selectFrom(GETNET_PAYMENTS)
+						.where(GETNET_PAYMENTS.KB_TENANT_ID.equal(kbTenantId.toString()))
+						.and(GETNET_PAYMENTS.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+						.orderBy(GETNET_PAYMENTS.RECORD_ID.desc()).limit(1).fetchOne();
+			}
+		});
+	}
+
+	/**
+	 * Tenants with refunds still waiting on Getnet to settle their cancel
+	 * request, created before the given date.
+	 */
+	public List<UUID> getPendingRefundTenants(final DateTime createdBefore) throws SQLException {
+		return execute("getPendingRefundTenants", null, new WithConnectionCallback<List<UUID>>() {
+			@Override
+			public List<UUID> withConnection(final Connection conn) throws SQLException {
+				final List<UUID> tenantIds = new ArrayList<UUID>();
+				for (String tenantId : DSL.using(conn, dialect, settings).selectDistinct(GETNET_PAYMENTS.KB_TENANT_ID)
+						.from(GETNET_PAYMENTS).where(pendingRefunds())
+						.and(GETNET_PAYMENTS.CREATED_DATE.lessThan(toLocalDateTime(createdBefore)))
+						.orderBy(GETNET_PAYMENTS.KB_TENANT_ID).fetch(GETNET_PAYMENTS.KB_TENANT_ID)) {
+					tenantIds.add(UUID.fromString(tenantId));
+				}
+				return tenantIds;
 			}
 		});
 	}
 
+	/**
+	 * Refunds of the tenant still waiting on Getnet to settle their cancel
+	 * request, created before the given date, in (created_date, record_id) order
+	 * past the given refund, or from the oldest one when it is null. Read
+	 * through the (transaction_type, getnet_status, kb_tenant_id, created_date,
+	 * record_id) index.
+	 */
+	public List<GetnetPaymentsRecord> getPendingRefunds(final UUID kbTenantId, final DateTime createdBefore,
+			final GetnetPaymentsRecord after, final int limit) throws SQLException {
+		return execute("getPendingRefunds", kbTenantId, new WithConnectionCallback<List<GetnetPaymentsRecord>>() {
+			@Override
+			public List<GetnetPaymentsRecord> withConnection(final Connection conn) throws SQLException {
+				final Condition past = after == null ? DSL.trueCondition()
+						: DSL.row(GETNET_PAYMENTS.CREATED_DATE, GETNET_PAYMENTS.RECORD_ID)
+								.greaterThan(after.getCreatedDate(), after.getRecordId());
+				return DSL.using(conn, dialect, settings).selectFrom(GETNET_PAYMENTS)
+						.where(pendingRefunds())
+						.and(GETNET_PAYMENTS.KB_TENANT_ID.equal(kbTenantId.toString()))
+						.and(GETNET_PAYMENTS.CREATED_DATE.lessThan(toLocalDateTime(createdBefore)))
+						.and(past)
+						.orderBy(GETNET_PAYMENTS.CREATED_DATE.asc(), GETNET_PAYMENTS.RECORD_ID.asc()).limit(limit)
+						.fetch();
+			}
+		});
+	}
+
+	/**
+	 * Number of pending refunds and the creation date of the oldest one.
+	 */
+	public Record2<Integer, LocalDateTime> getPendingRefundsBacklog() throws SQLException {
+		return execute("getPendingRefundsBacklog", null, new WithConnectionCallback<Record2<Integer, LocalDateTime>>() {
+			@Override
+			public Record2<Integer, LocalDateTime> withConnection(final Connection conn) throws SQLException {
+				return DSL.using(conn, dialect, settings)
+						.select(DSL.count(), DSL.min(GETNET_PAYMENTS.CREATED_DATE)).from(GETNET_PAYMENTS)
+						.where(pendingRefunds()).fetchOne();
+			}
+		});
+	}
+
+	/**
+	 * Ids of the tenants that uploaded a configuration for the plugin, read from
+	 * the Kill Bill tenant_kvs table. Only works when the plugin tables live in
+	 * the Kill Bill database.
+	 */
+	public List<UUID> getConfiguredTenants(final String pluginName) throws SQLException {
+		return execute("getConfiguredTenants", null, new WithConnectionCallback<List<UUID>>() {
+			@Override
+			public List<UUID> withConnection(final Connection conn) throws SQLException {
+				final List<UUID> tenantIds = new ArrayList<UUID>();
+				for (String tenantId : DSL.using(conn, dialect, settings).selectDistinct(TENANTS_ID).from(TENANT_KVS)
+						.join(TENANTS).on(TENANTS_RECORD_ID.equal(TENANT_KVS_TENANT_RECORD_ID))
+						.where(TENANT_KVS_KEY.equal(PLUGIN_CONFIG_KEY_PREFIX + pluginName))
+						.and(TENANT_KVS_IS_ACTIVE.isTrue()).fetch(TENANTS_ID)) {
+					tenantIds.add(UUID.fromString(tenantId));
+				}
+				return tenantIds;
+			}
+		});
+	}
+
+	private static Condition pendingRefunds() {
+		return GETNET_PAYMENTS.TRANSACTION_TYPE.equal(TransactionType.REFUND.toString())
+				.and(GETNET_PAYMENTS.GETNET_STATUS.in(PENDING_REFUND_STATUSES));
+	}
+
+	/**
+	 * Applies Getnet status changes with one read and one JDBC batch. Refunds are
+	 * matched on their cancel request id, stored in order_id, payments on the
+	 * Getnet payment id of their authorization or purchase. Returns the rows whose
+	 * status actually changed.
+	 */
+	public List<GetnetPaymentsRecord> updateStatuses(final Collection<GetnetStatusUpdate> updates)
+			throws SQLException {
+		final GetnetResponseJournal journal = responseJournal;
+		if (journal != null) {
+			journal.flush();
+		}
+
+		final Map<String, String> statuses = new HashMap<String, String>();
+		Condition matches = DSL.falseCondition();
+		for (GetnetStatusUpdate update : updates) {
+			statuses.put(update.getKey(), update.getStatus());
+			if (update.isRefund()) {
+				matches = matches.or(GETNET_PAYMENTS.KB_TENANT_ID.equal(update.getKbTenantId().toString())
+						.and(GETNET_PAYMENTS.TRANSACTION_TYPE.equal(TransactionType.REFUND.toString()))
+						.and(GETNET_PAYMENTS.ORDER_ID.equal(update.getCancelRequestId())));
+			} else {
+				matches = matches.or(GETNET_PAYMENTS.KB_TENANT_ID.equal(update.getKbTenantId().toString())
+						.and(GETNET_PAYMENTS.TRANSACTION_TYPE.in(TransactionType.AUTHORIZE.toString(),
+								TransactionType.PURCHASE.toString()))
+						.and(GETNET_PAYMENTS.GETNET_PAYMENT_ID.equal(update.getGetnetPaymentId())));
+			}
+		}
+		final Condition condition = matches;
+
+		return execute("updateStatuses", null, new WithConnectionCallback<List<GetnetPaymentsRecord>>() {
+			@Override
+			public List<GetnetPaymentsRecord> withConnection(final Connection conn) throws SQLException {
+				final DSLContext dslContext = DSL.using(conn, dialect, settings);
+				final List<GetnetPaymentsRecord> changed = new ArrayList<GetnetPaymentsRecord>();
+				for (GetnetPaymentsRecord record : dslContext.selectFrom(GETNET_PAYMENTS).where(condition).fetch()) {
+					final UUID kbTenantId = UUID.fromString(record.getKbTenantId());
+					final GetnetStatusUpdate key = TransactionType.REFUND.toString().equals(record.getTransactionType())
+							? new GetnetStatusUpdate(kbTenantId, null, record.getOrderId(), null)
+							: new GetnetStatusUpdate(kbTenantId, record.getGetnetPaymentId(), null, null);
+					final String status = statuses.get(key.getKey());
+					if (status != null && !status.equalsIgnoreCase(record.getGetnetStatus())) {
+						record.setGetnetStatus(status);
+						changed.add(record);
+					}
+				}
+
+				if (!changed.isEmpty()) {
+					dslContext.batchUpdate(changed).execute();
+				}
+				return changed;
+			}
+		});
+	}
+
+	/**
+	 * Responses of the tenant matching the search key on any of the searchable
+	 * columns, past the given record_id and skipping the first skip of them.
+	 * Each column is an indexed seek, the union of them is sorted and cut to the
+	 * page.
+	 */
+	public List<GetnetPaymentsRecord> searchResponses(final String searchKey, final long skip,
+			final long afterRecordId, final int limit, final UUID kbTenantId) throws SQLException {
+		return execute("searchResponses", kbTenantId, new WithConnectionCallback<List<GetnetPaymentsRecord>>() {
+			@Override
+			public List<GetnetPaymentsRecord> withConnection(final Connection conn) throws SQLException {
+				final DSLContext dslContext = DSL.using(conn, dialect, settings);
+				final Table<GetnetPaymentsRecord> matches = matchingResponses(dslContext, searchKey, afterRecordId,
+						skip + limit, kbTenantId).asTable("matches");
+				return dslContext.selectFrom(matches).orderBy(matches.field(GETNET_PAYMENTS.RECORD_ID).asc())
+						.offset(skip).limit(limit).fetchInto(GETNET_PAYMENTS);
+			}
+		});
+	}
+
+	/**
+	 * Number of responses searchResponses can return for the search key.
+	 */
+	public long countResponses(final String searchKey, final UUID kbTenantId) throws SQLException {
+		return execute("countResponses", kbTenantId, new WithConnectionCallback<Long>() {
+			@Override
+			public Long withConnection(final Connection conn) throws SQLException {
+				final DSLContext dslContext = DSL.using(conn, dialect, settings);
+				return dslContext.selectCount()
+						.from(matchingResponses(dslContext, searchKey, 0L, null, kbTenantId).asTable("matches"))
+						.fetchOne(0, Long.class);
+			}
+		});
+	}
+
+	// Union of one indexed seek per searchable column, each cut to limit rows
+	// when given
+	private static Select<GetnetPaymentsRecord> matchingResponses(final DSLContext dslContext,
+			final String searchKey, final long afterRecordId, final Long limit, final UUID kbTenantId) {
+		Select<GetnetPaymentsRecord> seeks = null;
+		for (TableField<GetnetPaymentsRecord, String> field : SEARCHABLE_RESPONSE_FIELDS) {
+			final SelectConditionStep<GetnetPaymentsRecord> seek = dslContext.selectFrom(GETNET_PAYMENTS)
+					.where(GETNET_PAYMENTS.KB_TENANT_ID.equal(kbTenantId.toString()))
+					.and(field.equal(searchKey))
+					.and(GETNET_PAYMENTS.RECORD_ID.greaterThan(ULong.valueOf(afterRecordId)));
+			final Select<GetnetPaymentsRecord> cut = limit == null ? seek
+					: seek.orderBy(GETNET_PAYMENTS.RECORD_ID.asc()).limit(limit);
+			seeks = seeks == null ? cut : seeks.union(cut);
+		}
+		return seeks;
+	}
+
+	// Journaled rows of this payment must be in the table before it is read
+	private void flushJournal(final UUID kbPaymentId) throws SQLException {
+		final GetnetResponseJournal journal = responseJournal;
+		if (journal != null && journal.hasPending(kbPaymentId.toString())) {
+			journal.flush();
+		}
+	}
+
 	@Override
 	public void addPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final boolean isDefault,
 			final Map<String, String> properties, final DateTime utcNow, final UUID kbTenantId) throws SQLException {
+		addPaymentMethod(kbAccountId, kbPaymentMethodId, isDefault, properties, null, utcNow, kbTenantId);
+	}
+
+	/**
+	 * Stores the payment method along with the card display attributes, when
+	 * known, so that they can be rendered without calling Getnet.
+	 */
+	public void addPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final boolean isDefault,
+			final Map<String, String> properties, final VaultCardResponse card, final DateTime utcNow,
+			final UUID kbTenantId) throws SQLException {
 
-		execute(dataSource.getConnection(), new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
+		execute("addPaymentMethod", kbTenantId, new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
 			@Override
 			public GetnetPaymentMethodsRecord withConnection(final Connection conn) throws SQLException {
 				DSL.using(conn, dialect, settings)
@@ -154,10 +534,20 @@ public class GetnetDao extends
 								GETNET_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID, GETNET_PAYMENT_METHODS.GETNET_CARD_ID,
 								GETNET_PAYMENT_METHODS.IS_DEFAULT, GETNET_PAYMENT_METHODS.IS_DELETED,
 								GETNET_PAYMENT_METHODS.CREATED_DATE, GETNET_PAYMENT_METHODS.UPDATED_DATE,
-								GETNET_PAYMENT_METHODS.KB_TENANT_ID)
+								GETNET_PAYMENT_METHODS.KB_TENANT_ID, GETNET_PAYMENT_METHODS.BRAND,
+								GETNET_PAYMENT_METHODS.LAST_FOUR_DIGITS, GETNET_PAYMENT_METHODS.EXPIRATION_MONTH,
+								GETNET_PAYMENT_METHODS.EXPIRATION_YEAR, GETNET_PAYMENT_METHODS.CARDHOLDER_NAME,
+								GETNET_PAYMENT_METHODS.CUSTOMER_ID, GETNET_PAYMENT_METHODS.CARD_STATUS,
+								GETNET_PAYMENT_METHODS.CARD_DETAILS_REFRESHED_AT)
 						.values(kbAccountId.toString(), kbPaymentMethodId.toString(), (String) properties.get("token"),
 								(short) (isDefault ? TRUE : FALSE), (short) FALSE, toLocalDateTime(utcNow),
-								toLocalDateTime(utcNow), kbTenantId.toString())
+								toLocalDateTime(utcNow), kbTenantId.toString(), card == null ? null : card.getBrand(),
+								card == null ? null : card.getLastFourDigits(),
+								card == null ? null : card.getExpirationMonth(),
+								card == null ? null : card.getExpirationYear(),
+								card == null ? null : card.getCardholderName(),
+								card == null ? null : card.getCustomerId(), card == null ? null : card.getStatus(),
+								card == null ? null : toLocalDateTime(utcNow))
 						.execute();
 
 				return null;
@@ -165,10 +555,121 @@ public class GetnetDao extends
 		});
 	}
 
+	public void updateCardDetails(final UUID kbPaymentMethodId, final VaultCardResponse card, final DateTime utcNow,
+			final UUID kbTenantId) throws SQLException {
+		execute("updateCardDetails", kbTenantId, new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
+			@Override
+			public GetnetPaymentMethodsRecord withConnection(final Connection conn) throws SQLException {
+				DSL.using(conn, dialect, settings).update(GETNET_PAYMENT_METHODS)
+						.set(GETNET_PAYMENT_METHODS.BRAND, card.getBrand())
+						.set(GETNET_PAYMENT_METHODS.LAST_FOUR_DIGITS, card.getLastFourDigits())
+						.set(GETNET_PAYMENT_METHODS.EXPIRATION_MONTH, card.getExpirationMonth())
+						.set(GETNET_PAYMENT_METHODS.EXPIRATION_YEAR, card.getExpirationYear())
+						.set(GETNET_PAYMENT_METHODS.CARDHOLDER_NAME, card.getCardholderName())
+						.set(GETNET_PAYMENT_METHODS.CUSTOMER_ID, card.getCustomerId())
+						.set(GETNET_PAYMENT_METHODS.CARD_STATUS, card.getStatus())
+						.set(GETNET_PAYMENT_METHODS.CARD_DETAILS_REFRESHED_AT, toLocalDateTime(utcNow))
+						.where(GETNET_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
+						.and(GETNET_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString())).execute();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Opens a forward-only cursor over the payment methods of the tenant whose
+	 * card id, account id, brand or last four digits equal the search key, or
+	 * whose cardholder name starts with it. Rows are read in record_id order,
+	 * skipping the first {@code skip} of them, at most {@code limit} of them. The
+	 * caller owns the cursor, closing it gives the connection back.
+	 */
+	public Cursor<GetnetPaymentMethodsRecord> streamPaymentMethods(final String searchKey, final long skip,
+			final long limit, final UUID kbTenantId) throws SQLException {
+		final boolean postgres = dialect.family() == SQLDialect.POSTGRES;
+		try {
+			return DSL.using(new StreamingConnectionProvider(dataSource, postgres), dialect, settings)
+					.selectFrom(GETNET_PAYMENT_METHODS)
+					.where(GETNET_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+					.and(GETNET_PAYMENT_METHODS.IS_DELETED.equal((short) FALSE))
+					.and(paymentMethodsMatching(searchKey))
+					.orderBy(GETNET_PAYMENT_METHODS.RECORD_ID.asc()).offset(skip).limit(limit)
+					// MySQL only streams row by row with this marker value
+					.fetchSize(postgres ? STREAMING_FETCH_SIZE : Integer.MIN_VALUE).fetchLazy();
+		} catch (DataAccessException e) {
+			throw new SQLException("Failed to open payment methods cursor", e);
+		}
+	}
+
+	/**
+	 * Number of payment methods streamPaymentMethods can return for the search
+	 * key.
+	 */
+	public long countPaymentMethods(final String searchKey, final UUID kbTenantId) throws SQLException {
+		return execute("countPaymentMethods", kbTenantId, new WithConnectionCallback<Long>() {
+			@Override
+			public Long withConnection(final Connection conn) throws SQLException {
+				return DSL.using(conn, dialect, settings).selectCount().from(GETNET_PAYMENT_METHODS)
+						.where(GETNET_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+						.and(GETNET_PAYMENT_METHODS.IS_DELETED.equal((short) FALSE))
+						.and(paymentMethodsMatching(searchKey)).fetchOne(0, Long.class);
+			}
+		});
+	}
+
+	private static Condition paymentMethodsMatching(final String searchKey) {
+		return GETNET_PAYMENT_METHODS.GETNET_CARD_ID.equal(searchKey)
+				.or(GETNET_PAYMENT_METHODS.KB_ACCOUNT_ID.equal(searchKey))
+				.or(GETNET_PAYMENT_METHODS.BRAND.equal(searchKey))
+				.or(GETNET_PAYMENT_METHODS.LAST_FOUR_DIGITS.equal(searchKey))
+				.or(GETNET_PAYMENT_METHODS.CARDHOLDER_NAME.startsWith(searchKey));
+	}
+
+	/**
+	 * Hands a connection to a single lazy query. PostgreSQL only honors the fetch
+	 * size outside of autocommit, so the read runs in its own transaction there.
+	 */
+	private static final class StreamingConnectionProvider extends DataSourceConnectionProvider {
+
+		private final boolean manualCommit;
+
+		private StreamingConnectionProvider(final DataSource dataSource, final boolean manualCommit) {
+			super(dataSource);
+			this.manualCommit = manualCommit;
+		}
+
+		@Override
+		public Connection acquire() {
+			final Connection connection = super.acquire();
+			if (manualCommit) {
+				try {
+					connection.setAutoCommit(false);
+				} catch (SQLException e) {
+					super.release(connection);
+					throw new DataAccessException("Failed to disable autocommit", e);
+				}
+			}
+			return connection;
+		}
+
+		@Override
+		public void release(final Connection connection) {
+			try {
+				if (manualCommit) {
+					connection.commit();
+					connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				throw new DataAccessException("Failed to end streaming read", e);
+			} finally {
+				super.release(connection);
+			}
+		}
+	}
+
 	public void updatePaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId,
 			final Map<String, Object> properties, final DateTime utcNow, final UUID kbTenantId, String cardId)
 			throws SQLException {
-		execute(dataSource.getConnection(), new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
+		execute("updatePaymentMethod", kbTenantId, new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
 			@Override
 			public GetnetPaymentMethodsRecord withConnection(final Connection conn) throws SQLException {
 				DSL.using(conn, dialect, settings).update(GETNET_PAYMENT_METHODS)
@@ -188,7 +689,7 @@ public class GetnetDao extends
 
 	public void markAllNotDefaultCards(final UUID kbAccountId, final UUID kbTenantId, final DateTime utcNow)
 			throws SQLException {
-		execute(dataSource.getConnection(), new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
+		execute("markAllNotDefaultCards", kbTenantId, new WithConnectionCallback<GetnetPaymentMethodsRecord>() {
 			@Override
 			public GetnetPaymentMethodsRecord withConnection(final Connection conn) throws SQLException {
 				DSL.using(conn, dialect, settings).update(GETNET_PAYMENT_METHODS)
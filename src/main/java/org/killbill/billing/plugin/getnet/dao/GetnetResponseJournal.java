@@ -0,0 +1,524 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.dao;
+
+import static org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPayments.GETNET_PAYMENTS;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jooq.Field;
+import org.jooq.exception.DataAccessException;
+import org.killbill.billing.plugin.getnet.GetnetActivator;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Write-behind journal for getnet_payments rows. Responses are appended to a
+ * local file and forced to disk before the payment call returns, then written
+ * to the database in JDBC batches by a background thread. Entries left in the
+ * file by a crash or an unavailable database are replayed on the next start.
+ * <p>
+ * Concurrent appends share their fsync (group commit). The journal is emptied
+ * once every row made it to the database, and rewritten to a new file swapped
+ * in atomically when it grows past write_behind_compact_threshold_bytes with
+ * rows still pending. A row the database keeps rejecting (bad data, constraint
+ * violation) is moved to the .dead file next to the journal after
+ * write_behind_max_attempts tries, so that it does not hold back the others.
+ */
+public class GetnetResponseJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(GetnetResponseJournal.class);
+
+	private static final Type ENTRY_TYPE = new TypeToken<Map<String, String>>() {
+	}.getType();
+
+	private final GetnetDao getnetDao;
+	private final File journalFile;
+	private final File compactFile;
+	private final File deadLetterFile;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final int maxPending;
+	private final long compactThresholdBytes;
+	private final int maxAttempts;
+	private final Gson gson = new Gson();
+	// Guards the file and the pending list, held for the writes only, never for
+	// an fsync on the append path
+	private final ReentrantLock lock = new ReentrantLock();
+	// One fsync at a time, the appends written meanwhile share the next one.
+	// Taken before lock when both are needed.
+	private final ReentrantLock syncLock = new ReentrantLock();
+	// Only one flush at a time, so that a batch is never written twice
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final List<GetnetPaymentsRecord> pending = new ArrayList<GetnetPaymentsRecord>();
+	// Failed inserts of the rows the database rejected, guarded by flushLock
+	private final Map<GetnetPaymentsRecord, Integer> attempts = new IdentityHashMap<GetnetPaymentsRecord, Integer>();
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("getnet-response-journal-%d").setDaemon(true).build());
+
+	private FileChannel channel;
+	// Appends written to the journal, and the ones known to be on disk, guarded
+	// by lock and syncLock respectively
+	private long written;
+	private long synced;
+	// Set when an fsync failed, the page cache can no longer be trusted
+	private boolean broken;
+
+	public GetnetResponseJournal(GetnetDao getnetDao, File journalFile, Properties configProperties) {
+		this.getnetDao = getnetDao;
+		this.journalFile = journalFile;
+		this.compactFile = new File(journalFile.getPath() + ".compact");
+		this.deadLetterFile = new File(journalFile.getPath() + ".dead");
+		this.batchSize = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_batch_size", "100"));
+		this.flushIntervalMillis = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_flush_interval_millis", "200"));
+		this.maxPending = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_max_pending", "10000"));
+		this.compactThresholdBytes = Long.parseLong(configProperties
+				.getProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_compact_threshold_bytes", "1048576"));
+		this.maxAttempts = Integer.parseInt(
+				configProperties.getProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_max_attempts", "3"));
+	}
+
+	/**
+	 * Writes whatever a previous run left in the journal to the database, then
+	 * starts the background flushes.
+	 */
+	public void start() throws IOException, SQLException {
+		// A compaction interrupted before its swap, the journal is still complete
+		Files.deleteIfExists(compactFile.toPath());
+
+		final List<GetnetPaymentsRecord> leftovers = readJournal();
+		if (!leftovers.isEmpty()) {
+			logger.info("[GETNET] Replaying {} journaled payment responses", leftovers.size());
+			// The previous run may have died between the insert and the truncate
+			getnetDao.insertMissingResponses(leftovers);
+		}
+
+		channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		channel.force(true);
+
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Makes the response durable in the journal. Returns false when the journal
+	 * cannot take it (too many pending rows or an I/O error), in which case the
+	 * caller has to insert it synchronously.
+	 */
+	public boolean append(GetnetPaymentsRecord record) {
+		final GetnetPaymentsRecord entry = record.copy();
+		final long sequence;
+		lock.lock();
+		try {
+			if (channel == null || broken || pending.size() >= maxPending) {
+				return false;
+			}
+
+			final long position = channel.size();
+			try {
+				write(channel, entry);
+			} catch (IOException e) {
+				logger.warn("[GETNET] Failed to journal payment response - " + e.getMessage());
+				truncateQuietly(position);
+				return false;
+			}
+			pending.add(entry);
+			sequence = ++written;
+		} catch (IOException e) {
+			logger.warn("[GETNET] Failed to journal payment response - " + e.getMessage());
+			return false;
+		} finally {
+			lock.unlock();
+		}
+
+		if (sync(sequence)) {
+			return true;
+		}
+		return withdraw(entry);
+	}
+
+	public boolean hasPending(String kbPaymentId) {
+		lock.lock();
+		try {
+			for (GetnetPaymentsRecord record : pending) {
+				if (kbPaymentId.equals(record.getKbPaymentId())) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all pending responses to the database and compacts the journal.
+	 */
+	public void flush() throws SQLException {
+		flushLock.lock();
+		try {
+			while (true) {
+				final List<GetnetPaymentsRecord> batch;
+				lock.lock();
+				try {
+					if (pending.isEmpty()) {
+						return;
+					}
+					batch = new ArrayList<GetnetPaymentsRecord>(
+							pending.subList(0, Math.min(batchSize, pending.size())));
+				} finally {
+					lock.unlock();
+				}
+
+				int done;
+				try {
+					getnetDao.insertResponses(batch);
+					done = batch.size();
+				} catch (SQLException | DataAccessException e) {
+					if (!isRejection(e)) {
+						// The database is not reachable, every row would fail the same way
+						throw e;
+					}
+					done = insertOneByOne(batch);
+				}
+				removeFlushed(done);
+				if (done < batch.size()) {
+					throw new SQLException("Journaled payment response rejected, will retry");
+				}
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	public void close() {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(10, TimeUnit.SECONDS);
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (SQLException | DataAccessException e) {
+			logger.warn("[GETNET] Payment responses left in the journal will be replayed on restart - "
+					+ e.getMessage());
+		}
+
+		syncLock.lock();
+		lock.lock();
+		try {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		} catch (IOException e) {
+			logger.warn("[GETNET] Failed to close the payment response journal", e);
+		} finally {
+			lock.unlock();
+			syncLock.unlock();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (SQLException | RuntimeException e) {
+			logger.warn("[GETNET] Failed to flush journaled payment responses, will retry - " + e.getMessage());
+		}
+	}
+
+	// Forces the journal up to the given append, unless an append made after it
+	// already did
+	private boolean sync(long sequence) {
+		syncLock.lock();
+		try {
+			if (synced >= sequence) {
+				return true;
+			}
+			final long target;
+			final FileChannel current;
+			lock.lock();
+			try {
+				if (channel == null || broken) {
+					return false;
+				}
+				target = written;
+				current = channel;
+			} finally {
+				lock.unlock();
+			}
+			current.force(false);
+			synced = target;
+			return true;
+		} catch (IOException e) {
+			logger.error("[GETNET] Failed to sync the payment response journal, inserting synchronously from now on - "
+					+ e.getMessage());
+			lock.lock();
+			try {
+				broken = true;
+			} finally {
+				lock.unlock();
+			}
+			return false;
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	// The entry could not be made durable: takes it back so that the caller
+	// inserts it, unless a flush already wrote it to the database
+	private boolean withdraw(GetnetPaymentsRecord entry) {
+		flushLock.lock();
+		lock.lock();
+		try {
+			for (Iterator<GetnetPaymentsRecord> it = pending.iterator(); it.hasNext();) {
+				if (it.next() == entry) {
+					it.remove();
+					attempts.remove(entry);
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+			flushLock.unlock();
+		}
+	}
+
+	// After a rejected batch, inserts the rows one at a time to find the
+	// culprit. Returns how many rows from the head of the batch are done with,
+	// stopping at the first row that failed without being dead lettered.
+	private int insertOneByOne(List<GetnetPaymentsRecord> batch) {
+		int done = 0;
+		for (GetnetPaymentsRecord record : batch) {
+			try {
+				getnetDao.insertResponses(Collections.singletonList(record));
+			} catch (SQLException | DataAccessException e) {
+				if (!isRejection(e)) {
+					return done;
+				}
+				final int failures = attempts.merge(record, 1, Integer::sum);
+				if (failures < maxAttempts) {
+					logger.warn("[GETNET] Journaled response for transaction {} rejected ({} of {}) - {}",
+							record.getKbPaymentTransactionId(), failures, maxAttempts, e.getMessage());
+					return done;
+				}
+				if (!deadLetter(record, e)) {
+					return done;
+				}
+			}
+			attempts.remove(record);
+			done++;
+		}
+		return done;
+	}
+
+	// Must be called with flushLock held
+	private void removeFlushed(int count) {
+		if (count == 0) {
+			return;
+		}
+		syncLock.lock();
+		lock.lock();
+		try {
+			final List<GetnetPaymentsRecord> flushed = pending.subList(0, count);
+			for (GetnetPaymentsRecord record : flushed) {
+				attempts.remove(record);
+			}
+			flushed.clear();
+			compact();
+		} finally {
+			lock.unlock();
+			syncLock.unlock();
+		}
+	}
+
+	// Must be called with syncLock and lock held. Truncating in place is only
+	// safe once nothing is pending, otherwise the pending rows are written to a
+	// new file which atomically replaces the journal once on disk.
+	private void compact() {
+		if (broken) {
+			return;
+		}
+		try {
+			if (pending.isEmpty()) {
+				// Rows already in the database are skipped on replay, nothing is lost
+				channel.truncate(0);
+				synced = written;
+				return;
+			}
+			if (channel.size() < compactThresholdBytes) {
+				return;
+			}
+
+			try (FileChannel compacted = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (GetnetPaymentsRecord record : pending) {
+					write(compacted, record);
+				}
+				compacted.force(true);
+			}
+			Files.move(compactFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			forceDirectory();
+			channel.close();
+			channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+			// Every pending row is in the new file, which is on disk
+			synced = written;
+		} catch (IOException e) {
+			// The old journal is untouched until the move, nothing is lost
+			logger.warn("[GETNET] Failed to compact the payment response journal - " + e.getMessage());
+		}
+	}
+
+	// Makes the rename durable, not supported on every platform
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(journalFile.getAbsoluteFile().getParentFile().toPath(),
+				StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			logger.debug("[GETNET] Could not sync the journal directory - " + e.getMessage());
+		}
+	}
+
+	// Keeps the row in the journal when it cannot be set aside
+	private boolean deadLetter(GetnetPaymentsRecord record, Exception cause) {
+		try (FileChannel deadLetters = FileChannel.open(deadLetterFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE)) {
+			write(deadLetters, record);
+			deadLetters.force(false);
+		} catch (IOException e) {
+			logger.warn("[GETNET] Failed to set aside rejected payment response - " + e.getMessage());
+			return false;
+		}
+		logger.error("[GETNET] Journaled response for transaction {} moved to {} after {} failed inserts - {}",
+				record.getKbPaymentTransactionId(), deadLetterFile, maxAttempts, cause.getMessage());
+		return true;
+	}
+
+	// Data exceptions and integrity constraint violations, the row itself is
+	// the problem and retrying will not help
+	private static boolean isRejection(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				final String sqlState = ((SQLException) cause).getSQLState();
+				if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void write(FileChannel target, GetnetPaymentsRecord record) throws IOException {
+		final Map<String, String> entry = new LinkedHashMap<String, String>();
+		for (Field<?> field : GETNET_PAYMENTS.fields()) {
+			final Object value = record.get(field);
+			if (value != null && field != GETNET_PAYMENTS.RECORD_ID) {
+				entry.put(field.getName(), value.toString());
+			}
+		}
+
+		final ByteBuffer line = ByteBuffer.wrap((gson.toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+		while (line.hasRemaining()) {
+			target.write(line, target.size());
+		}
+	}
+
+	// Must be called with lock held
+	private void truncateQuietly(long size) {
+		try {
+			channel.truncate(size);
+		} catch (IOException e) {
+			logger.warn("[GETNET] Failed to discard partial journal entry - " + e.getMessage());
+		}
+	}
+
+	private List<GetnetPaymentsRecord> readJournal() throws IOException {
+		final List<GetnetPaymentsRecord> records = new ArrayList<GetnetPaymentsRecord>();
+		if (!journalFile.exists()) {
+			return records;
+		}
+
+		try (FileChannel in = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ);
+				BufferedReader reader = new BufferedReader(Channels.newReader(in, StandardCharsets.UTF_8.name()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final Map<String, String> entry;
+				try {
+					entry = gson.fromJson(line, ENTRY_TYPE);
+				} catch (RuntimeException e) {
+					// A crash in the middle of an append leaves a truncated last line, that
+					// payment was never acknowledged
+					logger.warn("[GETNET] Skipping unreadable journal entry");
+					continue;
+				}
+				if (entry == null) {
+					continue;
+				}
+
+				final GetnetPaymentsRecord record = new GetnetPaymentsRecord();
+				for (Field<?> field : GETNET_PAYMENTS.fields()) {
+					final String value = entry.get(field.getName());
+					if (value != null) {
+						set(record, field, value);
+					}
+				}
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	private static <T> void set(GetnetPaymentsRecord record, Field<T> field, String value) {
+		record.set(field, field.getDataType().convert(value));
+	}
+}
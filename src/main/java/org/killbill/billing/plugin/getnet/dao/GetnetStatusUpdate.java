@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.dao;
+
+import java.util.UUID;
+
+/**
+ * New Getnet status of a transaction. Refunds are identified by their cancel
+ * request id, payments by their Getnet payment id.
+ */
+public class GetnetStatusUpdate {
+
+	private final UUID kbTenantId;
+	private final String getnetPaymentId;
+	private final String cancelRequestId;
+	private final String status;
+
+	public GetnetStatusUpdate(UUID kbTenantId, String getnetPaymentId, String cancelRequestId, String status) {
+		this.kbTenantId = kbTenantId;
+		this.getnetPaymentId = getnetPaymentId;
+		this.cancelRequestId = cancelRequestId;
+		this.status = status;
+	}
+
+	public UUID getKbTenantId() {
+		return kbTenantId;
+	}
+
+	public String getGetnetPaymentId() {
+		return getnetPaymentId;
+	}
+
+	public String getCancelRequestId() {
+		return cancelRequestId;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public boolean isRefund() {
+		return cancelRequestId != null;
+	}
+
+	/**
+	 * Identifies the transaction the update applies to, two updates with the same
+	 * key replace each other.
+	 */
+	public String getKey() {
+		return isRefund() ? "refund:" + kbTenantId + ":" + cancelRequestId
+				: "payment:" + kbTenantId + ":" + getnetPaymentId;
+	}
+}
@@ -52,4 +52,36 @@ public class Indexes {
 	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_PAYMENT_TRANSACTION_ID = Internal.createIndex(
 			DSL.name("getnet_payments_kb_payment_transaction_id"), GetnetPayments.GETNET_PAYMENTS,
 			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_PAYMENT_TRANSACTION_ID }, false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_ACQUIRER_TRANSACTION_ID = Internal.createIndex(
+			DSL.name("getnet_payments_kb_tenant_id_acquirer_transaction_id"), GetnetPayments.GETNET_PAYMENTS,
+			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+					GetnetPayments.GETNET_PAYMENTS.ACQUIRER_TRANSACTION_ID, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+			false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_AUTHORIZATION_CODE = Internal.createIndex(
+			DSL.name("getnet_payments_kb_tenant_id_authorization_code"), GetnetPayments.GETNET_PAYMENTS,
+			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+					GetnetPayments.GETNET_PAYMENTS.AUTHORIZATION_CODE, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+			false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_KB_PAYMENT_ID = Internal.createIndex(
+			DSL.name("getnet_payments_kb_tenant_id_kb_payment_id"), GetnetPayments.GETNET_PAYMENTS,
+			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+					GetnetPayments.GETNET_PAYMENTS.KB_PAYMENT_ID, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+			false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_ORDER_ID = Internal.createIndex(
+			DSL.name("getnet_payments_kb_tenant_id_order_id"), GetnetPayments.GETNET_PAYMENTS,
+			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+					GetnetPayments.GETNET_PAYMENTS.ORDER_ID, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+			false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_TERMINAL_NSU = Internal.createIndex(
+			DSL.name("getnet_payments_kb_tenant_id_terminal_nsu"), GetnetPayments.GETNET_PAYMENTS,
+			new OrderField[] { GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+					GetnetPayments.GETNET_PAYMENTS.TERMINAL_NSU, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+			false);
+	public static final Index GETNET_PAYMENTS_GETNET_PAYMENTS_TRANSACTION_TYPE_GETNET_STATUS_KB_TENANT_ID = Internal
+			.createIndex(DSL.name("getnet_payments_transaction_type_getnet_status_kb_tenant_id"),
+					GetnetPayments.GETNET_PAYMENTS,
+					new OrderField[] { GetnetPayments.GETNET_PAYMENTS.TRANSACTION_TYPE,
+							GetnetPayments.GETNET_PAYMENTS.GETNET_STATUS, GetnetPayments.GETNET_PAYMENTS.KB_TENANT_ID,
+							GetnetPayments.GETNET_PAYMENTS.CREATED_DATE, GetnetPayments.GETNET_PAYMENTS.RECORD_ID },
+					false);
 }
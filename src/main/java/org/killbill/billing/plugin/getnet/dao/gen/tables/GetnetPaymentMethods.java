@@ -33,7 +33,7 @@ import org.jooq.Identity;
 import org.jooq.Index;
 import org.jooq.Name;
 import org.jooq.Record;
-import org.jooq.Row9;
+import org.jooq.Row17;
 import org.jooq.Schema;
 import org.jooq.Table;
 import org.jooq.TableField;
@@ -123,6 +123,54 @@ public class GetnetPaymentMethods extends TableImpl<GetnetPaymentMethodsRecord>
 	public final TableField<GetnetPaymentMethodsRecord, String> KB_TENANT_ID = createField(DSL.name("kb_tenant_id"),
 			SQLDataType.CHAR(36).nullable(false), this, "");
 
+	/**
+	 * The column <code>killbill.getnet_payment_methods.brand</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> BRAND = createField(DSL.name("brand"),
+			SQLDataType.VARCHAR(50), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.last_four_digits</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> LAST_FOUR_DIGITS = createField(
+			DSL.name("last_four_digits"), SQLDataType.VARCHAR(4), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.expiration_month</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> EXPIRATION_MONTH = createField(
+			DSL.name("expiration_month"), SQLDataType.VARCHAR(2), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.expiration_year</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> EXPIRATION_YEAR = createField(
+			DSL.name("expiration_year"), SQLDataType.VARCHAR(4), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.cardholder_name</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> CARDHOLDER_NAME = createField(
+			DSL.name("cardholder_name"), SQLDataType.VARCHAR(255), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.customer_id</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> CUSTOMER_ID = createField(DSL.name("customer_id"),
+			SQLDataType.VARCHAR(100), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.card_status</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, String> CARD_STATUS = createField(DSL.name("card_status"),
+			SQLDataType.VARCHAR(20), this, "");
+
+	/**
+	 * The column <code>killbill.getnet_payment_methods.card_details_refreshed_at</code>.
+	 */
+	public final TableField<GetnetPaymentMethodsRecord, LocalDateTime> CARD_DETAILS_REFRESHED_AT = createField(
+			DSL.name("card_details_refreshed_at"), SQLDataType.LOCALDATETIME(0), this, "");
+
 	private GetnetPaymentMethods(Name alias, Table<GetnetPaymentMethodsRecord> aliased) {
 		this(alias, aliased, null);
 	}
@@ -205,11 +253,12 @@ public class GetnetPaymentMethods extends TableImpl<GetnetPaymentMethodsRecord>
 	}
 
 	// -------------------------------------------------------------------------
-	// Row9 type methods
+	// Row17 type methods
 	// -------------------------------------------------------------------------
 
 	@Override
-	public Row9<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String> fieldsRow() {
-		return (Row9) super.fieldsRow();
+	public Row17<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String, String, String,
+			String, String, String, String, String, LocalDateTime> fieldsRow() {
+		return (Row17) super.fieldsRow();
 	}
 }
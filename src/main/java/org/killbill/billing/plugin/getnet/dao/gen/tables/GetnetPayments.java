@@ -251,7 +251,13 @@ public class GetnetPayments extends TableImpl<GetnetPaymentsRecord> {
 	public List<Index> getIndexes() {
 		return Arrays.asList(Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_GETNET_PAYMENT_ID,
 				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_PAYMENT_ID,
-				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_PAYMENT_TRANSACTION_ID);
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_PAYMENT_TRANSACTION_ID,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_ACQUIRER_TRANSACTION_ID,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_AUTHORIZATION_CODE,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_KB_PAYMENT_ID,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_ORDER_ID,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_KB_TENANT_ID_TERMINAL_NSU,
+				Indexes.GETNET_PAYMENTS_GETNET_PAYMENTS_TRANSACTION_TYPE_GETNET_STATUS_KB_TENANT_ID);
 	}
 
 	@Override
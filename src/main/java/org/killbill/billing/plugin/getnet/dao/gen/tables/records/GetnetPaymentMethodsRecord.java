@@ -27,8 +27,8 @@ import java.time.LocalDateTime;
 
 import org.jooq.Field;
 import org.jooq.Record1;
-import org.jooq.Record9;
-import org.jooq.Row9;
+import org.jooq.Record17;
+import org.jooq.Row17;
 import org.jooq.impl.UpdatableRecordImpl;
 import org.jooq.types.ULong;
 import org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPaymentMethods;
@@ -38,7 +38,8 @@ import org.killbill.billing.plugin.getnet.dao.gen.tables.GetnetPaymentMethods;
  */
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
 public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymentMethodsRecord>
-		implements Record9<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String> {
+		implements Record17<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String, String,
+				String, String, String, String, String, String, LocalDateTime> {
 
 	private static final long serialVersionUID = 1L;
 
@@ -168,6 +169,118 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		return (String) get(8);
 	}
 
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.brand</code>.
+	 */
+	public void setBrand(String value) {
+		set(9, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.brand</code>.
+	 */
+	public String getBrand() {
+		return (String) get(9);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.last_four_digits</code>.
+	 */
+	public void setLastFourDigits(String value) {
+		set(10, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.last_four_digits</code>.
+	 */
+	public String getLastFourDigits() {
+		return (String) get(10);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.expiration_month</code>.
+	 */
+	public void setExpirationMonth(String value) {
+		set(11, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.expiration_month</code>.
+	 */
+	public String getExpirationMonth() {
+		return (String) get(11);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.expiration_year</code>.
+	 */
+	public void setExpirationYear(String value) {
+		set(12, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.expiration_year</code>.
+	 */
+	public String getExpirationYear() {
+		return (String) get(12);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.cardholder_name</code>.
+	 */
+	public void setCardholderName(String value) {
+		set(13, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.cardholder_name</code>.
+	 */
+	public String getCardholderName() {
+		return (String) get(13);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.customer_id</code>.
+	 */
+	public void setCustomerId(String value) {
+		set(14, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.customer_id</code>.
+	 */
+	public String getCustomerId() {
+		return (String) get(14);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.card_status</code>.
+	 */
+	public void setCardStatus(String value) {
+		set(15, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.card_status</code>.
+	 */
+	public String getCardStatus() {
+		return (String) get(15);
+	}
+
+	/**
+	 * Setter for <code>killbill.getnet_payment_methods.card_details_refreshed_at</code>.
+	 */
+	public void setCardDetailsRefreshedAt(LocalDateTime value) {
+		set(16, value);
+	}
+
+	/**
+	 * Getter for <code>killbill.getnet_payment_methods.card_details_refreshed_at</code>.
+	 */
+	public LocalDateTime getCardDetailsRefreshedAt() {
+		return (LocalDateTime) get(16);
+	}
+
 	// -------------------------------------------------------------------------
 	// Primary key information
 	// -------------------------------------------------------------------------
@@ -178,17 +291,19 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 	}
 
 	// -------------------------------------------------------------------------
-	// Record9 type implementation
+	// Record17 type implementation
 	// -------------------------------------------------------------------------
 
 	@Override
-	public Row9<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String> fieldsRow() {
-		return (Row9) super.fieldsRow();
+	public Row17<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String, String, String,
+			String, String, String, String, String, LocalDateTime> fieldsRow() {
+		return (Row17) super.fieldsRow();
 	}
 
 	@Override
-	public Row9<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String> valuesRow() {
-		return (Row9) super.valuesRow();
+	public Row17<ULong, String, String, String, Short, Short, LocalDateTime, LocalDateTime, String, String, String,
+			String, String, String, String, String, LocalDateTime> valuesRow() {
+		return (Row17) super.valuesRow();
 	}
 
 	@Override
@@ -236,6 +351,46 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.KB_TENANT_ID;
 	}
 
+	@Override
+	public Field<String> field10() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.BRAND;
+	}
+
+	@Override
+	public Field<String> field11() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.LAST_FOUR_DIGITS;
+	}
+
+	@Override
+	public Field<String> field12() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.EXPIRATION_MONTH;
+	}
+
+	@Override
+	public Field<String> field13() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.EXPIRATION_YEAR;
+	}
+
+	@Override
+	public Field<String> field14() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.CARDHOLDER_NAME;
+	}
+
+	@Override
+	public Field<String> field15() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.CUSTOMER_ID;
+	}
+
+	@Override
+	public Field<String> field16() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.CARD_STATUS;
+	}
+
+	@Override
+	public Field<LocalDateTime> field17() {
+		return GetnetPaymentMethods.GETNET_PAYMENT_METHODS.CARD_DETAILS_REFRESHED_AT;
+	}
+
 	@Override
 	public ULong component1() {
 		return getRecordId();
@@ -281,6 +436,46 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		return getKbTenantId();
 	}
 
+	@Override
+	public String component10() {
+		return getBrand();
+	}
+
+	@Override
+	public String component11() {
+		return getLastFourDigits();
+	}
+
+	@Override
+	public String component12() {
+		return getExpirationMonth();
+	}
+
+	@Override
+	public String component13() {
+		return getExpirationYear();
+	}
+
+	@Override
+	public String component14() {
+		return getCardholderName();
+	}
+
+	@Override
+	public String component15() {
+		return getCustomerId();
+	}
+
+	@Override
+	public String component16() {
+		return getCardStatus();
+	}
+
+	@Override
+	public LocalDateTime component17() {
+		return getCardDetailsRefreshedAt();
+	}
+
 	@Override
 	public ULong value1() {
 		return getRecordId();
@@ -326,6 +521,46 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		return getKbTenantId();
 	}
 
+	@Override
+	public String value10() {
+		return getBrand();
+	}
+
+	@Override
+	public String value11() {
+		return getLastFourDigits();
+	}
+
+	@Override
+	public String value12() {
+		return getExpirationMonth();
+	}
+
+	@Override
+	public String value13() {
+		return getExpirationYear();
+	}
+
+	@Override
+	public String value14() {
+		return getCardholderName();
+	}
+
+	@Override
+	public String value15() {
+		return getCustomerId();
+	}
+
+	@Override
+	public String value16() {
+		return getCardStatus();
+	}
+
+	@Override
+	public LocalDateTime value17() {
+		return getCardDetailsRefreshedAt();
+	}
+
 	@Override
 	public GetnetPaymentMethodsRecord value1(ULong value) {
 		setRecordId(value);
@@ -380,9 +615,58 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		return this;
 	}
 
+	@Override
+	public GetnetPaymentMethodsRecord value10(String value) {
+		setBrand(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value11(String value) {
+		setLastFourDigits(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value12(String value) {
+		setExpirationMonth(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value13(String value) {
+		setExpirationYear(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value14(String value) {
+		setCardholderName(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value15(String value) {
+		setCustomerId(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value16(String value) {
+		setCardStatus(value);
+		return this;
+	}
+
+	@Override
+	public GetnetPaymentMethodsRecord value17(LocalDateTime value) {
+		setCardDetailsRefreshedAt(value);
+		return this;
+	}
+
 	@Override
 	public GetnetPaymentMethodsRecord values(ULong value1, String value2, String value3, String value4, Short value5,
-			Short value6, LocalDateTime value7, LocalDateTime value8, String value9) {
+			Short value6, LocalDateTime value7, LocalDateTime value8, String value9, String value10, String value11,
+			String value12, String value13, String value14, String value15, String value16, LocalDateTime value17) {
 		value1(value1);
 		value2(value2);
 		value3(value3);
@@ -392,6 +676,14 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		value7(value7);
 		value8(value8);
 		value9(value9);
+		value10(value10);
+		value11(value11);
+		value12(value12);
+		value13(value13);
+		value14(value14);
+		value15(value15);
+		value16(value16);
+		value17(value17);
 		return this;
 	}
 
@@ -410,7 +702,9 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 	 * Create a detached, initialised GetnetPaymentMethodsRecord
 	 */
 	public GetnetPaymentMethodsRecord(ULong recordId, String kbAccountId, String kbPaymentMethodId, String getnetCardId,
-			Short isDefault, Short isDeleted, LocalDateTime createdDate, LocalDateTime updatedDate, String kbTenantId) {
+			Short isDefault, Short isDeleted, LocalDateTime createdDate, LocalDateTime updatedDate, String kbTenantId,
+			String brand, String lastFourDigits, String expirationMonth, String expirationYear, String cardholderName,
+			String customerId, String cardStatus, LocalDateTime cardDetailsRefreshedAt) {
 		super(GetnetPaymentMethods.GETNET_PAYMENT_METHODS);
 
 		setRecordId(recordId);
@@ -422,5 +716,13 @@ public class GetnetPaymentMethodsRecord extends UpdatableRecordImpl<GetnetPaymen
 		setCreatedDate(createdDate);
 		setUpdatedDate(updatedDate);
 		setKbTenantId(kbTenantId);
+		setBrand(brand);
+		setLastFourDigits(lastFourDigits);
+		setExpirationMonth(expirationMonth);
+		setExpirationYear(expirationYear);
+		setCardholderName(cardholderName);
+		setCustomerId(customerId);
+		setCardStatus(cardStatus);
+		setCardDetailsRefreshedAt(cardDetailsRefreshedAt);
 	}
 }
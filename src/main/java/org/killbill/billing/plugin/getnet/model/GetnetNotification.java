@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.model;
+
+import java.util.Objects;
+
+import com.google.gson.annotations.SerializedName;
+
+public class GetnetNotification {
+	@SerializedName("payment_type")
+	private String paymentType = null;
+
+	@SerializedName("order_id")
+	private String orderId = null;
+
+	@SerializedName("payment_id")
+	private String paymentId = null;
+
+	@SerializedName("cancel_request_id")
+	private String cancelRequestId = null;
+
+	@SerializedName("status")
+	private String status = null;
+
+	@SerializedName("error_code")
+	private String errorCode = null;
+
+	@SerializedName("description_detail")
+	private String descriptionDetail = null;
+
+	public GetnetNotification paymentType(String paymentType) {
+		this.paymentType = paymentType;
+		return this;
+	}
+
+	/**
+	 * Tipo do pagamento notificado (credit, debit, boleto...).
+	 * 
+	 * @return paymentType
+	 **/
+	public String getPaymentType() {
+		return paymentType;
+	}
+
+	public void setPaymentType(String paymentType) {
+		this.paymentType = paymentType;
+	}
+
+	public GetnetNotification orderId(String orderId) {
+		this.orderId = orderId;
+		return this;
+	}
+
+	/**
+	 * Código de identificação do pedido informado pelo e-commerce.
+	 * 
+	 * @return orderId
+	 **/
+	public String getOrderId() {
+		return orderId;
+	}
+
+	public void setOrderId(String orderId) {
+		this.orderId = orderId;
+	}
+
+	public GetnetNotification paymentId(String paymentId) {
+		this.paymentId = paymentId;
+		return this;
+	}
+
+	/**
+	 * Código de identificação do pagamento.
+	 * 
+	 * @return paymentId
+	 **/
+	public String getPaymentId() {
+		return paymentId;
+	}
+
+	public void setPaymentId(String paymentId) {
+		this.paymentId = paymentId;
+	}
+
+	public GetnetNotification cancelRequestId(String cancelRequestId) {
+		this.cancelRequestId = cancelRequestId;
+		return this;
+	}
+
+	/**
+	 * Identificador do request de cancelamento, presente apenas nas notificações
+	 * de cancelamento.
+	 * 
+	 * @return cancelRequestId
+	 **/
+	public String getCancelRequestId() {
+		return cancelRequestId;
+	}
+
+	public void setCancelRequestId(String cancelRequestId) {
+		this.cancelRequestId = cancelRequestId;
+	}
+
+	public GetnetNotification status(String status) {
+		this.status = status;
+		return this;
+	}
+
+	/**
+	 * Status atual da transação.
+	 * 
+	 * @return status
+	 **/
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public GetnetNotification errorCode(String errorCode) {
+		this.errorCode = errorCode;
+		return this;
+	}
+
+	/**
+	 * Código de erro, quando a transação foi negada.
+	 * 
+	 * @return errorCode
+	 **/
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	public void setErrorCode(String errorCode) {
+		this.errorCode = errorCode;
+	}
+
+	public GetnetNotification descriptionDetail(String descriptionDetail) {
+		this.descriptionDetail = descriptionDetail;
+		return this;
+	}
+
+	/**
+	 * Detalhe do status da transação.
+	 * 
+	 * @return descriptionDetail
+	 **/
+	public String getDescriptionDetail() {
+		return descriptionDetail;
+	}
+
+	public void setDescriptionDetail(String descriptionDetail) {
+		this.descriptionDetail = descriptionDetail;
+	}
+
+	@Override
+	public boolean equals(java.lang.Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		GetnetNotification getnetNotification = (GetnetNotification) o;
+		return Objects.equals(this.paymentType, getnetNotification.paymentType)
+				&& Objects.equals(this.orderId, getnetNotification.orderId)
+				&& Objects.equals(this.paymentId, getnetNotification.paymentId)
+				&& Objects.equals(this.cancelRequestId, getnetNotification.cancelRequestId)
+				&& Objects.equals(this.status, getnetNotification.status)
+				&& Objects.equals(this.errorCode, getnetNotification.errorCode)
+				&& Objects.equals(this.descriptionDetail, getnetNotification.descriptionDetail);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(paymentType, orderId, paymentId, cancelRequestId, status, errorCode, descriptionDetail);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("class GetnetNotification {\n");
+
+		sb.append("    paymentType: ").append(toIndentedString(paymentType)).append("\n");
+		sb.append("    orderId: ").append(toIndentedString(orderId)).append("\n");
+		sb.append("    paymentId: ").append(toIndentedString(paymentId)).append("\n");
+		sb.append("    cancelRequestId: ").append(toIndentedString(cancelRequestId)).append("\n");
+		sb.append("    status: ").append(toIndentedString(status)).append("\n");
+		sb.append("    errorCode: ").append(toIndentedString(errorCode)).append("\n");
+		sb.append("    descriptionDetail: ").append(toIndentedString(descriptionDetail)).append("\n");
+		sb.append("}");
+		return sb.toString();
+	}
+
+	/**
+	 * Convert the given object to string with each line indented by 4 spaces
+	 * (except the first line).
+	 */
+	private String toIndentedString(java.lang.Object o) {
+		if (o == null) {
+			return "null";
+		}
+		return o.toString().replace("\n", "\n    ");
+	}
+}
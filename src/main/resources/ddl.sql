@@ -29,6 +29,12 @@ create table getnet_payments (
 create index getnet_payments_kb_payment_id on getnet_payments(kb_payment_id);
 create index getnet_payments_kb_payment_transaction_id on getnet_payments(kb_payment_transaction_id);
 create index getnet_payments_getnet_payment_id on getnet_payments(getnet_payment_id);
+create index getnet_payments_kb_tenant_id_kb_payment_id on getnet_payments(kb_tenant_id, kb_payment_id, record_id);
+create index getnet_payments_kb_tenant_id_acquirer_transaction_id on getnet_payments(kb_tenant_id, acquirer_transaction_id, record_id);
+create index getnet_payments_kb_tenant_id_authorization_code on getnet_payments(kb_tenant_id, authorization_code, record_id);
+create index getnet_payments_kb_tenant_id_order_id on getnet_payments(kb_tenant_id, order_id, record_id);
+create index getnet_payments_kb_tenant_id_terminal_nsu on getnet_payments(kb_tenant_id, terminal_nsu, record_id);
+create index getnet_payments_transaction_type_getnet_status_kb_tenant_id on getnet_payments(transaction_type, getnet_status, kb_tenant_id, created_date, record_id);
 
 create table getnet_payment_methods (
   record_id serial
@@ -40,6 +46,14 @@ create table getnet_payment_methods (
 , created_date datetime not null
 , updated_date datetime not null
 , kb_tenant_id char(36) not null
+, brand varchar(50)
+, last_four_digits varchar(4)
+, expiration_month varchar(2)
+, expiration_year varchar(4)
+, cardholder_name varchar(255)
+, customer_id varchar(100)
+, card_status varchar(20)
+, card_details_refreshed_at datetime
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create unique index getnet_payment_methods_kb_payment_id on getnet_payment_methods(kb_payment_method_id);
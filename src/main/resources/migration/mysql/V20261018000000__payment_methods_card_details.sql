@@ -0,0 +1,9 @@
+alter table getnet_payment_methods
+  add column brand varchar(50) default null
+, add column last_four_digits varchar(4) default null
+, add column expiration_month varchar(2) default null
+, add column expiration_year varchar(4) default null
+, add column cardholder_name varchar(255) default null
+, add column customer_id varchar(100) default null
+, add column card_status varchar(20) default null
+, add column card_details_refreshed_at datetime default null;
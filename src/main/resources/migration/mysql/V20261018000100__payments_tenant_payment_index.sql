@@ -0,0 +1,2 @@
+-- InnoDB builds secondary indexes online, payments keep flowing while this runs
+create index getnet_payments_kb_tenant_id_kb_payment_id on getnet_payments(kb_tenant_id, kb_payment_id, record_id) algorithm=inplace lock=none;
@@ -0,0 +1,5 @@
+-- Seek indexes for searchPayments, one per searchable column
+create index getnet_payments_kb_tenant_id_acquirer_transaction_id on getnet_payments(kb_tenant_id, acquirer_transaction_id, record_id) algorithm=inplace lock=none;
+create index getnet_payments_kb_tenant_id_authorization_code on getnet_payments(kb_tenant_id, authorization_code, record_id) algorithm=inplace lock=none;
+create index getnet_payments_kb_tenant_id_order_id on getnet_payments(kb_tenant_id, order_id, record_id) algorithm=inplace lock=none;
+create index getnet_payments_kb_tenant_id_terminal_nsu on getnet_payments(kb_tenant_id, terminal_nsu, record_id) algorithm=inplace lock=none;
@@ -0,0 +1,2 @@
+-- Lets the refund reconciler read the pending refunds of each tenant in turn without scanning getnet_payments
+create index getnet_payments_transaction_type_getnet_status_kb_tenant_id on getnet_payments(transaction_type, getnet_status, kb_tenant_id, created_date, record_id) algorithm=inplace lock=none;
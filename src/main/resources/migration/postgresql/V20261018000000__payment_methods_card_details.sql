@@ -0,0 +1,9 @@
+alter table getnet_payment_methods
+  add column brand varchar(50)
+, add column last_four_digits varchar(4)
+, add column expiration_month varchar(2)
+, add column expiration_year varchar(4)
+, add column cardholder_name varchar(255)
+, add column customer_id varchar(100)
+, add column card_status varchar(20)
+, add column card_details_refreshed_at datetime;
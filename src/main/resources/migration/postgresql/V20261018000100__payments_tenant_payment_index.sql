@@ -0,0 +1,2 @@
+-- concurrently avoids locking getnet_payments against writes, it cannot run inside a transaction
+create index concurrently if not exists getnet_payments_kb_tenant_id_kb_payment_id on getnet_payments(kb_tenant_id, kb_payment_id, record_id);
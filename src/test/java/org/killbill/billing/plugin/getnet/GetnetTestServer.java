@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Getnet stand-in on a local port for the client tests. Each route answers
+ * with the answers queued for it in turn, repeating the last one, and counts
+ * its requests. Routes match the requests whose path starts with theirs, the
+ * OAuth route always hands out a token.
+ */
+public class GetnetTestServer implements Closeable {
+
+	public static final String PAYMENTS_PATH = "/v1/payments/credit";
+	public static final String PAYMENT_LOOKUP_PATH = "/v1/payments/credit/order/{order_id}";
+
+	private static final String TOKEN_PATH = "/auth/oauth/v2/token";
+	private static final String TOKEN = "{\"access_token\":\"test-token\",\"token_type\":\"Bearer\","
+			+ "\"expires_in\":3600,\"scope\":\"oob\"}";
+
+	private final HttpServer server;
+	private final Map<String, Queue<Answer>> answers = new ConcurrentHashMap<String, Queue<Answer>>();
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+	public GetnetTestServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public GetnetTestServer answer(String method, String path, int statusCode, String body) {
+		answers.computeIfAbsent(route(method, path), k -> new ConcurrentLinkedQueue<Answer>())
+				.add(new Answer(statusCode, body));
+		return this;
+	}
+
+	public int getRequestCount(String method, String path) {
+		final AtomicInteger count = requests.get(route(method, path));
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Tenant configuration of a client calling this server, with no pause
+	 * before lookups and retries and a circuit breaker that stays closed.
+	 */
+	public Properties clientProperties(boolean withLookup) {
+		final Properties properties = new Properties();
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "url", getUrl());
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "seller_id", "test-seller");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "client_id", "test");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "client_secret", "test");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "retry_base_delay_millis", "1");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "retry_max_delay_millis", "1");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "retry_lookup_delay_millis", "0");
+		properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "circuit_breaker_failure_threshold", "100");
+		if (withLookup) {
+			properties.setProperty(GetnetActivator.PROPERTY_PREFIX + "payment_lookup_path", PAYMENT_LOOKUP_PATH);
+		}
+		return properties;
+	}
+
+	public static String paymentResponse(String paymentId, String orderId) {
+		return "{"
+				+ "\"payment_id\":\"" + paymentId + "\","
+				+ "\"seller_id\":\"6eb2412c-165a-41cd-b1d9-76c575d70a28\","
+				+ "\"amount\":1000,"
+				+ "\"currency\":\"BRL\","
+				+ "\"order_id\":\"" + orderId + "\","
+				+ "\"status\":\"APPROVED\","
+				+ "\"received_at\":\"2023-05-10T14:21:09.000Z\","
+				+ "\"credit\":{"
+				+ "\"delayed\":false,"
+				+ "\"authorization_code\":\"000000099999\","
+				+ "\"authorized_at\":\"2023-05-10T14:21:09.000Z\","
+				+ "\"reason_code\":\"00\","
+				+ "\"reason_message\":\"transaction approved\","
+				+ "\"brand\":\"Mastercard\","
+				+ "\"terminal_nsu\":\"0099999\","
+				+ "\"acquirer_transaction_id\":\"10000024\","
+				+ "\"transaction_id\":\"1002217281190421\""
+				+ "}}";
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			in.readAllBytes();
+		}
+		final String path = exchange.getRequestURI().getPath();
+		if (TOKEN_PATH.equals(path)) {
+			send(exchange, 200, TOKEN);
+			return;
+		}
+
+		String matched = null;
+		for (String route : answers.keySet()) {
+			final String prefix = exchange.getRequestMethod() + " ";
+			if (route.startsWith(prefix) && path.startsWith(route.substring(prefix.length()))
+					&& (matched == null || route.length() > matched.length())) {
+				matched = route;
+			}
+		}
+		if (matched == null) {
+			send(exchange, 404, null);
+			return;
+		}
+
+		requests.computeIfAbsent(matched, k -> new AtomicInteger()).incrementAndGet();
+		final Queue<Answer> queue = answers.get(matched);
+		final Answer answer;
+		synchronized (queue) {
+			answer = queue.size() > 1 ? queue.poll() : queue.peek();
+		}
+		send(exchange, answer.statusCode, answer.body);
+	}
+
+	private static void send(HttpExchange exchange, int statusCode, String body) throws IOException {
+		try {
+			if (body == null) {
+				exchange.sendResponseHeaders(statusCode, -1);
+				return;
+			}
+			final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(statusCode, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	// Lookup routes are registered with the fixed part of their path
+	private static String route(String method, String path) {
+		final int placeholder = path.indexOf('{');
+		return method + " " + (placeholder < 0 ? path : path.substring(0, placeholder));
+	}
+
+	private static final class Answer {
+
+		private final int statusCode;
+		private final String body;
+
+		private Answer(int statusCode, String body) {
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetCircuitBreaker {
+
+	@Test(groups = "fast")
+	public void testOnlyTrialCallClosesCircuit() throws PaymentPluginApiException {
+		final GetnetCircuitBreaker breaker = new GetnetCircuitBreaker("test", 2, 0, 10);
+		// Admitted while closed, still in flight when the circuit opens
+		final GetnetCircuitBreaker.Permit slow = breaker.acquire();
+		open(breaker);
+
+		final GetnetCircuitBreaker.Permit trial = breaker.acquire();
+		Assert.assertTrue(trial.isTrial());
+		Assert.assertEquals(breaker.getState(), GetnetCircuitBreaker.State.HALF_OPEN);
+
+		breaker.release(slow, true);
+		Assert.assertEquals(breaker.getState(), GetnetCircuitBreaker.State.HALF_OPEN);
+
+		breaker.release(trial, true);
+		Assert.assertEquals(breaker.getState(), GetnetCircuitBreaker.State.CLOSED);
+		Assert.assertEquals(breaker.getInFlightCalls(), 0);
+	}
+
+	@Test(groups = "fast")
+	public void testFailedTrialReopensCircuit() throws PaymentPluginApiException {
+		final GetnetCircuitBreaker breaker = new GetnetCircuitBreaker("test", 2, 0, 10);
+		final GetnetCircuitBreaker.Permit slow = breaker.acquire();
+		open(breaker);
+
+		final GetnetCircuitBreaker.Permit trial = breaker.acquire();
+		breaker.release(slow, false);
+		Assert.assertEquals(breaker.getState(), GetnetCircuitBreaker.State.HALF_OPEN);
+
+		breaker.release(trial, false);
+		Assert.assertEquals(breaker.getState(), GetnetCircuitBreaker.State.OPEN);
+		Assert.assertEquals(breaker.getOpenedCount(), 2);
+	}
+
+	@Test(groups = "fast")
+	public void testCallsRefusedWhileTrialInFlight() throws PaymentPluginApiException {
+		final GetnetCircuitBreaker breaker = new GetnetCircuitBreaker("test", 1, 0, 10);
+		open(breaker);
+		breaker.acquire();
+
+		try {
+			breaker.acquire();
+			Assert.fail("The circuit should be probed by a single call");
+		} catch (PaymentPluginApiException e) {
+			Assert.assertEquals(e.getErrorType(), GetnetCircuitBreaker.CIRCUIT_OPEN);
+		}
+	}
+
+	private static void open(GetnetCircuitBreaker breaker) throws PaymentPluginApiException {
+		while (breaker.getState() == GetnetCircuitBreaker.State.CLOSED) {
+			breaker.release(breaker.acquire(), false);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jooq.Cursor;
+import org.jooq.Record;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetCursorPagination {
+
+	private boolean closed;
+
+	@Test(groups = "fast")
+	public void testClosesCursorOnceLimitReached() {
+		final GetnetCursorPagination<Record, Integer> pagination = newPagination(10L, 2L, 5);
+
+		final Iterator<Integer> iterator = pagination.iterator();
+		Assert.assertTrue(iterator.hasNext());
+		iterator.next();
+		Assert.assertFalse(closed);
+		iterator.next();
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertTrue(closed);
+	}
+
+	@Test(groups = "fast")
+	public void testClosesCursorOnceExhausted() {
+		final GetnetCursorPagination<Record, Integer> pagination = newPagination(10L, 5L, 3);
+
+		Assert.assertEquals(read(pagination), List.of(0, 1, 2));
+		Assert.assertTrue(closed);
+	}
+
+	@Test(groups = "fast")
+	public void testOffsetsAreRowOffsets() {
+		Assert.assertEquals(newPagination(10L, 5L, 5).getNextOffset(), Long.valueOf(15));
+		Assert.assertNull(newPagination(20L, 5L, 5).getNextOffset());
+		Assert.assertNull(newPagination(0L, null, 25).getNextOffset());
+
+		final GetnetCursorPagination<Record, Integer> pagination = newPagination(10L, 5L, 5);
+		Assert.assertEquals(pagination.getCurrentOffset(), Long.valueOf(10));
+		Assert.assertEquals(pagination.getTotalNbRecords(), Long.valueOf(25));
+		Assert.assertNull(pagination.getMaxNbRecords());
+	}
+
+	// A cursor over rows left past the offset, out of 25 matching rows
+	private GetnetCursorPagination<Record, Integer> newPagination(Long offset, Long limit, int rows) {
+		closed = false;
+		final int[] read = new int[1];
+		@SuppressWarnings("unchecked")
+		final Cursor<Record> cursor = (Cursor<Record>) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Cursor.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "hasNext":
+						return !closed && read[0] < rows;
+					case "fetchNext":
+						return (Record) Proxy.newProxyInstance(getClass().getClassLoader(),
+								new Class<?>[] { Record.class }, (recordProxy, recordMethod, recordArgs) -> read[0]++);
+					case "isClosed":
+						return closed;
+					case "close":
+						closed = true;
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return new GetnetCursorPagination<Record, Integer>(offset, limit, cursor, () -> 25L,
+				record -> (Integer) record.get(0));
+	}
+
+	private static List<Integer> read(GetnetCursorPagination<Record, Integer> pagination) {
+		final List<Integer> rows = new ArrayList<Integer>();
+		for (Integer row : pagination) {
+			rows.add(row);
+		}
+		return rows;
+	}
+}
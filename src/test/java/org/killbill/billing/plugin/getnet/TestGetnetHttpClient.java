@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.getnet.model.Order;
+import org.killbill.billing.plugin.getnet.model.PaymentCredit;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that a payment Getnet did not answer is only sent again once lookups
+ * by order_id agree that Getnet does not have it, against
+ * {@link GetnetTestServer}.
+ */
+public class TestGetnetHttpClient {
+
+	private static final String PAYMENTS_PATH = GetnetTestServer.PAYMENTS_PATH;
+	private static final String LOOKUP_PATH = GetnetTestServer.PAYMENT_LOOKUP_PATH;
+	private static final String PAYMENT_ID = "06f256c8-1bbf-42bf-93b4-ce2041bfb87e";
+
+	private ScheduledExecutorService scheduler;
+	private GetnetConnectionPools connectionPools;
+	private GetnetTestServer server;
+	private GetnetHttpClient client;
+
+	@BeforeClass(groups = "fast")
+	public void setUpClass() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		connectionPools = new GetnetConnectionPools();
+	}
+
+	@AfterClass(groups = "fast")
+	public void tearDownClass() {
+		connectionPools.close();
+		scheduler.shutdownNow();
+	}
+
+	@BeforeMethod(groups = "fast")
+	public void setUp() throws IOException {
+		server = new GetnetTestServer();
+	}
+
+	@AfterMethod(groups = "fast")
+	public void tearDown() throws IOException {
+		if (client != null) {
+			client.close();
+			client = null;
+		}
+		server.close();
+	}
+
+	@Test(groups = "fast")
+	public void testPaymentFoundOnFirstLookupIsNotSentAgain() throws PaymentPluginApiException {
+		final String orderId = UUID.randomUUID().toString();
+		server.answer("POST", PAYMENTS_PATH, 503, "{}")
+				.answer("GET", LOOKUP_PATH, 200, paymentResponse(orderId));
+		client = newClient(server, true);
+
+		final PaymentCreditResponse response = client.sendPaymentRequest(payment(orderId));
+
+		Assert.assertEquals(response.getPaymentId(), PAYMENT_ID);
+		Assert.assertEquals(server.getRequestCount("POST", PAYMENTS_PATH), 1);
+		Assert.assertEquals(server.getRequestCount("GET", LOOKUP_PATH), 1);
+	}
+
+	@Test(groups = "fast")
+	public void testPaymentMissingTwiceIsSentAgain() throws PaymentPluginApiException {
+		final String orderId = UUID.randomUUID().toString();
+		server.answer("POST", PAYMENTS_PATH, 503, "{}").answer("POST", PAYMENTS_PATH, 200, paymentResponse(orderId))
+				.answer("GET", LOOKUP_PATH, 404, null);
+		client = newClient(server, true);
+
+		final PaymentCreditResponse response = client.sendPaymentRequest(payment(orderId));
+
+		Assert.assertEquals(response.getPaymentId(), PAYMENT_ID);
+		Assert.assertEquals(server.getRequestCount("POST", PAYMENTS_PATH), 2);
+		Assert.assertEquals(server.getRequestCount("GET", LOOKUP_PATH), 2);
+	}
+
+	@Test(groups = "fast")
+	public void testFailingLookupLeavesOutcomeUnknown() {
+		final String orderId = UUID.randomUUID().toString();
+		server.answer("POST", PAYMENTS_PATH, 503, "{}").answer("GET", LOOKUP_PATH, 500, "{}");
+		client = newClient(server, true);
+
+		assertUnknownOutcome(orderId);
+		Assert.assertEquals(server.getRequestCount("POST", PAYMENTS_PATH), 1);
+	}
+
+	@Test(groups = "fast")
+	public void testWithoutLookupPathOutcomeIsUnknown() {
+		final String orderId = UUID.randomUUID().toString();
+		server.answer("POST", PAYMENTS_PATH, 503, "{}");
+		client = newClient(server, false);
+
+		assertUnknownOutcome(orderId);
+		Assert.assertEquals(server.getRequestCount("POST", PAYMENTS_PATH), 1);
+		Assert.assertEquals(server.getRequestCount("GET", LOOKUP_PATH), 0);
+	}
+
+	private void assertUnknownOutcome(String orderId) {
+		try {
+			client.sendPaymentRequest(payment(orderId));
+			Assert.fail("Expected the payment outcome to be unknown");
+		} catch (PaymentPluginApiException e) {
+			Assert.assertEquals(e.getErrorType(), GetnetRetryPolicy.UNKNOWN_OUTCOME);
+		}
+	}
+
+	private GetnetHttpClient newClient(GetnetTestServer server, boolean withLookup) {
+		return new GetnetHttpClient(server.clientProperties(withLookup), UUID.randomUUID(), scheduler, Runnable::run,
+				GetnetMetrics.DISABLED, connectionPools);
+	}
+
+	private static PaymentCredit payment(String orderId) {
+		final PaymentCredit payment = new PaymentCredit();
+		payment.setAmount(1000);
+		payment.setCurrency("BRL");
+		final Order order = new Order();
+		order.setOrderId(orderId);
+		payment.setOrder(order);
+		return payment;
+	}
+
+	private static String paymentResponse(String orderId) {
+		return GetnetTestServer.paymentResponse(PAYMENT_ID, orderId);
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetKeysetPagination {
+
+	// record_ids 2, 4, ..., 500, as a table with holes would return them
+	private static final List<Long> RECORD_IDS = new ArrayList<Long>();
+	static {
+		for (long recordId = 2; recordId <= 500; recordId += 2) {
+			RECORD_IDS.add(recordId);
+		}
+	}
+
+	private final List<String> queries = new ArrayList<String>();
+	private final Map<Long, Long> checkpoints = new HashMap<Long, Long>();
+
+	@Test(groups = "fast")
+	public void testFirstPage() throws SQLException {
+		final GetnetKeysetPagination<Long, Long> pagination = newPagination(0L, 10L);
+
+		Assert.assertEquals(read(pagination), RECORD_IDS.subList(0, 10));
+		Assert.assertEquals(pagination.getCurrentOffset(), Long.valueOf(0));
+		Assert.assertEquals(pagination.getNextOffset(), Long.valueOf(10));
+		Assert.assertEquals(pagination.getTotalNbRecords(), Long.valueOf(RECORD_IDS.size()));
+		Assert.assertNull(pagination.getMaxNbRecords());
+	}
+
+	@Test(groups = "fast")
+	public void testOffsetIsARowOffset() throws SQLException {
+		// What Kill Bill core asks for the third page of 10
+		final GetnetKeysetPagination<Long, Long> pagination = newPagination(20L, 10L);
+
+		Assert.assertEquals(read(pagination), RECORD_IDS.subList(20, 30));
+		Assert.assertEquals(pagination.getNextOffset(), Long.valueOf(30));
+	}
+
+	@Test(groups = "fast")
+	public void testLargeLimitSeeksAfterTheFirstPage() throws SQLException {
+		final GetnetKeysetPagination<Long, Long> pagination = newPagination(5L, 230L);
+
+		Assert.assertEquals(read(pagination), RECORD_IDS.subList(5, 235));
+		// Only the first query skips rows, the others seek past the last one read
+		Assert.assertEquals(queries, List.of("skip 5 after 0", "skip 0 after 210", "skip 0 after 410"));
+	}
+
+	@Test(groups = "fast")
+	public void testNextPageSeeksPastWhereTheLastOneEnded() throws SQLException {
+		for (long offset = 0; offset < 200; offset += 50) {
+			Assert.assertEquals(read(newPagination(offset, 50L)),
+					RECORD_IDS.subList((int) offset, (int) offset + 50));
+		}
+
+		Assert.assertEquals(queries, List.of("skip 0 after 0", "skip 0 after 100", "skip 0 after 200",
+				"skip 0 after 300"));
+	}
+
+	@Test(groups = "fast")
+	public void testLastPage() throws SQLException {
+		final GetnetKeysetPagination<Long, Long> pagination = newPagination(240L, 20L);
+
+		Assert.assertEquals(read(pagination), RECORD_IDS.subList(240, 250));
+		Assert.assertNull(pagination.getNextOffset());
+	}
+
+	private GetnetKeysetPagination<Long, Long> newPagination(Long offset, Long limit) throws SQLException {
+		return new GetnetKeysetPagination<Long, Long>(offset, limit, (skip, afterRecordId, pageSize) -> {
+			queries.add("skip " + skip + " after " + afterRecordId);
+			final List<Long> page = new ArrayList<Long>();
+			long skipped = 0;
+			for (Long recordId : RECORD_IDS) {
+				if (recordId > afterRecordId && skipped++ >= skip && page.size() < pageSize) {
+					page.add(recordId);
+				}
+			}
+			return page;
+		}, () -> RECORD_IDS.size(), new GetnetKeysetPagination.Checkpoints() {
+			@Override
+			public Long get(long rowOffset) {
+				return checkpoints.get(rowOffset);
+			}
+
+			@Override
+			public void put(long rowOffset, long recordId) {
+				checkpoints.put(rowOffset, recordId);
+			}
+		}, Function.identity(), Function.identity());
+	}
+
+	private static List<Long> read(GetnetKeysetPagination<Long, Long> pagination) {
+		final List<Long> rows = new ArrayList<Long>();
+		for (Long row : pagination) {
+			rows.add(row);
+		}
+		return rows;
+	}
+}
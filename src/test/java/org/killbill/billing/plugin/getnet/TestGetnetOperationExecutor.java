@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetOperationExecutor {
+
+	@Test(groups = "fast")
+	public void testInterruptedCallerCancelsOperationWithUnknownOutcome() throws Exception {
+		final Properties configProperties = new Properties();
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "offload_enabled", "true");
+		final GetnetOperationExecutor executor = new GetnetOperationExecutor(configProperties);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		final AtomicReference<PaymentPluginApiException> failure = new AtomicReference<PaymentPluginApiException>();
+		final Thread caller = new Thread(() -> {
+			try {
+				executor.execute(UUID.randomUUID(), () -> {
+					started.countDown();
+					try {
+						Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+					} catch (InterruptedException e) {
+						cancelled.countDown();
+					}
+					return "charged";
+				});
+			} catch (PaymentPluginApiException e) {
+				failure.set(e);
+			}
+		});
+		caller.start();
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		caller.interrupt();
+		caller.join(TimeUnit.SECONDS.toMillis(5));
+
+		Assert.assertNotNull(failure.get());
+		Assert.assertEquals(failure.get().getErrorType(), GetnetRetryPolicy.UNKNOWN_OUTCOME);
+		Assert.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+		executor.close();
+	}
+
+	@Test(groups = "fast")
+	public void testTenantNeverTakesMoreThanHalfThePool() throws Exception {
+		final Properties configProperties = fallbackPool(4, 4);
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "offload_acquire_timeout_millis", "100");
+		final GetnetOperationExecutor executor = new GetnetOperationExecutor(configProperties, false);
+		final ExecutorService callers = Executors.newCachedThreadPool();
+		final CountDownLatch release = new CountDownLatch(1);
+		final UUID slowTenant = UUID.randomUUID();
+		try {
+			final CountDownLatch started = new CountDownLatch(2);
+			for (int i = 0; i < 2; i++) {
+				callers.submit(() -> executor.execute(slowTenant, () -> block(started, release)));
+			}
+			Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			assertRejected(executor, slowTenant);
+			Assert.assertEquals(executor.execute(UUID.randomUUID(), () -> "charged"), "charged");
+		} finally {
+			release.countDown();
+			callers.shutdown();
+			executor.close();
+		}
+	}
+
+	@Test(groups = "fast")
+	public void testFullQueueRejectsOperations() throws Exception {
+		final GetnetOperationExecutor executor = new GetnetOperationExecutor(fallbackPool(2, 1), false);
+		final ExecutorService callers = Executors.newCachedThreadPool();
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			final CountDownLatch started = new CountDownLatch(2);
+			for (int i = 0; i < 2; i++) {
+				callers.submit(() -> executor.execute(UUID.randomUUID(), () -> block(started, release)));
+			}
+			Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+			final AtomicReference<String> queued = new AtomicReference<String>();
+			final Thread queuedCaller = new Thread(() -> {
+				try {
+					queued.set(executor.execute(UUID.randomUUID(), () -> "charged"));
+				} catch (PaymentPluginApiException e) {
+					queued.set(e.getErrorType());
+				}
+			});
+			queuedCaller.start();
+			// Parked on its result once its operation sits in the queue
+			while (queuedCaller.getState() != Thread.State.WAITING) {
+				Thread.sleep(10);
+			}
+
+			assertRejected(executor, UUID.randomUUID());
+			release.countDown();
+			queuedCaller.join(TimeUnit.SECONDS.toMillis(5));
+			Assert.assertEquals(queued.get(), "charged");
+		} finally {
+			release.countDown();
+			callers.shutdown();
+			executor.close();
+		}
+	}
+
+	private static Properties fallbackPool(int poolSize, int queueSize) {
+		final Properties configProperties = new Properties();
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "offload_enabled", "true");
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "offload_fallback_pool_size",
+				String.valueOf(poolSize));
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "offload_fallback_queue_size",
+				String.valueOf(queueSize));
+		return configProperties;
+	}
+
+	private static String block(CountDownLatch started, CountDownLatch release) {
+		started.countDown();
+		try {
+			release.await(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return "charged";
+	}
+
+	private static void assertRejected(GetnetOperationExecutor executor, UUID tenantId) {
+		try {
+			executor.execute(tenantId, () -> "charged");
+			Assert.fail("Expected the operation to be refused");
+		} catch (PaymentPluginApiException e) {
+			Assert.assertEquals(e.getErrorType(), GetnetOperationExecutor.REJECTED);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.model.PaymentCredit;
+import org.killbill.billing.plugin.getnet.model.VaultCardResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetPaymentCreditBuilder {
+
+	private static final UUID KB_TRANSACTION_ID = UUID.fromString("6d2e4380-d8a3-4ccb-9138-c289182818a3");
+
+	@Test(groups = "fast")
+	public void testAuthorization() {
+		final PaymentCredit payment = build(TransactionType.AUTHORIZE, "LOJA");
+
+		Assert.assertEquals(payment.getAmount(), Integer.valueOf(1050));
+		Assert.assertEquals(payment.getCurrency(), "BRL");
+		Assert.assertEquals(payment.getOrder().getOrderId(), KB_TRANSACTION_ID.toString());
+		Assert.assertTrue(payment.getCredit().isPreAuthorization());
+		Assert.assertEquals(payment.getCredit().getCard().getNumberToken(), "number-token");
+		// Cut to the 20 characters Getnet accepts
+		Assert.assertEquals(payment.getCredit().getSoftDescriptor(), "LOJA*6d2e4380-d8a3-4");
+	}
+
+	@Test(groups = "fast")
+	public void testPurchaseWithoutSoftDescriptor() {
+		final PaymentCredit payment = build(TransactionType.PURCHASE, null);
+
+		Assert.assertFalse(payment.getCredit().isPreAuthorization());
+		Assert.assertNull(payment.getCredit().getSoftDescriptor());
+	}
+
+	private static PaymentCredit build(TransactionType transactionType, String softDescriptor) {
+		final VaultCardResponse card = new VaultCardResponse();
+		card.setNumberToken("number-token");
+		return GetnetPaymentCreditBuilder.build(transactionType, UUID.randomUUID(), KB_TRANSACTION_ID,
+				new BigDecimal("10.50"), Currency.BRL, card, softDescriptor);
+	}
+}
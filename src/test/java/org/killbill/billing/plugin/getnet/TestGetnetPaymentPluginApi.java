@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.TransactionStatus;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.getnet.dao.GetnetDao;
+import org.killbill.billing.plugin.getnet.dao.GetnetTestDatabase;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.killbill.clock.DefaultClock;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks how payments Kill Bill left UNKNOWN without a row here are settled
+ * when the Janitor refreshes them, against {@link GetnetTestServer} and an
+ * in-memory H2 database.
+ */
+public class TestGetnetPaymentPluginApi {
+
+	private static final String LOOKUP_PATH = GetnetTestServer.PAYMENT_LOOKUP_PATH;
+	private static final String PAYMENT_ID = "06f256c8-1bbf-42bf-93b4-ce2041bfb87e";
+
+	private ScheduledExecutorService scheduler;
+	private GetnetConnectionPools connectionPools;
+	private JdbcConnectionPool dataSource;
+	private GetnetDao getnetDao;
+	private GetnetPaymentPluginApi paymentPluginApi;
+	private GetnetTestServer server;
+	private GetnetHttpClient client;
+	private UUID kbTenantId;
+	private UUID kbAccountId;
+	private UUID kbPaymentId;
+
+	@BeforeClass(groups = "slow")
+	public void setUpClass() throws IOException, SQLException {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		connectionPools = new GetnetConnectionPools();
+		dataSource = GetnetTestDatabase.create("getnet_payment_plugin_api");
+		getnetDao = new GetnetDao(dataSource);
+		paymentPluginApi = new GetnetPaymentPluginApi(null, new DefaultClock(), null, getnetDao, null, null, null,
+				null, null, GetnetMetrics.DISABLED);
+	}
+
+	@AfterClass(groups = "slow")
+	public void tearDownClass() throws SQLException {
+		GetnetTestDatabase.drop(dataSource);
+		connectionPools.close();
+		scheduler.shutdownNow();
+	}
+
+	@BeforeMethod(groups = "slow")
+	public void setUp() throws IOException {
+		server = new GetnetTestServer();
+		client = new GetnetHttpClient(server.clientProperties(true), UUID.randomUUID(), scheduler, Runnable::run,
+				GetnetMetrics.DISABLED, connectionPools);
+		kbTenantId = UUID.randomUUID();
+		kbAccountId = UUID.randomUUID();
+		kbPaymentId = UUID.randomUUID();
+	}
+
+	@AfterMethod(groups = "slow")
+	public void tearDown() throws IOException {
+		client.close();
+		server.close();
+	}
+
+	@Test(groups = "slow")
+	public void testUnknownPaymentFoundOnGetnetIsStored() throws SQLException {
+		final PaymentTransaction authorization = transaction(TransactionType.AUTHORIZE, TransactionStatus.UNKNOWN,
+				new DateTime());
+		server.answer("GET", LOOKUP_PATH, 200,
+				GetnetTestServer.paymentResponse(PAYMENT_ID, authorization.getId().toString()));
+
+		final List<PaymentTransactionInfoPlugin> settled = settle(authorization);
+
+		Assert.assertEquals(settled.size(), 1);
+		Assert.assertEquals(settled.get(0).getKbTransactionPaymentId(), authorization.getId());
+		Assert.assertEquals(settled.get(0).getStatus(), PaymentPluginStatus.PROCESSED);
+		final List<GetnetPaymentsRecord> records = getnetDao.getResponses(kbPaymentId, kbTenantId);
+		Assert.assertEquals(records.size(), 1);
+		Assert.assertEquals(records.get(0).getGetnetPaymentId(), PAYMENT_ID);
+	}
+
+	@Test(groups = "slow")
+	public void testRecentUnknownPaymentMissingOnGetnetStaysUnknown() throws SQLException {
+		server.answer("GET", LOOKUP_PATH, 404, null);
+
+		Assert.assertTrue(settle(transaction(TransactionType.PURCHASE, TransactionStatus.UNKNOWN, new DateTime()))
+				.isEmpty());
+		Assert.assertEquals(server.getRequestCount("GET", LOOKUP_PATH), 1);
+		Assert.assertTrue(getnetDao.getResponses(kbPaymentId, kbTenantId).isEmpty());
+	}
+
+	@Test(groups = "slow")
+	public void testOldUnknownPaymentMissingOnGetnetFails() throws SQLException {
+		server.answer("GET", LOOKUP_PATH, 404, null);
+		final PaymentTransaction purchase = transaction(TransactionType.PURCHASE, TransactionStatus.UNKNOWN,
+				new DateTime().minusHours(2));
+
+		final List<PaymentTransactionInfoPlugin> settled = settle(purchase);
+
+		Assert.assertEquals(settled.size(), 1);
+		Assert.assertEquals(settled.get(0).getStatus(), PaymentPluginStatus.ERROR);
+		Assert.assertEquals(settled.get(0).getGatewayErrorCode(), GetnetPaymentPluginApi.ORDER_NOT_FOUND);
+		Assert.assertTrue(getnetDao.getResponses(kbPaymentId, kbTenantId).isEmpty());
+	}
+
+	@Test(groups = "slow")
+	public void testFailingLookupLeavesPaymentUnknown() throws SQLException {
+		server.answer("GET", LOOKUP_PATH, 500, "{}");
+
+		Assert.assertTrue(settle(transaction(TransactionType.PURCHASE, TransactionStatus.UNKNOWN,
+				new DateTime().minusHours(2))).isEmpty());
+		Assert.assertTrue(getnetDao.getResponses(kbPaymentId, kbTenantId).isEmpty());
+	}
+
+	@Test(groups = "slow")
+	public void testOnlyUnknownPaymentsWithoutRowAreLookedUp() throws SQLException {
+		server.answer("GET", LOOKUP_PATH, 404, null);
+		final PaymentTransaction recorded = transaction(TransactionType.AUTHORIZE, TransactionStatus.UNKNOWN,
+				new DateTime());
+		final PaymentCreditResponse response = GetnetJson.GSON.fromJson(
+				GetnetTestServer.paymentResponse(PAYMENT_ID, recorded.getId().toString()), PaymentCreditResponse.class);
+		getnetDao.addResponse(kbAccountId, kbPaymentId, recorded.getId(), TransactionType.AUTHORIZE,
+				BigDecimal.TEN, Currency.BRL, response, kbTenantId);
+
+		final List<PaymentTransactionInfoPlugin> settled = paymentPluginApi.settleUnknownOutcomes(client,
+				kbAccountId, kbPaymentId, getnetDao.getResponses(kbPaymentId, kbTenantId),
+				Arrays.asList(recorded,
+						transaction(TransactionType.PURCHASE, TransactionStatus.SUCCESS, new DateTime()),
+						transaction(TransactionType.REFUND, TransactionStatus.UNKNOWN, new DateTime())),
+				kbTenantId);
+
+		Assert.assertTrue(settled.isEmpty());
+		Assert.assertEquals(server.getRequestCount("GET", LOOKUP_PATH), 0);
+	}
+
+	private List<PaymentTransactionInfoPlugin> settle(PaymentTransaction transaction) throws SQLException {
+		return paymentPluginApi.settleUnknownOutcomes(client, kbAccountId, kbPaymentId,
+				new ArrayList<GetnetPaymentsRecord>(), Arrays.asList(transaction), kbTenantId);
+	}
+
+	// Kill Bill transaction of the payment under test, with the getters the
+	// plugin reads
+	private PaymentTransaction transaction(TransactionType type, TransactionStatus status, DateTime createdDate) {
+		final Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getId", UUID.randomUUID());
+		values.put("getPaymentId", kbPaymentId);
+		values.put("getTransactionType", type);
+		values.put("getTransactionStatus", status);
+		values.put("getAmount", BigDecimal.TEN);
+		values.put("getCurrency", Currency.BRL);
+		values.put("getCreatedDate", createdDate);
+		return (PaymentTransaction) Proxy.newProxyInstance(TestGetnetPaymentPluginApi.class.getClassLoader(),
+				new Class<?>[] { PaymentTransaction.class }, (proxy, method, args) -> {
+					if ("toString".equals(method.getName())) {
+						return String.valueOf(values);
+					}
+					return values.get(method.getName());
+				});
+	}
+}
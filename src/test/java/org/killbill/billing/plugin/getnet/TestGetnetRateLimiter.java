@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGetnetRateLimiter {
+
+	@Test(groups = "fast")
+	public void testRetryAfterSeconds() {
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter("5"), 5000L);
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter(" 2 "), 2000L);
+	}
+
+	@Test(groups = "fast")
+	public void testRetryAfterNeverRetriesAtOnce() {
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter("0"), 1000L);
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter("-3"), 1000L);
+		final String past = ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1)
+				.format(DateTimeFormatter.RFC_1123_DATE_TIME);
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter(past), 1000L);
+	}
+
+	@Test(groups = "fast")
+	public void testRetryAfterDate() {
+		final String later = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30)
+				.format(DateTimeFormatter.RFC_1123_DATE_TIME);
+		final long pauseMillis = GetnetRateLimiter.parseRetryAfter(later);
+		Assert.assertTrue(pauseMillis > 25000 && pauseMillis <= 30000, "Unexpected pause " + pauseMillis);
+	}
+
+	@Test(groups = "fast")
+	public void testTryAcquireNeverWaits() throws PaymentPluginApiException {
+		final GetnetRateLimiter rateLimiter = new GetnetRateLimiter("test", 1, 5000);
+		final long start = System.currentTimeMillis();
+		Assert.assertEquals(rateLimiter.tryAcquire(start), 0L);
+		final long waitMillis = rateLimiter.tryAcquire(start);
+		Assert.assertTrue(waitMillis > 0 && waitMillis <= 1000, "Unexpected wait " + waitMillis);
+		Assert.assertTrue(System.currentTimeMillis() - start < 500, "tryAcquire waited");
+	}
+
+	@Test(groups = "fast")
+	public void testTryAcquireWaitsOutThrottling() throws PaymentPluginApiException {
+		final GetnetRateLimiter rateLimiter = new GetnetRateLimiter("test", 0, 5000);
+		Assert.assertEquals(rateLimiter.tryAcquire(System.currentTimeMillis()), 0L);
+		rateLimiter.onThrottled("2");
+		final long waitMillis = rateLimiter.tryAcquire(System.currentTimeMillis());
+		Assert.assertTrue(waitMillis > 1500 && waitMillis <= 2000, "Unexpected wait " + waitMillis);
+	}
+
+	@Test(groups = "fast")
+	public void testTryAcquireRejectsPastTheDeadline() throws PaymentPluginApiException {
+		final GetnetRateLimiter rateLimiter = new GetnetRateLimiter("test", 0, 1000);
+		rateLimiter.onThrottled("3");
+		try {
+			rateLimiter.tryAcquire(System.currentTimeMillis());
+			Assert.fail("Expected the call to be rate limited");
+		} catch (PaymentPluginApiException e) {
+			Assert.assertEquals(e.getErrorType(), GetnetRateLimiter.RATE_LIMITED);
+		}
+		Assert.assertEquals(rateLimiter.getRejectedCount(), 1L);
+	}
+
+	@Test(groups = "fast")
+	public void testMissingOrUnreadableRetryAfter() {
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter(null), 1000L);
+		Assert.assertEquals(GetnetRateLimiter.parseRetryAfter("soon"), 1000L);
+	}
+}
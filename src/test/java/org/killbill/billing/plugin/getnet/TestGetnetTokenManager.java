@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestGetnetTokenManager {
+
+	private ExecutorService loginExecutor;
+
+	@BeforeMethod(groups = "fast")
+	public void setUp() {
+		loginExecutor = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterMethod(groups = "fast")
+	public void tearDown() {
+		loginExecutor.shutdownNow();
+	}
+
+	@Test(groups = "fast")
+	public void testSlowLoginDoesNotHoldOtherTenants() throws Exception {
+		final CountDownLatch slowLoginReleased = new CountDownLatch(1);
+		final AtomicInteger slowLogins = new AtomicInteger();
+		final GetnetTokenManager slowTenant = new GetnetTokenManager(() -> {
+			slowLogins.incrementAndGet();
+			try {
+				slowLoginReleased.await();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return newToken("slow");
+		}, 0, null, loginExecutor);
+		final GetnetTokenManager otherTenant = new GetnetTokenManager(() -> newToken("other"), 0, null,
+				loginExecutor);
+
+		// Callers arriving during the login share it instead of taking more threads
+		final CompletableFuture<String> first = slowTenant.getAccessTokenAsync();
+		final CompletableFuture<String> second = slowTenant.getAccessTokenAsync();
+		Assert.assertSame(second, first);
+
+		Assert.assertEquals(otherTenant.getAccessTokenAsync().get(5, TimeUnit.SECONDS), "other");
+		Assert.assertFalse(first.isDone());
+
+		slowLoginReleased.countDown();
+		Assert.assertEquals(first.get(5, TimeUnit.SECONDS), "slow");
+		Assert.assertEquals(slowLogins.get(), 1);
+		Assert.assertTrue(slowTenant.getAccessTokenAsync().isDone());
+	}
+
+	@Test(groups = "fast")
+	public void testFailedLoginIsNotShared() throws Exception {
+		final AtomicInteger logins = new AtomicInteger();
+		final GetnetTokenManager tokenManager = new GetnetTokenManager(() -> {
+			if (logins.incrementAndGet() == 1) {
+				throw new IllegalStateException("Getnet unavailable");
+			}
+			return newToken("token");
+		}, 0, null, loginExecutor);
+
+		try {
+			tokenManager.getAccessTokenAsync().get(5, TimeUnit.SECONDS);
+			Assert.fail("The login should have failed");
+		} catch (ExecutionException e) {
+			Assert.assertEquals(e.getCause().getMessage(), "Getnet unavailable");
+		}
+
+		Assert.assertEquals(tokenManager.getAccessTokenAsync().get(5, TimeUnit.SECONDS), "token");
+		Assert.assertEquals(logins.get(), 2);
+	}
+
+	@Test(groups = "fast")
+	public void testFailedLoginIsSharedWithQueuedCallers() throws Exception {
+		final CountDownLatch loginStarted = new CountDownLatch(1);
+		final CountDownLatch loginReleased = new CountDownLatch(1);
+		final AtomicInteger logins = new AtomicInteger();
+		final GetnetTokenManager tokenManager = new GetnetTokenManager(() -> {
+			if (logins.incrementAndGet() == 1) {
+				loginStarted.countDown();
+				try {
+					loginReleased.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				throw new IllegalStateException("Getnet unavailable");
+			}
+			return newToken("token");
+		}, 0, null, loginExecutor);
+
+		final Thread[] callers = new Thread[3];
+		final String[] failures = new String[callers.length];
+		for (int i = 0; i < callers.length; i++) {
+			final int caller = i;
+			callers[i] = new Thread(() -> {
+				try {
+					tokenManager.getAccessToken();
+				} catch (PaymentPluginApiException | RuntimeException e) {
+					failures[caller] = e.getMessage();
+				}
+			});
+			callers[i].start();
+			if (i == 0) {
+				Assert.assertTrue(loginStarted.await(5, TimeUnit.SECONDS));
+			}
+		}
+		// The others queue behind the first login
+		for (int i = 1; i < callers.length; i++) {
+			while (callers[i].getState() != Thread.State.WAITING) {
+				Thread.sleep(10);
+			}
+		}
+
+		loginReleased.countDown();
+		for (Thread caller : callers) {
+			caller.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		for (String failure : failures) {
+			Assert.assertEquals(failure, "Getnet unavailable");
+		}
+		Assert.assertEquals(logins.get(), 1);
+
+		// Callers arriving after the failure log in again
+		Assert.assertEquals(tokenManager.getAccessToken(), "token");
+		Assert.assertEquals(logins.get(), 2);
+	}
+
+	private static GetnetTokenManager.AccessToken newToken(String value) {
+		final long now = System.currentTimeMillis();
+		return new GetnetTokenManager.AccessToken(value, now, now + TimeUnit.HOURS.toMillis(1));
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * In-memory H2 databases in MySQL mode created from ddl.sql, like the
+ * benchmark fixtures.
+ */
+public final class GetnetTestDatabase {
+
+	private GetnetTestDatabase() {
+	}
+
+	public static JdbcConnectionPool create(String name) throws IOException, SQLException {
+		final String ddl;
+		try (InputStream in = GetnetDao.class.getResourceAsStream("/ddl.sql")) {
+			if (in == null) {
+				throw new IllegalStateException("ddl.sql is not on the classpath");
+			}
+			// H2 only knows serial in PostgreSQL mode
+			ddl = new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("record_id serial",
+					"record_id bigint auto_increment");
+		}
+
+		final JdbcConnectionPool dataSource = JdbcConnectionPool
+				.create("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			for (String sql : ddl.split(";")) {
+				if (!sql.trim().isEmpty()) {
+					statement.execute(sql);
+				}
+			}
+		}
+		return dataSource;
+	}
+
+	public static void drop(JdbcConnectionPool dataSource) throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("drop all objects");
+		}
+		dataSource.dispose();
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.dao;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks with EXPLAIN that the statements GetnetDao sends for a payment are
+ * served by the (kb_tenant_id, kb_payment_id, record_id) index, on an
+ * in-memory H2 database in MySQL mode created from ddl.sql like the
+ * benchmark fixtures.
+ */
+public class TestGetnetDaoIndexes {
+
+	private static final String TENANT_PAYMENT_INDEX = "getnet_payments_kb_tenant_id_kb_payment_id";
+
+	private static final String PAYMENT_CREDIT_RESPONSE = "{"
+			+ "\"payment_id\":\"06f256c8-1bbf-42bf-93b4-ce2041bfb87e\","
+			+ "\"seller_id\":\"6eb2412c-165a-41cd-b1d9-76c575d70a28\","
+			+ "\"amount\":1000,"
+			+ "\"currency\":\"BRL\","
+			+ "\"order_id\":\"6d2e4380-d8a3-4ccb-9138-c289182818a3\","
+			+ "\"status\":\"APPROVED\","
+			+ "\"received_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"credit\":{"
+			+ "\"delayed\":false,"
+			+ "\"authorization_code\":\"000000099999\","
+			+ "\"authorized_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"reason_code\":\"0\","
+			+ "\"reason_message\":\"transaction approved\","
+			+ "\"brand\":\"Mastercard\","
+			+ "\"terminal_nsu\":\"0099999\","
+			+ "\"acquirer_transaction_id\":\"10000024\","
+			+ "\"transaction_id\":\"1002217281190421\""
+			+ "}}";
+
+	// Statements sent by the DAO, with their bound values
+	private final List<RecordedStatement> statements = new ArrayList<RecordedStatement>();
+
+	private JdbcConnectionPool dataSource;
+	private GetnetDao getnetDao;
+	private UUID kbTenantId;
+	private UUID kbPaymentId;
+
+	@BeforeClass(groups = "slow")
+	public void setUpClass() throws IOException, SQLException {
+		dataSource = GetnetTestDatabase.create("getnet_dao_indexes");
+		getnetDao = new GetnetDao(recording(dataSource));
+
+		// A few tenants and payments, so that neither index is trivially empty
+		final PaymentCreditResponse response = GetnetJson.GSON.fromJson(PAYMENT_CREDIT_RESPONSE,
+				PaymentCreditResponse.class);
+		for (int tenant = 0; tenant < 3; tenant++) {
+			kbTenantId = UUID.randomUUID();
+			for (int payment = 0; payment < 10; payment++) {
+				kbPaymentId = UUID.randomUUID();
+				getnetDao.addResponse(UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), TransactionType.AUTHORIZE,
+						BigDecimal.TEN, Currency.BRL, response, kbTenantId);
+				getnetDao.addResponse(UUID.randomUUID(), kbPaymentId, UUID.randomUUID(), TransactionType.CAPTURE,
+						BigDecimal.TEN, Currency.BRL, response, kbTenantId);
+			}
+		}
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("analyze");
+		}
+	}
+
+	@BeforeMethod(groups = "slow")
+	public void setUp() {
+		statements.clear();
+	}
+
+	@AfterClass(groups = "slow")
+	public void tearDownClass() throws SQLException {
+		GetnetTestDatabase.drop(dataSource);
+	}
+
+	@Test(groups = "slow")
+	public void testSuccessfulAuthorizationResponseUsesTenantPaymentIndex() throws SQLException {
+		Assert.assertNotNull(getnetDao.getSuccessfulAuthorizationResponse(kbPaymentId, kbTenantId));
+
+		assertUsesIndex(lastQuery(), TENANT_PAYMENT_INDEX);
+	}
+
+	@Test(groups = "slow")
+	public void testResponsesUseTenantPaymentIndex() throws SQLException {
+		Assert.assertEquals(getnetDao.getResponses(kbPaymentId, kbTenantId).size(), 2);
+
+		assertUsesIndex(lastQuery(), TENANT_PAYMENT_INDEX);
+	}
+
+	private void assertUsesIndex(RecordedStatement query, String index) throws SQLException {
+		final String plan = explain(query).toLowerCase();
+		Assert.assertTrue(plan.contains(index), "Expected " + index + " in plan: " + plan);
+		Assert.assertFalse(plan.contains("tablescan"), "Unexpected table scan in plan: " + plan);
+	}
+
+	private RecordedStatement lastQuery() {
+		for (int i = statements.size() - 1; i >= 0; i--) {
+			if (statements.get(i).sql.trim().toLowerCase().startsWith("select")) {
+				return statements.get(i);
+			}
+		}
+		throw new AssertionError("No query sent, statements: " + statements);
+	}
+
+	private String explain(RecordedStatement query) throws SQLException {
+		try (Connection conn = dataSource.getConnection();
+				PreparedStatement explain = conn.prepareStatement("explain " + query.sql)) {
+			for (Map.Entry<Integer, Object> parameter : query.parameters.entrySet()) {
+				explain.setObject(parameter.getKey(), parameter.getValue());
+			}
+			try (ResultSet plan = explain.executeQuery()) {
+				Assert.assertTrue(plan.next());
+				return plan.getString(1);
+			}
+		}
+	}
+
+	// Hands out connections recording the prepared statements executed on them
+	private DataSource recording(DataSource target) {
+		return proxy(DataSource.class, target, (method, args, result) -> {
+			if (result instanceof Connection) {
+				return proxy(Connection.class, result, (connMethod, connArgs, connResult) -> {
+					if (connResult instanceof PreparedStatement && connArgs[0] instanceof String) {
+						return recording((PreparedStatement) connResult, (String) connArgs[0]);
+					}
+					return connResult;
+				});
+			}
+			return result;
+		});
+	}
+
+	private PreparedStatement recording(PreparedStatement target, String sql) {
+		final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+		return proxy(PreparedStatement.class, target, (method, args, result) -> {
+			if (method.getName().startsWith("set") && args != null && args.length >= 2
+					&& args[0] instanceof Integer) {
+				parameters.put((Integer) args[0], args[1]);
+			} else if (method.getName().startsWith("execute")) {
+				statements.add(new RecordedStatement(sql, new TreeMap<Integer, Object>(parameters)));
+			}
+			return result;
+		});
+	}
+
+	private interface Interceptor {
+		Object intercept(Method method, Object[] args, Object result) throws Throwable;
+	}
+
+	private static <T> T proxy(Class<T> type, Object target, Interceptor interceptor) {
+		return type.cast(Proxy.newProxyInstance(TestGetnetDaoIndexes.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					try {
+						return interceptor.intercept(method, args, method.invoke(target, args));
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}));
+	}
+
+	private static final class RecordedStatement {
+
+		private final String sql;
+		private final Map<Integer, Object> parameters;
+
+		private RecordedStatement(String sql, Map<Integer, Object> parameters) {
+			this.sql = sql;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public String toString() {
+			return sql + " " + parameters;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2023 Filipe Garcia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX short identifier: Apache-2.0
+ *
+ * Contributors:
+ *     Filipe Garcia - initial API and implementation
+ *******************************************************************************/
+package org.killbill.billing.plugin.getnet.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.getnet.GetnetActivator;
+import org.killbill.billing.plugin.getnet.GetnetJson;
+import org.killbill.billing.plugin.getnet.dao.gen.tables.records.GetnetPaymentsRecord;
+import org.killbill.billing.plugin.getnet.model.PaymentCreditResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Crash recovery, compaction and dead lettering of the write-behind journal,
+ * on a temporary file and an in-memory H2 database created from ddl.sql.
+ */
+public class TestGetnetResponseJournal {
+
+	// reason_code is a varchar(5), a longer one is rejected by the database
+	private static final String REJECTED_REASON_CODE = "rejected";
+
+	private static final String PAYMENT_CREDIT_RESPONSE = "{"
+			+ "\"payment_id\":\"06f256c8-1bbf-42bf-93b4-ce2041bfb87e\","
+			+ "\"seller_id\":\"6eb2412c-165a-41cd-b1d9-76c575d70a28\","
+			+ "\"amount\":1000,"
+			+ "\"currency\":\"BRL\","
+			+ "\"order_id\":\"6d2e4380-d8a3-4ccb-9138-c289182818a3\","
+			+ "\"status\":\"APPROVED\","
+			+ "\"received_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"credit\":{"
+			+ "\"delayed\":false,"
+			+ "\"authorization_code\":\"000000099999\","
+			+ "\"authorized_at\":\"2023-05-10T14:21:09.000Z\","
+			+ "\"reason_code\":\"0\","
+			+ "\"reason_message\":\"transaction approved\","
+			+ "\"brand\":\"Mastercard\","
+			+ "\"terminal_nsu\":\"0099999\","
+			+ "\"acquirer_transaction_id\":\"10000024\","
+			+ "\"transaction_id\":\"1002217281190421\""
+			+ "}}";
+
+	private final List<GetnetResponseJournal> journals = new ArrayList<GetnetResponseJournal>();
+
+	private JdbcConnectionPool dataSource;
+	// Reads and replays, never goes through a journal
+	private GetnetDao getnetDao;
+	private Path directory;
+	private File journalFile;
+	private UUID kbTenantId;
+	private UUID kbPaymentId;
+
+	@BeforeMethod(groups = "slow")
+	public void setUp() throws IOException, SQLException {
+		dataSource = GetnetTestDatabase.create("getnet_response_journal");
+		getnetDao = new GetnetDao(dataSource);
+		directory = Files.createTempDirectory("getnet-journal");
+		journalFile = directory.resolve("responses.journal").toFile();
+		kbTenantId = UUID.randomUUID();
+		kbPaymentId = UUID.randomUUID();
+	}
+
+	@AfterMethod(groups = "slow")
+	public void tearDown() throws IOException, SQLException {
+		for (GetnetResponseJournal journal : journals) {
+			journal.close();
+		}
+		journals.clear();
+		GetnetTestDatabase.drop(dataSource);
+		for (File file : directory.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(directory);
+	}
+
+	@Test(groups = "slow")
+	public void testReplaySkipsTruncatedLastLine() throws Exception {
+		final GetnetDao crashedDao = journaling(newJournal(new Properties()));
+		final UUID first = addResponse(crashedDao, "0");
+		final UUID second = addResponse(crashedDao, "0");
+		// The process died in the middle of the next append
+		Files.write(journalFile.toPath(), "{\"kb_account_id\":\"".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		Assert.assertTrue(getnetDao.getResponses(kbPaymentId, kbTenantId).isEmpty());
+
+		newJournal(new Properties());
+
+		final List<String> replayed = new ArrayList<String>();
+		for (GetnetPaymentsRecord record : getnetDao.getResponses(kbPaymentId, kbTenantId)) {
+			replayed.add(record.getKbPaymentTransactionId());
+		}
+		Assert.assertEquals(replayed, List.of(first.toString(), second.toString()));
+		Assert.assertEquals(journalFile.length(), 0L);
+	}
+
+	@Test(groups = "slow")
+	public void testCompactionKeepsPendingRows() throws Exception {
+		final Properties configProperties = new Properties();
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_compact_threshold_bytes", "1");
+		final GetnetResponseJournal journal = newJournal(configProperties);
+		final GetnetDao journalingDao = journaling(journal);
+		final UUID flushed = addResponse(journalingDao, "0");
+		final UUID rejected = addResponse(journalingDao, REJECTED_REASON_CODE);
+
+		assertFlushFails(journal);
+
+		final List<GetnetPaymentsRecord> responses = getnetDao.getResponses(kbPaymentId, kbTenantId);
+		Assert.assertEquals(responses.size(), 1);
+		Assert.assertEquals(responses.get(0).getKbPaymentTransactionId(), flushed.toString());
+		Assert.assertEquals(transactionIds(journalFile), List.of(rejected.toString()));
+		Assert.assertFalse(new File(journalFile.getPath() + ".compact").exists());
+
+		// Appends go to the compacted journal
+		final UUID appended = addResponse(journalingDao, "0");
+		Assert.assertEquals(transactionIds(journalFile), List.of(rejected.toString(), appended.toString()));
+	}
+
+	@Test(groups = "slow")
+	public void testRejectedRowIsDeadLetteredAfterMaxAttempts() throws Exception {
+		final Properties configProperties = new Properties();
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_max_attempts", "3");
+		final GetnetResponseJournal journal = newJournal(configProperties);
+		final GetnetDao journalingDao = journaling(journal);
+		final UUID rejected = addResponse(journalingDao, REJECTED_REASON_CODE);
+		final UUID heldBack = addResponse(journalingDao, "0");
+
+		assertFlushFails(journal);
+		assertFlushFails(journal);
+		Assert.assertTrue(getnetDao.getResponses(kbPaymentId, kbTenantId).isEmpty());
+		journal.flush();
+
+		final List<GetnetPaymentsRecord> responses = getnetDao.getResponses(kbPaymentId, kbTenantId);
+		Assert.assertEquals(responses.size(), 1);
+		Assert.assertEquals(responses.get(0).getKbPaymentTransactionId(), heldBack.toString());
+		Assert.assertEquals(transactionIds(new File(journalFile.getPath() + ".dead")), List.of(rejected.toString()));
+		Assert.assertEquals(journalFile.length(), 0L);
+	}
+
+	// Flushes only when asked to
+	private GetnetResponseJournal newJournal(Properties configProperties) throws IOException, SQLException {
+		configProperties.setProperty(GetnetActivator.PROPERTY_PREFIX + "write_behind_flush_interval_millis",
+				"3600000");
+		final GetnetResponseJournal journal = new GetnetResponseJournal(getnetDao, journalFile, configProperties);
+		journal.start();
+		journals.add(journal);
+		return journal;
+	}
+
+	private GetnetDao journaling(GetnetResponseJournal journal) throws SQLException {
+		final GetnetDao journalingDao = new GetnetDao(dataSource);
+		journalingDao.setResponseJournal(journal);
+		return journalingDao;
+	}
+
+	private UUID addResponse(GetnetDao dao, String reasonCode) throws SQLException {
+		final PaymentCreditResponse response = GetnetJson.GSON.fromJson(
+				PAYMENT_CREDIT_RESPONSE.replace("\"reason_code\":\"0\"", "\"reason_code\":\"" + reasonCode + "\""),
+				PaymentCreditResponse.class);
+		final UUID kbTransactionId = UUID.randomUUID();
+		dao.addResponse(UUID.randomUUID(), kbPaymentId, kbTransactionId, TransactionType.AUTHORIZE, BigDecimal.TEN,
+				Currency.BRL, response, kbTenantId);
+		return kbTransactionId;
+	}
+
+	private static void assertFlushFails(GetnetResponseJournal journal) {
+		try {
+			journal.flush();
+			Assert.fail("The rejected row should have failed the flush");
+		} catch (SQLException e) {
+			// Retried on the next flush
+		}
+	}
+
+	private static List<String> transactionIds(File file) throws IOException {
+		final List<String> transactionIds = new ArrayList<String>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			transactionIds.add(
+					GetnetJson.GSON.fromJson(line, JsonObject.class).get("kb_payment_transaction_id").getAsString());
+		}
+		return transactionIds;
+	}
+}